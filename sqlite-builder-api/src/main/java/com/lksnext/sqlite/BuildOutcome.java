@@ -0,0 +1,23 @@
+package com.lksnext.sqlite;
+
+/**
+ * How the build of a database ended.
+ */
+public enum BuildOutcome {
+
+	/**
+	 * The database was built and, if final, persisted.
+	 */
+	BUILT,
+
+	/**
+	 * The database was not built because another thread or process held its
+	 * lock for longer than the lock timeout.
+	 */
+	SKIPPED,
+
+	/**
+	 * The build failed; see {@link DatabaseBuildResult#getError()}.
+	 */
+	FAILED
+}
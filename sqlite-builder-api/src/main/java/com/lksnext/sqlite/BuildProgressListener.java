@@ -0,0 +1,28 @@
+package com.lksnext.sqlite;
+
+/**
+ * Receives the progress of asynchronous builds. Called from the build
+ * threads, so implementations must be thread-safe and return quickly.
+ * <p>
+ * The databases a database extends from are reported too when they are built
+ * for it.
+ */
+public interface BuildProgressListener {
+
+	BuildProgressListener NONE = new BuildProgressListener() {
+	};
+
+	default void databaseStarted(String database) {
+	}
+
+	/**
+	 * Called when a table, or an element of a table imported in several
+	 * elements, has been imported.
+	 */
+	default void tableImported(String database, String table, long rows) {
+	}
+
+	default void databaseFinished(DatabaseBuildResult result) {
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.lksnext.sqlite;
+
+import java.util.Map;
+
+/**
+ * Result of the build of a database for a context.
+ */
+public class DatabaseBuildResult {
+
+	private String database;
+
+	private Map<String, String> context;
+
+	private BuildOutcome outcome;
+
+	private Throwable error;
+
+	private long startTime;
+
+	private long buildTime;
+
+	private long persistTime;
+
+	private long totalTime;
+
+	private Map<String, Long> tableRows;
+
+	/**
+	 * @return name of the database, or <code>null</code> if the build failed
+	 *         before it was resolved
+	 */
+	public String getDatabase() {
+		return database;
+	}
+
+	public void setDatabase(String database) {
+		this.database = database;
+	}
+
+	public Map<String, String> getContext() {
+		return context;
+	}
+
+	public void setContext(Map<String, String> context) {
+		this.context = context;
+	}
+
+	public BuildOutcome getOutcome() {
+		return outcome;
+	}
+
+	public void setOutcome(BuildOutcome outcome) {
+		this.outcome = outcome;
+	}
+
+	/**
+	 * @return cause of a {@link BuildOutcome#FAILED} build
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public void setError(Throwable error) {
+		this.error = error;
+	}
+
+	/**
+	 * @return time the build started, in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+
+	/**
+	 * @return milliseconds spent creating the database file: importing,
+	 *         indexing and vacuuming it
+	 */
+	public long getBuildTime() {
+		return buildTime;
+	}
+
+	public void setBuildTime(long buildTime) {
+		this.buildTime = buildTime;
+	}
+
+	/**
+	 * @return milliseconds spent persisting the database, zero if it is not
+	 *         final
+	 */
+	public long getPersistTime() {
+		return persistTime;
+	}
+
+	public void setPersistTime(long persistTime) {
+		this.persistTime = persistTime;
+	}
+
+	/**
+	 * @return milliseconds from the start of the build to its end, including
+	 *         the databases it extends from and the wait for its lock
+	 */
+	public long getTotalTime() {
+		return totalTime;
+	}
+
+	public void setTotalTime(long totalTime) {
+		this.totalTime = totalTime;
+	}
+
+	/**
+	 * @return rows of the tables imported into a built database, by lowercase
+	 *         table name, as left by the cleanup statements
+	 */
+	public Map<String, Long> getTableRows() {
+		return tableRows;
+	}
+
+	public void setTableRows(Map<String, Long> tableRows) {
+		this.tableRows = tableRows;
+	}
+
+}
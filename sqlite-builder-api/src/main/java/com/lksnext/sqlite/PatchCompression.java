@@ -0,0 +1,27 @@
+package com.lksnext.sqlite;
+
+/**
+ * Compressed artifacts kept for the patches of a database. Patches are
+ * downloaded far more often than they are created, so they are compressed
+ * once, when created, instead of per request.
+ */
+public enum PatchCompression {
+
+	/**
+	 * Only the raw patch, <code>&lt;current md5&gt;-&lt;md5&gt;.patch</code>.
+	 * The default.
+	 */
+	NONE,
+
+	/**
+	 * The raw patch and its gzip form,
+	 * <code>&lt;current md5&gt;-&lt;md5&gt;.patch.gz</code>,
+	 * for clients that accept the gzip content encoding.
+	 */
+	GZIP,
+
+	/**
+	 * Only the gzip form of the patch.
+	 */
+	GZIP_ONLY
+}
@@ -0,0 +1,21 @@
+package com.lksnext.sqlite;
+
+/**
+ * Formats of the patches from previous versions of a database to the current
+ * one. Patch files can be told apart by their first bytes.
+ */
+public enum PatchFormat {
+
+	/**
+	 * Generic binary delta (RFC 3284), starting with the bytes
+	 * <code>D6 C3 C4</code>. The default.
+	 */
+	VCDIFF,
+
+	/**
+	 * The pages of the SQLite file that changed, starting with
+	 * <code>SQPD</code>. Only used between versions with the same page size;
+	 * other patches fall back to {@link #VCDIFF}.
+	 */
+	PAGES
+}
@@ -0,0 +1,60 @@
+package com.lksnext.sqlite;
+
+/**
+ * Options of {@link SQLiteDBPersistManager#persist(String, String, PersistOptions)}.
+ */
+public class PersistOptions {
+
+	private boolean createDiffPatches = true;
+
+	private String fingerprint;
+
+	private PatchFormat patchFormat = PatchFormat.VCDIFF;
+
+	private PatchCompression patchCompression = PatchCompression.NONE;
+
+	public boolean isCreateDiffPatches() {
+		return createDiffPatches;
+	}
+
+	public void setCreateDiffPatches(boolean createDiffPatches) {
+		this.createDiffPatches = createDiffPatches;
+	}
+
+	/**
+	 * @return logical fingerprint of the database content, or
+	 *         <code>null</code> if unknown. When it matches the fingerprint of
+	 *         the current database, the new file is not persisted.
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * @return format of the patches from the previous versions
+	 */
+	public PatchFormat getPatchFormat() {
+		return patchFormat;
+	}
+
+	public void setPatchFormat(PatchFormat patchFormat) {
+		this.patchFormat = patchFormat;
+	}
+
+	/**
+	 * @return compressed artifacts written for the patches from the previous
+	 *         versions
+	 */
+	public PatchCompression getPatchCompression() {
+		return patchCompression;
+	}
+
+	public void setPatchCompression(PatchCompression patchCompression) {
+		this.patchCompression = patchCompression;
+	}
+
+}
@@ -2,10 +2,34 @@ package com.lksnext.sqlite;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface SQLiteDBConfigurableGenerator {
 
 	void createDatabases(String definition, List<Map<String, String>> contexts);
 	void createDatabase(String definition, Map<String, String> context);
 
+	/**
+	 * Builds the databases of the definition for every context on the
+	 * generator threads, sharing the databases and table imports they have in
+	 * common, and returns at once.
+	 *
+	 * @return the result of every context, in the order of the contexts
+	 * @see #createDatabaseAsync(String, Map, BuildProgressListener)
+	 */
+	List<CompletableFuture<DatabaseBuildResult>> createDatabasesAsync(String definition,
+			List<Map<String, String>> contexts, BuildProgressListener listener);
+
+	/**
+	 * Builds the database of the definition for the context on a generator
+	 * thread and returns at once.
+	 * <p>
+	 * The future completes with the result of the build, also when it fails
+	 * or is skipped. Cancelling it stops the build: the running source queries
+	 * are cancelled and the temporary database is deleted. A database that
+	 * has started to be persisted is persisted anyway.
+	 */
+	CompletableFuture<DatabaseBuildResult> createDatabaseAsync(String definition, Map<String, String> context,
+			BuildProgressListener listener);
+
 }
@@ -0,0 +1,52 @@
+package com.lksnext.sqlite;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+/**
+ * Patches from the versions clients have to the current version of each
+ * database.
+ * <p>
+ * Patches are generated when first requested, and the versions clients
+ * request most are generated ahead when a new version is persisted. The files
+ * are evicted, least recently used first, when they exceed the configured
+ * total size.
+ */
+public interface SQLiteDBPatchCache {
+
+    /**
+     * Returns the patch from a version of the database to the current one,
+     * generating it if needed. Concurrent requests for the same patch wait for
+     * a single generation. Every request is counted as demand for the
+     * version.
+     *
+     * @param md5 digest of the version the client has
+     * @return the patch file, the compressed one if only that is kept, or
+     *         <code>null</code> if the version is the current one or no longer
+     *         known
+     */
+    URI getPatch(String database, String md5) throws URISyntaxException, IOException;
+
+    /**
+     * Returns the gzip form of the patch from a version of the database to the
+     * current one, generating it if needed, to be served with the
+     * <code>gzip</code> content encoding. Its size is recorded in the
+     * metadata of the current version.
+     *
+     * @param md5 digest of the version the client has
+     * @return the compressed patch file, or <code>null</code> if the version
+     *         is the current one or no longer known, or if the patches of the
+     *         current version are not compressed
+     * @see com.lksnext.sqlite.PatchCompression
+     */
+    URI getCompressedPatch(String database, String md5) throws URISyntaxException, IOException;
+
+    /**
+     * @return number of requests of every version of the database since the
+     *         application started
+     */
+    Map<String, Long> getDemand(String database);
+
+}
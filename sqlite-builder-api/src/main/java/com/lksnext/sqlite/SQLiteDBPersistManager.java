@@ -11,8 +11,16 @@ public interface SQLiteDBPersistManager {
 
     public void persist(String user,String database, boolean createDiffPatches) throws URISyntaxException, IOException;
 
+    public void persist(String user, String database, PersistOptions options) throws URISyntaxException, IOException;
+
     void createPatchForMD5(SQLiteDBMetadata sqliteDBMetadata, String database, String md5);
 
+    /**
+     * Whether <code>md5</code> is a previous version of the database. Looked
+     * up in the saved metadata of the database through the index of the
+     * metadata manager; <code>sqliteDBMetadata</code> is only searched if
+     * that fails.
+     */
     boolean existsDBForMD5(SQLiteDBMetadata sqliteDBMetadata, String database, String md5);
 
     void fixSymbolicLinks(String database) throws IOException;
@@ -15,4 +15,79 @@ public interface SQLitePropertyConfig {
 	boolean isMoveDisabled();
 	
 	boolean isSymLinkDisabled();
+
+	int getGeneratorThreads();
+
+	int getInsertBatchSize();
+
+	boolean isPipelinedImport();
+
+	int getPipelineQueueSize();
+
+	boolean isBulkLoad();
+
+	String getDigestAlgorithm();
+
+	/**
+	 * Threads shared by every database to read the chunks of tree digests.
+	 */
+	int getDigestThreads();
+
+	/**
+	 * Bytes of the new database encoded per VCDIFF window when a patch is created.
+	 */
+	int getPatchWindowSize();
+
+	/**
+	 * Bytes of the previous database added on each side of the region used as
+	 * dictionary of a patch window. Content that moved further is sent as
+	 * literal data.
+	 */
+	int getPatchDictionaryMargin();
+
+	/**
+	 * Threads shared by every database to encode patches.
+	 */
+	int getPatchThreads();
+
+	/**
+	 * Milliseconds persist waits for the patches of a database, 0 to wait
+	 * until they are written. Patches not written by then go on in the
+	 * background.
+	 */
+	long getPatchTimeBudget();
+
+	/**
+	 * Maximum total bytes of the patches of every database, 0 for no limit.
+	 * The least recently used patches are evicted first.
+	 */
+	long getPatchCacheMaxBytes();
+
+	/**
+	 * Deflate level of latest.zip, 0 (stored) to 9.
+	 */
+	int getZipLevel();
+
+	/**
+	 * Threads shared by every database to deflate latest.zip.
+	 */
+	int getZipThreads();
+
+	/**
+	 * Threads shared by every database to compress patches.
+	 */
+	int getPatchCompressionThreads();
+
+	/**
+	 * Milliseconds the cached metadata of a database is used before checking
+	 * whether its file changed, 0 to check on every load. Metadata saved by
+	 * this application is seen at once.
+	 */
+	long getMetadataCheckInterval();
+
+	/**
+	 * Milliseconds to wait for the lock of a database being built by another
+	 * thread or process before skipping it.
+	 */
+	long getLockTimeout();
 }
@@ -0,0 +1,26 @@
+package com.lksnext.sqlite.digest;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Computes the content digest of database files. The digest identifies a
+ * database version in file names, metadata and patch names.
+ * <p>
+ * Implementations registered as beans are available next to the built-in ones
+ * and can be selected by their algorithm name.
+ */
+public interface FileDigester {
+
+	/**
+	 * @return name of the algorithm, recorded in the metadata next to every
+	 *         digest
+	 */
+	String getAlgorithm();
+
+	/**
+	 * @return the digest of the file content as a lowercase hex string
+	 */
+	String digest(URI file) throws IOException;
+
+}
@@ -1,9 +1,41 @@
 package com.lksnext.sqlite.metadata;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lksnext.sqlite.PatchCompression;
+import com.lksnext.sqlite.PatchFormat;
+
 public class SQLiteDBFileInfo {
 
 	private String file;
 	private String md5;
+	private String algorithm;
+	private String fingerprint;
+	private PatchFormat patchFormat;
+	private PatchCompression patchCompression;
+	private List<SQLitePatchInfo> patches;
+
+	public SQLiteDBFileInfo() {
+	}
+
+	/**
+	 * Deep copy of <code>other</code>.
+	 */
+	public SQLiteDBFileInfo(SQLiteDBFileInfo other) {
+		file = other.file;
+		md5 = other.md5;
+		algorithm = other.algorithm;
+		fingerprint = other.fingerprint;
+		patchFormat = other.patchFormat;
+		patchCompression = other.patchCompression;
+		if (other.patches != null) {
+			patches = new ArrayList<SQLitePatchInfo>();
+			for (SQLitePatchInfo patch : other.patches) {
+				patches.add(new SQLitePatchInfo(patch));
+			}
+		}
+	}
 
 	public String getFile() {
 		return file;
@@ -21,4 +53,70 @@ public class SQLiteDBFileInfo {
 		this.md5 = md5;
 	}
 
+	/**
+	 * @return algorithm of the digest stored in {@link #getMd5()}, or
+	 *         <code>null</code> for entries written before the algorithm was
+	 *         recorded, which are MD5 digests
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public void setAlgorithm(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * @return logical fingerprint of the database content, computed while it
+	 *         was generated, or <code>null</code> if unknown
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * @return format of the patches from the previous versions to this one, or
+	 *         <code>null</code> for entries written before the format was
+	 *         recorded, whose patches are {@link PatchFormat#VCDIFF}
+	 */
+	public PatchFormat getPatchFormat() {
+		return patchFormat;
+	}
+
+	public void setPatchFormat(PatchFormat patchFormat) {
+		this.patchFormat = patchFormat;
+	}
+
+	/**
+	 * @return compressed artifacts of the patches from the previous versions
+	 *         to this one, or <code>null</code> for entries written before it
+	 *         was recorded, which have none
+	 */
+	public PatchCompression getPatchCompression() {
+		return patchCompression;
+	}
+
+	public void setPatchCompression(PatchCompression patchCompression) {
+		this.patchCompression = patchCompression;
+	}
+
+	/**
+	 * @return sizes of the patches from the previous versions to this one
+	 *         written so far
+	 */
+	public List<SQLitePatchInfo> getPatches() {
+		if (patches == null) {
+			patches = new ArrayList<SQLitePatchInfo>();
+		}
+		return patches;
+	}
+
+	public void setPatches(List<SQLitePatchInfo> patches) {
+		this.patches = patches;
+	}
+
 }
@@ -13,6 +13,19 @@ public class SQLiteDBMetadata {
 		previous = new ArrayList<SQLiteDBFileInfo>();
 	}
 
+	/**
+	 * Deep copy of <code>other</code>.
+	 */
+	public SQLiteDBMetadata(SQLiteDBMetadata other) {
+		current = other.current != null ? new SQLiteDBFileInfo(other.current) : null;
+		previous = new ArrayList<SQLiteDBFileInfo>();
+		if (other.previous != null) {
+			for (SQLiteDBFileInfo info : other.previous) {
+				previous.add(new SQLiteDBFileInfo(info));
+			}
+		}
+	}
+
 	public SQLiteDBFileInfo getCurrent() {
 		return current;
 	}
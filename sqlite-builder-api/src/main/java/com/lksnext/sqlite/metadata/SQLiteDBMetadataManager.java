@@ -3,16 +3,45 @@ package com.lksnext.sqlite.metadata;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.function.Predicate;
 
 public interface SQLiteDBMetadataManager {
 
     public SQLiteDBMetadata loadMetadata(String database) throws URISyntaxException, IOException;
 
+    /**
+     * Loads the metadata of the database as stored, even if a copy loaded
+     * shortly before is cached, for callers that change and save it.
+     */
+    default SQLiteDBMetadata reloadMetadata(String database) throws URISyntaxException, IOException {
+        return loadMetadata(database);
+    }
+
+    /**
+     * Finds a previous version of the database by digest, without loading the
+     * whole metadata.
+     *
+     * @return the version, or <code>null</code> if <code>md5</code> is not a
+     *         previous version of the database
+     */
+    SQLiteDBFileInfo findPrevious(String database, String md5) throws URISyntaxException, IOException;
+
     public void saveMetadata(SQLiteDBMetadata sqliteDBMetadata, String database) throws URISyntaxException, IOException;
 
     boolean existsMetadata(String database) throws URISyntaxException;
 
+    /**
+     * Loads the metadata of the database, applies <code>update</code> and
+     * saves it, with no other update or save of the database in between.
+     * <code>update</code> returns whether it changed the metadata; it is not
+     * saved otherwise.
+     */
+    void updateMetadata(String database, Predicate<SQLiteDBMetadata> update) throws URISyntaxException, IOException;
+
     List<SQLiteDBFileInfo> addDBtoMetadata(SQLiteDBMetadata sqliteDBMetadata, String user, String database, String file,
             String md5) throws URISyntaxException, IOException;
 
+    List<SQLiteDBFileInfo> addDBtoMetadata(SQLiteDBMetadata sqliteDBMetadata, String user, String database, String file,
+            String digest, String algorithm) throws URISyntaxException, IOException;
+
 }
@@ -0,0 +1,70 @@
+package com.lksnext.sqlite.metadata;
+
+/**
+ * Sizes of the artifacts of the patch from a previous version of a database to
+ * the current one, recorded when they are written, so they can be served with
+ * the right length and encoding. The files may have been evicted since.
+ */
+public class SQLitePatchInfo {
+
+	private String md5;
+	private Long size;
+	private Long compressedSize;
+	private String encoding;
+
+	public SQLitePatchInfo() {
+	}
+
+	public SQLitePatchInfo(SQLitePatchInfo other) {
+		md5 = other.md5;
+		size = other.size;
+		compressedSize = other.compressedSize;
+		encoding = other.encoding;
+	}
+
+	/**
+	 * @return digest of the version the patch applies to
+	 */
+	public String getMd5() {
+		return md5;
+	}
+
+	public void setMd5(String md5) {
+		this.md5 = md5;
+	}
+
+	/**
+	 * @return size of the raw patch, or <code>null</code> if it is not kept
+	 */
+	public Long getSize() {
+		return size;
+	}
+
+	public void setSize(Long size) {
+		this.size = size;
+	}
+
+	/**
+	 * @return size of the compressed patch, or <code>null</code> if it is not
+	 *         written yet or not kept
+	 */
+	public Long getCompressedSize() {
+		return compressedSize;
+	}
+
+	public void setCompressedSize(Long compressedSize) {
+		this.compressedSize = compressedSize;
+	}
+
+	/**
+	 * @return content encoding of the compressed patch, <code>gzip</code>
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+}
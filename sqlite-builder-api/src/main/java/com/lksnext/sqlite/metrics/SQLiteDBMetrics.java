@@ -0,0 +1,112 @@
+package com.lksnext.sqlite.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Receives the metrics of the build and persist pipeline.
+ * <p>
+ * Every metric is tagged with the {@link #DEFINITION} and the
+ * {@link #DATABASE} it belongs to, and the table metrics with the
+ * {@link #TABLE} too. Tags are passed as key and value pairs. The definition
+ * of a database persisted or patched before it was built by this process is
+ * {@link #UNKNOWN}.
+ * <p>
+ * Implementations must be thread-safe. They are called per table and per
+ * file, never per row.
+ */
+public interface SQLiteDBMetrics {
+
+	String DEFINITION = "definition";
+
+	String DATABASE = "database";
+
+	String TABLE = "table";
+
+	String UNKNOWN = "unknown";
+
+	/**
+	 * Counter: rows imported into a table.
+	 */
+	String IMPORT_ROWS = "sqlite.builder.import.rows";
+
+	/**
+	 * Counter: bytes of the values imported into a table, as stored by SQLite:
+	 * the length of text and blobs, eight bytes per number.
+	 */
+	String IMPORT_BYTES = "sqlite.builder.import.bytes";
+
+	/**
+	 * Timer: from the execution of the source query of a table to its first
+	 * row.
+	 */
+	String IMPORT_FIRST_ROW = "sqlite.builder.import.first.row";
+
+	/**
+	 * Timer: import of a table, from the execution of its source query to its
+	 * last row written.
+	 */
+	String IMPORT_TIME = "sqlite.builder.import.time";
+
+	/**
+	 * Value: rows per second written into a table.
+	 */
+	String IMPORT_RATE = "sqlite.builder.import.rate";
+
+	/**
+	 * Timer: creation of a database file, from its creation to its vacuum.
+	 */
+	String BUILD_TIME = "sqlite.builder.build.time";
+
+	/**
+	 * Timer: logical fingerprint of a database.
+	 */
+	String FINGERPRINT_TIME = "sqlite.builder.fingerprint.time";
+
+	/**
+	 * Timer: vacuum of a database.
+	 */
+	String VACUUM_TIME = "sqlite.builder.vacuum.time";
+
+	/**
+	 * Timer: persist of a database, from its digest to its patches queued.
+	 */
+	String PERSIST_TIME = "sqlite.builder.persist.time";
+
+	/**
+	 * Timer: digest of a database file.
+	 */
+	String HASH_TIME = "sqlite.builder.hash.time";
+
+	/**
+	 * Timer: writing <code>latest.zip</code>.
+	 */
+	String ZIP_TIME = "sqlite.builder.zip.time";
+
+	/**
+	 * Value: bytes of <code>latest.zip</code>.
+	 */
+	String ZIP_SIZE = "sqlite.builder.zip.size";
+
+	/**
+	 * Timer: generation of a patch requested by a client, or of the batch of
+	 * patches written ahead in one pass over a new version.
+	 */
+	String PATCH_TIME = "sqlite.builder.patch.time";
+
+	/**
+	 * Value: bytes of a generated patch.
+	 */
+	String PATCH_SIZE = "sqlite.builder.patch.size";
+
+	/**
+	 * Timer: gzip compression of a patch.
+	 */
+	String PATCH_COMPRESSION_TIME = "sqlite.builder.patch.compression.time";
+
+	void increment(String name, long amount, String... tags);
+
+	void recordTime(String name, long duration, TimeUnit unit, String... tags);
+
+	void recordValue(String name, double value, String... tags);
+
+}
@@ -0,0 +1,47 @@
+package com.lksnext.sqlite.benchmarks;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lksnext.sqlite.impl.util.SQLiteUtils;
+
+/**
+ * Creation of a database from a parent one with
+ * {@link SQLiteUtils#createNewDatabaseFrom}: a clone of the whole file, as for
+ * extended definitions, or a copy of some of its tables.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CloneBenchmark {
+
+	private static final Collection<String> TABLES = Arrays.asList("item", "category");
+
+	@Benchmark
+	public void cloneFile(DatabaseFiles files) throws Exception {
+		try (Connection con = SQLiteUtils.createNewDatabaseFrom(files.getDir().toUri(), DatabaseFiles.CURRENT,
+				"clone")) {
+			con.commit();
+		}
+	}
+
+	@Benchmark
+	public void copyTables(DatabaseFiles files) throws Exception {
+		try (Connection con = SQLiteUtils.createNewDatabaseFrom(files.getDir().toUri(), DatabaseFiles.CURRENT,
+				"copy", TABLES)) {
+			con.commit();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.lksnext.sqlite.benchmarks;
+
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Two versions of a synthetic database of about <code>sizeMb</code>
+ * megabytes, <code>previous.db</code> and <code>current.db</code>, the second
+ * with <code>changedPercent</code> of the rows updated. They are built once
+ * per trial in a temporary folder, deleted at the end.
+ */
+@State(Scope.Benchmark)
+public class DatabaseFiles {
+
+	public static final String PREVIOUS = "previous";
+
+	public static final String CURRENT = "current";
+
+	@Param({ "256" })
+	private int sizeMb;
+
+	@Param({ "1" })
+	private double changedPercent;
+
+	private Path dir;
+
+	@Setup(Level.Trial)
+	public void create() throws Exception {
+		dir = SyntheticDatabase.createTempDir();
+		SyntheticDatabase.create(dir, PREVIOUS, sizeMb);
+		SyntheticDatabase.createNextVersion(dir, PREVIOUS, CURRENT, changedPercent);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws Exception {
+		SyntheticDatabase.deleteDir(dir);
+	}
+
+	public Path getDir() {
+		return dir;
+	}
+
+	public Path getPrevious() {
+		return SyntheticDatabase.file(dir, PREVIOUS);
+	}
+
+	public Path getCurrent() {
+		return SyntheticDatabase.file(dir, CURRENT);
+	}
+}
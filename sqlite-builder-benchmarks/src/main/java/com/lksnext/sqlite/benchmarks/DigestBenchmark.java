@@ -0,0 +1,66 @@
+package com.lksnext.sqlite.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lksnext.sqlite.digest.FileDigester;
+import com.lksnext.sqlite.impl.config.SQLiteConfigImpl;
+import com.lksnext.sqlite.impl.digest.FileDigesterRegistry;
+
+/**
+ * Digest of a database file with the built-in algorithms of the
+ * {@link FileDigesterRegistry}, the step that names the persisted versions.
+ * <code>digest</code> is the <code>digestAlgorithm</code> setting, and
+ * <code>threads</code> the <code>digestThreads</code> setting the tree
+ * variants read their chunks with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DigestBenchmark {
+
+	@Param({ "md5", "md5-tree", "sha-256", "sha-256-tree", "murmur3-128", "murmur3-128-tree" })
+	private String digest;
+
+	@Param({ "2" })
+	private int threads;
+
+	private FileDigesterRegistry registry;
+
+	private FileDigester digester;
+
+	@Setup(Level.Trial)
+	public void createDigester() {
+		SQLiteConfigImpl config = new SQLiteConfigImpl();
+		config.setDigestAlgorithm(digest);
+		config.setDigestThreads(threads);
+		registry = new FileDigesterRegistry(config);
+		digester = registry.getDefault();
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdownExecutor() throws Exception {
+		registry.destroy();
+	}
+
+	@Benchmark
+	public String digest(DatabaseFiles files) throws Exception {
+		return digester.digest(files.getCurrent().toUri());
+	}
+}
@@ -0,0 +1,167 @@
+package com.lksnext.sqlite.benchmarks;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lksnext.sqlite.impl.util.GenericTable;
+import com.lksnext.sqlite.impl.util.ImportOptions;
+import com.lksnext.sqlite.impl.util.ResultSetImporter;
+import com.lksnext.sqlite.impl.util.SQLiteUtils;
+
+/**
+ * Import of a source table into a new SQLite table through
+ * {@link ResultSetImporter#convertResultSetSQLite(DSLContext, ResultSet, String, ImportOptions)},
+ * including the source query, as in a build.
+ * <p>
+ * The source is an in-memory H2 table of <code>rows</code> rows and
+ * <code>width</code> columns. <code>columnTypes</code> is
+ * <code>mixed</code> for integer, decimal, text and timestamp columns in turn,
+ * or one of <code>integer</code>, <code>decimal</code>, <code>text</code> or
+ * <code>timestamp</code> for all of them. Text columns hold
+ * <code>textLength</code> characters. Every iteration imports into an empty
+ * database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ImportBenchmark {
+
+	private static final String[] TYPES = { "integer", "decimal", "text", "timestamp" };
+
+	@Param({ "100000" })
+	private int rows;
+
+	@Param({ "mixed", "text" })
+	private String columnTypes;
+
+	@Param({ "8" })
+	private int width;
+
+	@Param({ "32" })
+	private int textLength;
+
+	@Param({ "1000" })
+	private int batchSize;
+
+	@Param({ "false", "true" })
+	private boolean pipelined;
+
+	@Param({ "false" })
+	private boolean bulkLoad;
+
+	private Connection source;
+
+	private Path dir;
+
+	private Connection sqliteCon;
+
+	private ImportOptions options;
+
+	@Setup(Level.Trial)
+	public void createSource() throws Exception {
+		Class.forName("org.h2.Driver");
+		source = DriverManager.getConnection("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+		StringBuilder columns = new StringBuilder("id INTEGER PRIMARY KEY");
+		StringBuilder values = new StringBuilder("X");
+		for (int i = 1; i <= width; i++) {
+			String type = "mixed".equals(columnTypes) ? TYPES[(i - 1) % TYPES.length] : columnTypes;
+			columns.append(", c").append(i).append(' ').append(sqlType(type));
+			values.append(", ").append(value(type, i));
+		}
+		try (Statement stmt = source.createStatement()) {
+			stmt.execute("DROP TABLE IF EXISTS source");
+			stmt.execute("CREATE TABLE source (" + columns + ")");
+			stmt.execute("INSERT INTO source SELECT " + values + " FROM SYSTEM_RANGE(1, " + rows + ")");
+		}
+		dir = SyntheticDatabase.createTempDir();
+
+		options = ImportOptions.defaults();
+		options.setBatchSize(batchSize);
+		options.setPipelined(pipelined);
+		options.setBulkLoad(bulkLoad);
+	}
+
+	@Setup(Level.Iteration)
+	public void createDatabase() throws Exception {
+		sqliteCon = SQLiteUtils.createNewDatabase(dir.toUri(), "import");
+	}
+
+	@Benchmark
+	public GenericTable importTable() throws Exception {
+		DSLContext create = DSL.using(sqliteCon, SQLDialect.SQLITE);
+		try (Statement stmt = source.createStatement();
+				ResultSet resultSet = stmt.executeQuery("SELECT * FROM source")) {
+			GenericTable table = ResultSetImporter.convertResultSetSQLite(create, resultSet, "imported", options);
+			sqliteCon.commit();
+			return table;
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeDatabase() throws Exception {
+		sqliteCon.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void dropSource() throws Exception {
+		try (Statement stmt = source.createStatement()) {
+			stmt.execute("DROP TABLE source");
+		}
+		source.close();
+		SyntheticDatabase.deleteDir(dir);
+	}
+
+	private static String sqlType(String type) {
+		switch (type) {
+		case "integer":
+			return "INTEGER";
+		case "decimal":
+			return "DECIMAL(18, 4)";
+		case "text":
+			return "VARCHAR";
+		case "timestamp":
+			return "TIMESTAMP";
+		default:
+			throw new IllegalArgumentException("Unknown column type " + type);
+		}
+	}
+
+	private String value(String type, int column) {
+		switch (type) {
+		case "integer":
+			return "MOD(X * " + column + ", 1000000)";
+		case "decimal":
+			return "X / " + (column + 6) + ".0";
+		case "text":
+			return "RPAD(CAST(X * " + column + " AS VARCHAR), " + textLength + ", 'x')";
+		case "timestamp":
+			return "DATEADD('SECOND', X * " + column + ", TIMESTAMP '2020-01-01 00:00:00')";
+		default:
+			throw new IllegalArgumentException("Unknown column type " + type);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.lksnext.sqlite.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lksnext.sqlite.PatchFormat;
+import com.lksnext.sqlite.impl.SQLiteDBPatchCacheImpl;
+import com.lksnext.sqlite.impl.config.SQLiteConfigImpl;
+import com.lksnext.sqlite.impl.patch.PatchWriter;
+
+/**
+ * Writing of the patch from <code>previous.db</code> to
+ * <code>current.db</code> in each {@link PatchFormat}, with the writer built
+ * by {@link SQLiteDBPatchCacheImpl#patchWriter}. <code>windowMb</code> is the <code>patchWindowSize</code> and
+ * <code>patchDictionaryMargin</code> settings, in megabytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class PatchBenchmark {
+
+	@Param({ "VCDIFF", "PAGES" })
+	private PatchFormat format;
+
+	@Param({ "4" })
+	private int windowMb;
+
+	private PatchWriter writer;
+
+	@Setup(Level.Trial)
+	public void createWriter() {
+		SQLiteConfigImpl config = new SQLiteConfigImpl();
+		config.setPatchWindowSize(windowMb * 1024 * 1024);
+		config.setPatchDictionaryMargin(windowMb * 1024 * 1024);
+		writer = SQLiteDBPatchCacheImpl.patchWriter(config, format);
+	}
+
+	@Benchmark
+	public long createPatch(DatabaseFiles files) throws Exception {
+		Path patch = files.getDir().resolve("current.patch");
+		try {
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(patch))) {
+				writer.write(files.getPrevious(), files.getCurrent(), out);
+			}
+			return Files.size(patch);
+		} finally {
+			Files.deleteIfExists(patch);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.lksnext.sqlite.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.lksnext.sqlite.impl.util.SQLitePathUtils;
+import com.lksnext.sqlite.impl.util.SQLiteUtils;
+
+/**
+ * Generated SQLite databases of a given size, for the benchmarks of the steps
+ * that work on whole database files.
+ * <p>
+ * Rows look like masterdata: a key, a few short columns and a text payload.
+ * The payload is drawn from a small alphabet with a fixed seed, so the files
+ * compress about as well as real ones and every run builds the same data.
+ */
+final class SyntheticDatabase {
+
+	private static final int PAYLOAD_LENGTH = 900;
+
+	private static final int ROW_SIZE = 1024;
+
+	private static final int BATCH_SIZE = 1000;
+
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz 0123456789";
+
+	private SyntheticDatabase() {
+	}
+
+	/**
+	 * Creates <code>&lt;name&gt;.db</code> in <code>dir</code> with about
+	 * <code>sizeMb</code> megabytes of rows.
+	 *
+	 * @return the number of rows
+	 */
+	static int create(Path dir, String name, int sizeMb) throws Exception {
+		int rows = (int) ((long) sizeMb * 1024 * 1024 / ROW_SIZE);
+		Random random = new Random(rows);
+		try (Connection con = SQLiteUtils.createNewDatabase(dir.toUri(), name)) {
+			try (Statement stmt = con.createStatement()) {
+				stmt.execute("CREATE TABLE item (id INTEGER PRIMARY KEY, code TEXT NOT NULL, category INTEGER, "
+						+ "price REAL, payload TEXT)");
+				stmt.execute("CREATE TABLE category (id INTEGER PRIMARY KEY, name TEXT)");
+			}
+			try (PreparedStatement insert = con.prepareStatement("INSERT INTO item VALUES (?, ?, ?, ?, ?)")) {
+				for (int id = 1; id <= rows; id++) {
+					insert.setInt(1, id);
+					insert.setString(2, "ITEM-" + id);
+					insert.setInt(3, id % 100);
+					insert.setDouble(4, id / 7.0);
+					insert.setString(5, payload(random));
+					insert.addBatch();
+					if (id % BATCH_SIZE == 0) {
+						insert.executeBatch();
+					}
+				}
+				insert.executeBatch();
+			}
+			try (Statement stmt = con.createStatement()) {
+				stmt.execute("INSERT INTO category SELECT DISTINCT category, 'Category ' || category FROM item");
+				stmt.execute("CREATE INDEX item_code ON item (code)");
+			}
+			con.commit();
+		}
+		return rows;
+	}
+
+	/**
+	 * Creates <code>&lt;name&gt;.db</code> as the next version of
+	 * <code>&lt;previous&gt;.db</code>, with <code>changedPercent</code> of the
+	 * rows updated, spread over the whole file like the changes between two
+	 * builds.
+	 */
+	static void createNextVersion(Path dir, String previous, String name, double changedPercent)
+			throws IOException, SQLException {
+		Files.copy(file(dir, previous), file(dir, name));
+		int step = (int) Math.max(1, Math.round(100 / changedPercent));
+		Random random = new Random(step);
+		try (Connection con = open(dir, name)) {
+			try (PreparedStatement update = con.prepareStatement(
+					"UPDATE item SET price = price + 1, payload = ? WHERE id % ? = 0 AND id / ? % 1000 = ?")) {
+				// One statement per group of ids, so the payloads differ
+				for (int group = 0; group < 1000; group++) {
+					update.setString(1, payload(random));
+					update.setInt(2, step);
+					update.setInt(3, step);
+					update.setInt(4, group);
+					update.executeUpdate();
+				}
+			}
+			con.commit();
+		}
+	}
+
+	private static Connection open(Path dir, String name) throws SQLException {
+		Connection con = DriverManager.getConnection(SQLitePathUtils.getDBURL(dir.toUri(), name));
+		con.setAutoCommit(false);
+		return con;
+	}
+
+	static Path file(Path dir, String name) {
+		return Paths.get(SQLitePathUtils.getTemporalDBPath(dir.toUri(), name));
+	}
+
+	static Path createTempDir() throws IOException {
+		return Files.createTempDirectory("sqlite-benchmark-");
+	}
+
+	static void deleteDir(Path dir) throws IOException {
+		if (dir == null || !Files.exists(dir)) {
+			return;
+		}
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	private static String payload(Random random) {
+		char[] payload = new char[PAYLOAD_LENGTH];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		}
+		return new String(payload);
+	}
+}
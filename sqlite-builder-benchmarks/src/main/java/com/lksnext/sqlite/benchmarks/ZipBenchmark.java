@@ -0,0 +1,76 @@
+package com.lksnext.sqlite.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lksnext.sqlite.impl.SQLiteDBPersistManagerImpl;
+import com.lksnext.sqlite.impl.config.SQLiteConfigImpl;
+import com.lksnext.sqlite.impl.util.ParallelZipWriter;
+import com.lksnext.sqlite.impl.util.ResultSetImporter;
+import com.lksnext.sqlite.impl.util.SQLitePathUtils;
+
+/**
+ * Writing of <code>latest.zip</code> with the {@link ParallelZipWriter} built
+ * by {@link SQLiteDBPersistManagerImpl#zipWriter}. <code>threads</code> and
+ * <code>level</code> are the <code>zipThreads</code> and <code>zipLevel</code>
+ * settings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ZipBenchmark {
+
+	@Param({ "1", "2", "4" })
+	private int threads;
+
+	@Param({ "1", "6" })
+	private int level;
+
+	private ExecutorService executor;
+
+	private SQLiteConfigImpl config;
+
+	@Setup(Level.Trial)
+	public void createExecutor() {
+		executor = Executors.newFixedThreadPool(threads, ResultSetImporter.daemonThreadFactory("sqlite-zip-"));
+		config = new SQLiteConfigImpl();
+		config.setZipThreads(threads);
+		config.setZipLevel(level);
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdownExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public long zip(DatabaseFiles files) throws Exception {
+		Path zip = files.getDir().resolve("latest.zip");
+		try {
+			ParallelZipWriter writer = SQLiteDBPersistManagerImpl.zipWriter(config, executor);
+			return writer.write(files.getCurrent(), SQLitePathUtils.LATEST_DB_NAME, zip);
+		} finally {
+			Files.deleteIfExists(zip);
+		}
+	}
+}
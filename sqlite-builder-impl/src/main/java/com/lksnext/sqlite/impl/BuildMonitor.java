@@ -0,0 +1,36 @@
+package com.lksnext.sqlite.impl;
+
+import com.lksnext.sqlite.BuildProgressListener;
+import com.lksnext.sqlite.impl.metrics.PipelineMetrics;
+import com.lksnext.sqlite.impl.util.CancellationToken;
+
+/**
+ * Progress listener, metrics and cancellation of the build of a database,
+ * passed down to the databases it extends from.
+ */
+final class BuildMonitor {
+
+	private final BuildProgressListener listener;
+
+	private final PipelineMetrics metrics;
+
+	private final CancellationToken cancellation = new CancellationToken();
+
+	BuildMonitor(BuildProgressListener listener, PipelineMetrics metrics) {
+		this.listener = listener;
+		this.metrics = metrics;
+	}
+
+	BuildProgressListener getListener() {
+		return listener;
+	}
+
+	PipelineMetrics getMetrics() {
+		return metrics;
+	}
+
+	CancellationToken getCancellation() {
+		return cancellation;
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.lksnext.sqlite.impl;
+
+import com.lksnext.sqlite.DatabaseBuildResult;
+
+/**
+ * A database built in a generation run, available to the databases that
+ * extend from it.
+ */
+final class BuiltDatabase {
+
+	private final String name;
+
+	private final String fingerprint;
+
+	private final DatabaseBuildResult result;
+
+	BuiltDatabase(String name, String fingerprint, DatabaseBuildResult result) {
+		this.name = name;
+		this.fingerprint = fingerprint;
+		this.result = result;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getFingerprint() {
+		return fingerprint;
+	}
+
+	DatabaseBuildResult getResult() {
+		return result;
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.lksnext.sqlite.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.lksnext.sqlite.impl.definition.DatabasePlan;
+import com.lksnext.sqlite.impl.util.TableFingerprint;
+
+/**
+ * Logical fingerprint of a generated database. It covers the definition it is
+ * built from, its version, the fingerprint of the database it extends, its
+ * schema as stored in <code>sqlite_master</code>, and the fingerprints of the
+ * rows of every imported table. It does not depend on the file layout, so two
+ * generations with the same content have the same fingerprint.
+ */
+final class DatabaseFingerprint {
+
+	private static final String SCHEMA_SQL = "SELECT type, name, sql FROM sqlite_master ORDER BY type, name";
+
+	private DatabaseFingerprint() {
+	}
+
+	static String compute(Connection sqliteCon, DatabasePlan database, String parentFingerprint,
+			Map<String, TableFingerprint> tables) throws SQLException {
+		MessageDigest digest = newDigest();
+		update(digest, "definition", database.getDefinition(), database.getChecksum());
+		update(digest, "version", String.valueOf(database.getVersion()));
+		update(digest, "extends", parentFingerprint);
+		try (Statement stmt = sqliteCon.createStatement(); ResultSet rs = stmt.executeQuery(SCHEMA_SQL)) {
+			while (rs.next()) {
+				update(digest, rs.getString(1), rs.getString(2), rs.getString(3));
+			}
+		}
+		for (Entry<String, TableFingerprint> table : tables.entrySet()) {
+			update(digest, "rows", table.getKey(), table.getValue().toString());
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String... values) {
+		for (String value : values) {
+			digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		digest.update((byte) '\n');
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
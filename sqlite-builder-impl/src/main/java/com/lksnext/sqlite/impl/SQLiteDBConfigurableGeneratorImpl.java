@@ -1,41 +1,63 @@
 package com.lksnext.sqlite.impl;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.text.StrSubstitutor;
 import org.jooq.exception.DataAccessException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StopWatch;
-import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.constructor.Constructor;
 
+import com.lksnext.sqlite.BuildOutcome;
+import com.lksnext.sqlite.BuildProgressListener;
+import com.lksnext.sqlite.DatabaseBuildResult;
+import com.lksnext.sqlite.PersistOptions;
 import com.lksnext.sqlite.SQLiteDBConfigurableGenerator;
 import com.lksnext.sqlite.SQLiteDBPersistManager;
 import com.lksnext.sqlite.config.SQLitePropertyConfig;
-import com.lksnext.sqlite.impl.definition.DatabaseDefinition;
-import com.lksnext.sqlite.impl.definition.SchemaElement;
+import com.lksnext.sqlite.impl.definition.DatabaseDefinitionRegistry;
+import com.lksnext.sqlite.impl.definition.DatabasePlan;
+import com.lksnext.sqlite.impl.definition.ExtendsMode;
+import com.lksnext.sqlite.impl.lock.DatabaseLockManager;
+import com.lksnext.sqlite.impl.lock.DatabaseLockManager.DatabaseLock;
+import com.lksnext.sqlite.impl.metrics.PipelineMetrics;
+import com.lksnext.sqlite.impl.util.CancellationToken;
+import com.lksnext.sqlite.impl.util.ImportOptions;
 import com.lksnext.sqlite.impl.util.SQLitePathUtils;
 import com.lksnext.sqlite.impl.util.SQLiteUtils;
+import com.lksnext.sqlite.impl.util.TableFingerprint;
+import com.lksnext.sqlite.metrics.SQLiteDBMetrics;
 
 @Service
-public class SQLiteDBConfigurableGeneratorImpl implements SQLiteDBConfigurableGenerator {
+public class SQLiteDBConfigurableGeneratorImpl implements SQLiteDBConfigurableGenerator, DisposableBean {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SQLiteDBConfigurableGeneratorImpl.class);
 
@@ -49,36 +71,176 @@ public class SQLiteDBConfigurableGeneratorImpl implements SQLiteDBConfigurableGe
 	@Autowired
 	private SQLiteDBPersistManager sqliteDBPersistManager;
 
+	@Autowired
+	private DatabaseDefinitionRegistry definitionRegistry;
+
+	@Autowired
+	private DatabaseLockManager lockManager;
+
+	@Autowired
+	private PipelineMetrics pipelineMetrics;
+
 	private static final String FINAL = "final";
-	private static final String YML_EXT = ".yml";
-	private static final String YAML_EXT = ".yaml";
+
+	private static final String JOURNAL_SUFFIX = "-journal";
+
+	/**
+	 * Builds in progress in any run, by database name, shared by the runs
+	 * that need the same database meanwhile.
+	 */
+	private final ConcurrentMap<String, SharedBuild> inFlightBuilds = new ConcurrentHashMap<String, SharedBuild>();
+
+	private ExecutorService buildExecutor;
+
+	@Override
+	public void createDatabase(String definition, Map<String, String> context) {
+		buildDatabase(definition, context, new ConcurrentHashMap<String, SharedBuild>(), SharedImports.none(),
+				blockingMonitor());
+	}
+
+	@Override
+	public void createDatabases(String definition, List<Map<String, String>> contexts) {
+		int threads = Math.min(sqliteConfig.getGeneratorThreads(), contexts.size());
+		try (SharedImports sharedImports = sharedImports(definition, contexts)) {
+			if (threads > 1) {
+				createDatabasesInParallel(definition, contexts, threads, sharedImports);
+			} else {
+				createDatabasesSequentially(definition, contexts, sharedImports);
+			}
+		}
+	}
+
+	@Override
+	public CompletableFuture<DatabaseBuildResult> createDatabaseAsync(String definition, Map<String, String> context,
+			BuildProgressListener listener) {
+		CompletableFuture<DatabaseBuildResult> result = new CompletableFuture<DatabaseBuildResult>();
+		submitBuild(definition, context, new ConcurrentHashMap<String, SharedBuild>(), SharedImports.none(),
+				listener, result);
+		return result;
+	}
 
 	@Override
-	public synchronized void createDatabase(String definition, Map<String, String> context) {
-		buildDatabase(definition, context, new HashSet<String>());
+	public List<CompletableFuture<DatabaseBuildResult>> createDatabasesAsync(String definition,
+			List<Map<String, String>> contexts, BuildProgressListener listener) {
+		LOG.info("START creating databases {} asynchronously - {}", definition, contexts);
+		SharedImports sharedImports = sharedImports(definition, contexts);
+		ConcurrentMap<String, SharedBuild> availableDatabases = new ConcurrentHashMap<String, SharedBuild>();
+		List<CompletableFuture<DatabaseBuildResult>> results = new ArrayList<CompletableFuture<DatabaseBuildResult>>(
+				contexts.size());
+		List<CompletableFuture<Void>> builds = new ArrayList<CompletableFuture<Void>>(contexts.size());
+		try {
+			for (Map<String, String> context : contexts) {
+				CompletableFuture<DatabaseBuildResult> result = new CompletableFuture<DatabaseBuildResult>();
+				builds.add(submitBuild(definition, context, availableDatabases, sharedImports, listener, result));
+				results.add(result);
+			}
+		} finally {
+			// Results complete when cancelled, builds only once they stop using the imports
+			CompletableFuture.allOf(builds.toArray(new CompletableFuture<?>[builds.size()]))
+					.whenComplete((done, error) -> sharedImports.close());
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the build on a generator thread, completing <code>result</code>
+	 * with it. Cancelling <code>result</code> cancels the build.
+	 *
+	 * @return completes when the build has stopped
+	 */
+	private CompletableFuture<Void> submitBuild(String definition, Map<String, String> context,
+			ConcurrentMap<String, SharedBuild> availableDatabases, SharedImports sharedImports,
+			BuildProgressListener listener, CompletableFuture<DatabaseBuildResult> result) {
+		BuildMonitor monitor = new BuildMonitor(listener != null ? listener : BuildProgressListener.NONE,
+				pipelineMetrics);
+		result.whenComplete((built, error) -> {
+			if (result.isCancelled()) {
+				LOG.info("Cancelling the build of {} - {}", definition, describe(context));
+				monitor.getCancellation().cancel();
+			}
+		});
+		return CompletableFuture.runAsync(() -> {
+			if (result.isDone()) {
+				return;
+			}
+			try {
+				result.complete(buildResult(definition, context, availableDatabases, sharedImports, monitor));
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		}, buildExecutor());
+	}
+
+	/**
+	 * Builds the database and describes how the build ended, instead of
+	 * throwing, unless it was cancelled.
+	 */
+	private DatabaseBuildResult buildResult(String definition, Map<String, String> context,
+			ConcurrentMap<String, SharedBuild> availableDatabases, SharedImports sharedImports,
+			BuildMonitor monitor) {
+		long startTime = System.currentTimeMillis();
+		String dbName = null;
+		DatabaseBuildResult result = new DatabaseBuildResult();
+		try {
+			dbName = definitionRegistry.getDatabasePlan(definition).getDatabaseName(context);
+			BuiltDatabase builtDb = buildDatabase(definition, context, availableDatabases, sharedImports, monitor);
+			if (builtDb != null) {
+				return builtDb.getResult();
+			}
+			result.setOutcome(BuildOutcome.SKIPPED);
+		} catch (RuntimeException e) {
+			if (monitor.getCancellation().isCancelled()) {
+				throw e;
+			}
+			LOG.error("Error generating DB {}", describe(context), e);
+			result.setOutcome(BuildOutcome.FAILED);
+			result.setError(e);
+		}
+		result.setDatabase(dbName);
+		result.setContext(context);
+		result.setStartTime(startTime);
+		result.setTotalTime(System.currentTimeMillis() - startTime);
+		monitor.getListener().databaseFinished(result);
+		return result;
+	}
+
+	/**
+	 * @return a monitor for the blocking builds, which are not cancelled
+	 */
+	private BuildMonitor blockingMonitor() {
+		return new BuildMonitor(BuildProgressListener.NONE, pipelineMetrics);
+	}
+
+	private synchronized ExecutorService buildExecutor() {
+		if (buildExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqlite-build-");
+			threadFactory.setDaemon(true);
+			buildExecutor = Executors.newFixedThreadPool(Math.max(1, sqliteConfig.getGeneratorThreads()),
+					threadFactory);
+		}
+		return buildExecutor;
 	}
 
 	@Override
-	public synchronized void createDatabases(String definition, List<Map<String, String>> contexts) {
+	public synchronized void destroy() {
+		if (buildExecutor != null) {
+			buildExecutor.shutdownNow();
+		}
+	}
+
+	private void createDatabasesSequentially(String definition, List<Map<String, String>> contexts,
+			SharedImports sharedImports) {
 		LOG.info("START creating databases {} - {}", definition, contexts);
 		StopWatch timing = new StopWatch("SQLite database generation");
 		AtomicInteger atomicInteger = new AtomicInteger(0);
 		int totalDbs = contexts.size();
-		Set<String> avalableDatabases = new HashSet<String>();
+		ConcurrentMap<String, SharedBuild> avalableDatabases = new ConcurrentHashMap<String, SharedBuild>();
 
 		for (Map<String, String> context : contexts) {
-			String description = context.entrySet().stream().map(x -> {
-				return (x.getKey() + "=" + x.getValue());
-			}).collect(Collectors.joining(","));
-
-			int idx = atomicInteger.incrementAndGet();
-			LOG.info("{}/{} Processing DB {}", idx, totalDbs, description);
+			String description = describe(context);
 			timing.start("Generate db " + description);
-			try {
-				buildDatabase(definition, context, avalableDatabases);
-			} catch (DataAccessException e) {
-				LOG.error("Error generating DB {}", description, e);
-			}
+			generateDatabase(definition, context, avalableDatabases, sharedImports, atomicInteger.incrementAndGet(),
+					totalDbs);
 			timing.stop();
 		}
 
@@ -86,122 +248,333 @@ public class SQLiteDBConfigurableGeneratorImpl implements SQLiteDBConfigurableGe
 		LOG.info(timing.prettyPrint());
 	}
 
-	private String buildDatabase(String definition, Map<String, String> context, Set<String> availableDatabases) {
-		DatabaseDefinition database = getDatabaseDefinition(definition);
+	private void createDatabasesInParallel(String definition, List<Map<String, String>> contexts, int threads,
+			SharedImports sharedImports) {
+		LOG.info("START creating databases {} with {} threads - {}", definition, threads, contexts);
+		long generationTime = System.currentTimeMillis();
+		AtomicInteger atomicInteger = new AtomicInteger(0);
+		int totalDbs = contexts.size();
+		ConcurrentMap<String, SharedBuild> avalableDatabases = new ConcurrentHashMap<String, SharedBuild>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new CustomizableThreadFactory("sqlite-generator-"));
+		List<Future<?>> generations = new ArrayList<Future<?>>(totalDbs);
+		try {
+			for (Map<String, String> context : contexts) {
+				generations.add(executor.submit(() -> generateDatabase(definition, context, avalableDatabases,
+						sharedImports, atomicInteger.incrementAndGet(), totalDbs)));
+			}
+			for (Future<?> generation : generations) {
+				generation.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("SQLite database generation was interrupted", e);
+		} catch (ExecutionException e) {
+			throw propagate(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		generationTime = System.currentTimeMillis() - generationTime;
+		LOG.info("Finish SQLite database generation of {} databases in {} ms", totalDbs, generationTime);
+	}
+
+	private void generateDatabase(String definition, Map<String, String> context,
+			ConcurrentMap<String, SharedBuild> availableDatabases, SharedImports sharedImports, int idx,
+			int totalDbs) {
+		String description = describe(context);
+		LOG.info("{}/{} Processing DB {}", idx, totalDbs, description);
+		long dbGenerationTime = System.currentTimeMillis();
+		try {
+			buildDatabase(definition, context, availableDatabases, sharedImports, blockingMonitor());
+		} catch (DataAccessException e) {
+			LOG.error("Error generating DB {}", description, e);
+		}
+		dbGenerationTime = System.currentTimeMillis() - dbGenerationTime;
+		LOG.debug("{}/{} DB {} processed in {} ms", idx, totalDbs, description, dbGenerationTime);
+	}
+
+	/**
+	 * Registers every database the run builds, once, so that the table imports
+	 * they have in common are only run once against the source.
+	 */
+	private SharedImports sharedImports(String definition, List<Map<String, String>> contexts) {
+		SharedImports sharedImports = new SharedImports(dataSource, sqliteConfig.getTemporalPath(), importOptions());
+		Set<String> databases = new HashSet<String>();
+		for (Map<String, String> context : contexts) {
+			String name = definition;
+			while (StringUtils.isNotEmpty(name)) {
+				DatabasePlan database = definitionRegistry.getDatabasePlan(name);
+				if (!databases.add(database.getDatabaseName(context))) {
+					break;
+				}
+				sharedImports.register(database, context);
+				name = database.getExtends();
+			}
+		}
+		LOG.info("{} table imports are shared between the databases of {}", sharedImports.getSharedCount(),
+				definition);
+		return sharedImports;
+	}
+
+	private String describe(Map<String, String> context) {
+		return context.entrySet().stream().map(x -> {
+			return (x.getKey() + "=" + x.getValue());
+		}).collect(Collectors.joining(","));
+	}
 
-		String dbName = StrSubstitutor.replace(database.getDatabase(), context);
+	/**
+	 * Builds the database of the definition for the given context, building
+	 * first the database it extends from. Every database is built once per run:
+	 * concurrent requests for the same database wait for the build in progress
+	 * and share its result, as do other runs building it at the same time.
+	 * Failed builds are forgotten so they can be retried. Only the request that
+	 * started a build cancels it: the others build the database again.
+	 */
+	private BuiltDatabase buildDatabase(String definition, Map<String, String> context,
+			ConcurrentMap<String, SharedBuild> availableDatabases, SharedImports sharedImports,
+			BuildMonitor monitor) {
+		DatabasePlan database = definitionRegistry.getDatabasePlan(definition);
+
+		String dbName = database.getDatabaseName(context);
 		LOG.info("buildDatabase {} ", dbName);
 
-		if (availableDatabases.contains(dbName)) {
+		SharedBuild build;
+		SharedBuild existing;
+		while (true) {
+			build = new SharedBuild(
+					() -> buildOrJoin(database, dbName, context, availableDatabases, sharedImports, monitor),
+					monitor.getCancellation());
+			existing = availableDatabases.putIfAbsent(dbName, build);
+			if (existing == null) {
+				break;
+			}
 			LOG.info("Database {} is already built", dbName);
-			return dbName;
+			try {
+				return awaitBuild(existing);
+			} catch (RuntimeException e) {
+				if (!existing.isCancelledFor(monitor.getCancellation())) {
+					throw e;
+				}
+				availableDatabases.remove(dbName, existing);
+				LOG.info("The build of database {} was cancelled by another request, building it again", dbName);
+			}
+		}
+
+		build.run();
+		try {
+			BuiltDatabase builtDb = awaitBuild(build);
+			if (builtDb == null) {
+				availableDatabases.remove(dbName, build);
+			}
+			return builtDb;
+		} catch (RuntimeException | Error e) {
+			availableDatabases.remove(dbName, build);
+			throw e;
+		}
+	}
+
+	private BuiltDatabase buildOrJoin(DatabasePlan database, String dbName, Map<String, String> context,
+			ConcurrentMap<String, SharedBuild> availableDatabases, SharedImports sharedImports,
+			BuildMonitor monitor) {
+		SharedBuild build;
+		SharedBuild inFlight;
+		while (true) {
+			build = new SharedBuild(
+					() -> buildDatabase(database, dbName, context, availableDatabases, sharedImports, monitor),
+					monitor.getCancellation());
+			inFlight = inFlightBuilds.putIfAbsent(dbName, build);
+			if (inFlight == null) {
+				break;
+			}
+			LOG.info("Database {} is being built by another run, waiting for it", dbName);
+			try {
+				return awaitBuild(inFlight);
+			} catch (RuntimeException e) {
+				if (!inFlight.isCancelledFor(monitor.getCancellation())) {
+					throw e;
+				}
+				inFlightBuilds.remove(dbName, inFlight);
+				LOG.info("The build of database {} was cancelled by another run, building it again", dbName);
+			}
 		}
 
-		if (isDBLocked(dbName)) {
-			LOG.warn("Database {} is locked. Generation is cancelled", dbName);
-			return null;
+		try {
+			build.run();
+			return awaitBuild(build);
+		} finally {
+			inFlightBuilds.remove(dbName, build);
 		}
+	}
 
+	private BuiltDatabase buildDatabase(DatabasePlan database, String dbName, Map<String, String> context,
+			ConcurrentMap<String, SharedBuild> availableDatabases, SharedImports sharedImports,
+			BuildMonitor monitor) {
+		long startTime = System.currentTimeMillis();
+		monitor.getCancellation().throwIfCancelled();
+		pipelineMetrics.registerDatabase(dbName, database.getDefinition());
 		String extendsFrom = database.getExtends();
 		String extendedDb = null;
+		String extendedFingerprint = null;
 		if (StringUtils.isNotEmpty(extendsFrom)) {
 			LOG.info("Database {} extends from {}", database.getDatabase(), extendsFrom);
-			extendedDb = buildDatabase(extendsFrom, context, availableDatabases);
+			BuiltDatabase extended = buildDatabase(extendsFrom, context, availableDatabases, sharedImports, monitor);
+			if (extended != null) {
+				extendedDb = extended.getName();
+				extendedFingerprint = extended.getFingerprint();
+			}
 		}
 
+		BuiltDatabase builtDb;
+		// Locked after the extended database, so a build holds one lock at a time
+		try (DatabaseLock lock = lockManager.tryLock(dbName)) {
+			if (lock == null) {
+				LOG.warn("Database {} is locked. Generation is cancelled after waiting {} ms", dbName,
+						sqliteConfig.getLockTimeout());
+				return null;
+			}
+			monitor.getListener().databaseStarted(dbName);
+			builtDb = createDatabase(database, dbName, context, extendedDb, extendedFingerprint, sharedImports,
+					monitor);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("The file name or path is incorrect.", e);
+		} catch (IOException | ClassNotFoundException | SQLException e) {
+			throw new IllegalStateException("An error ocurred while creating the database", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the lock of database " + dbName, e);
+		}
+
+		DatabaseBuildResult result = builtDb.getResult();
+		result.setContext(context);
+		result.setStartTime(startTime);
+		result.setTotalTime(System.currentTimeMillis() - startTime);
+		monitor.getListener().databaseFinished(result);
+		return builtDb;
+	}
+
+	/**
+	 * Creates the database file and persists it if final. The temporary
+	 * database is deleted if the build is cancelled before it is persisted.
+	 */
+	private BuiltDatabase createDatabase(DatabasePlan database, String dbName, Map<String, String> context,
+			String extendedDb, String extendedFingerprint, SharedImports sharedImports, BuildMonitor monitor)
+			throws ClassNotFoundException, URISyntaxException, SQLException, IOException {
+		DatabaseBuildResult result = new DatabaseBuildResult();
+		result.setDatabase(dbName);
+		String fingerprint;
+		boolean created = false;
 		long dbCreationTime = System.currentTimeMillis();
+		long buildStart = System.nanoTime();
 		try (Connection sqliteCon = createNewDatabase(extendedDb, database, context)) {
-			createLockForDB(dbName);
-
-			for (SchemaElement table : database.getSchema()) {
-				populateTableData(sqliteCon, table, context);
+			SchemaImporter importer = new SchemaImporter(dataSource, sqliteCon, dbName, context,
+					importOptions(monitor.getCancellation()), sharedImports, monitor);
+			importer.importTables(database.getTables(), database.getParallelTables());
+			monitor.getCancellation().throwIfCancelled();
+			importer.buildIndexes(database.getTables());
+			if (database.isAnalyze()) {
+				SQLiteUtils.analyze(sqliteCon);
 			}
 			sqliteCon.commit();
+			long fingerprintStart = System.nanoTime();
+			Map<String, TableFingerprint> tables = importer.getFingerprints();
+			fingerprint = DatabaseFingerprint.compute(sqliteCon, database, extendedFingerprint, tables);
+			pipelineMetrics.recordTime(SQLiteDBMetrics.FINGERPRINT_TIME, dbName, System.nanoTime() - fingerprintStart);
+			result.setTableRows(tables.entrySet().stream()
+					.collect(Collectors.toMap(Entry::getKey, table -> table.getValue().getRows())));
+			long vacuumStart = System.nanoTime();
 			SQLiteUtils.vacuum(sqliteCon);
+			pipelineMetrics.recordTime(SQLiteDBMetrics.VACUUM_TIME, dbName, System.nanoTime() - vacuumStart);
 			if (database.getVersion() != null) {
 				SQLiteUtils.setVersion(sqliteCon, database.getVersion().intValue());
 			}
 			sqliteCon.close();
-			availableDatabases.add(dbName);
+			pipelineMetrics.recordTime(SQLiteDBMetrics.BUILD_TIME, dbName, System.nanoTime() - buildStart);
 			dbCreationTime = System.currentTimeMillis() - dbCreationTime;
+			result.setBuildTime(dbCreationTime);
 			LOG.info("Database {} created in {} ms", database.getDatabase(), dbCreationTime);
+			monitor.getCancellation().throwIfCancelled();
+			created = true;
 			if (FINAL.equalsIgnoreCase(database.getType())) {
-				sqliteDBPersistManager.persist(dbName, dbName);
+				long persistTime = System.currentTimeMillis();
+				PersistOptions persistOptions = new PersistOptions();
+				persistOptions.setFingerprint(fingerprint);
+				persistOptions.setPatchFormat(database.getPatchFormat());
+				persistOptions.setPatchCompression(database.getPatchCompression());
+				sqliteDBPersistManager.persist(dbName, dbName, persistOptions);
+				result.setPersistTime(System.currentTimeMillis() - persistTime);
 			}
-		} catch (URISyntaxException e) {
-			throw new IllegalArgumentException("The file name or path is incorrect.", e);
-		} catch (IOException | ClassNotFoundException | SQLException e) {
-			throw new IllegalStateException("An error ocurred while creating the database", e);
 		} finally {
-			try {
-				releaseLockForDB(dbName);
-			} catch (Exception e) {
-				LOG.error("Unable to remove lock for db {}", dbName, e);
+			if (!created && monitor.getCancellation().isCancelled()) {
+				deleteTemporalDatabase(dbName);
 			}
 		}
-
-		return dbName;
+		result.setOutcome(BuildOutcome.BUILT);
+		return new BuiltDatabase(dbName, fingerprint, result);
 	}
 
-	private Connection createNewDatabase(String extendedDb, DatabaseDefinition definition, Map<String, String> context)
-			throws ClassNotFoundException, URISyntaxException, SQLException, IOException {
-
-		String dbName = StrSubstitutor.replace(definition.getDatabase(), context);
-
-		String extendsFrom = definition.getExtends();
-		if (StringUtils.isNotEmpty(extendsFrom)) {
-			return SQLiteUtils.createNewDatabaseFrom(sqliteConfig.getTemporalPath(), extendedDb, dbName);
-		} else {
-			return SQLiteUtils.createNewDatabase(sqliteConfig.getTemporalPath(), dbName);
+	private void deleteTemporalDatabase(String dbName) {
+		Path file = Paths.get(SQLitePathUtils.getTemporalDBPath(sqliteConfig.getTemporalPath(), dbName));
+		try {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(file.resolveSibling(file.getFileName() + JOURNAL_SUFFIX));
+			LOG.info("Temporary database {} of the cancelled build deleted", file);
+		} catch (IOException e) {
+			LOG.warn("Unable to delete the temporary database {} of the cancelled build", file, e);
 		}
-
 	}
 
-	private DatabaseDefinition getDatabaseDefinition(String definition) {
-		Yaml yaml = new Yaml(new Constructor(DatabaseDefinition.class));
-		InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream(definition + YML_EXT);
-		if (inputStream == null) {
-			inputStream = this.getClass().getClassLoader().getResourceAsStream(definition + YAML_EXT);
+	private static BuiltDatabase awaitBuild(SharedBuild build) {
+		try {
+			return build.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a database build", e);
+		} catch (ExecutionException e) {
+			throw propagate(e.getCause());
 		}
-
-		DatabaseDefinition database = yaml.load(inputStream);
-		return database;
 	}
 
-	private void populateTableData(Connection sqliteCon, SchemaElement table, Map<String, String> context)
-			throws SQLException {
-		String query = table.getSource();
-		LOG.debug("populateTableData query: " + query);
-		String cleanup = table.getCleanup();
-		if (StringUtils.isNotEmpty(query)) {
-			if (context != null) {
-				SQLiteUtils.importData(dataSource, sqliteCon, query, table.getTable(), context);
-			} else {
-				SQLiteUtils.importData(dataSource, sqliteCon, query, table.getTable());
-			}
+	private static RuntimeException propagate(Throwable cause) {
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
 		}
+		return new IllegalStateException("An error ocurred while creating the database", cause);
+	}
 
-		if (StringUtils.isNotEmpty(cleanup)) {
-			LOG.debug("Cleaning table {}...", table.getTable());
+	private Connection createNewDatabase(String extendedDb, DatabasePlan definition, Map<String, String> context)
+			throws ClassNotFoundException, URISyntaxException, SQLException, IOException {
 
-			if (context != null) {
-				SQLiteUtils.cleanupAction(sqliteCon, cleanup, context);
-			} else {
-				SQLiteUtils.cleanupAction(sqliteCon, cleanup);
-			}
+		String dbName = definition.getDatabaseName(context);
 
+		String extendsFrom = definition.getExtends();
+		if (StringUtils.isNotEmpty(extendsFrom)) {
+			if (definition.getExtendsMode() == ExtendsMode.ATTACH) {
+				return SQLiteUtils.createNewDatabaseFrom(sqliteConfig.getTemporalPath(), extendedDb, dbName,
+						definition.getInherit());
+			}
+			return SQLiteUtils.createNewDatabaseFrom(sqliteConfig.getTemporalPath(), extendedDb, dbName);
+		} else {
+			return SQLiteUtils.createNewDatabase(sqliteConfig.getTemporalPath(), dbName);
 		}
-	}
 
-	private void createLockForDB(String dbFilename) throws URISyntaxException, IOException {
-		SQLitePathUtils.createMasterdataLock(sqliteConfig.getDatabasePath(), dbFilename);
 	}
 
-	private void releaseLockForDB(String dbFilename) throws URISyntaxException, IOException {
-		SQLitePathUtils.releaseMasterdataLock(sqliteConfig.getDatabasePath(), dbFilename);
+	private ImportOptions importOptions() {
+		return importOptions(new CancellationToken());
 	}
 
-	private boolean isDBLocked(String dbFilename) {
-		return SQLitePathUtils.isMasterdataLocked(sqliteConfig.getDatabasePath(), dbFilename);
+	private ImportOptions importOptions(CancellationToken cancellation) {
+		ImportOptions options = ImportOptions.defaults();
+		options.setCancellation(cancellation);
+		options.setBatchSize(sqliteConfig.getInsertBatchSize());
+		options.setPipelined(sqliteConfig.isPipelinedImport());
+		options.setPipelineCapacity(sqliteConfig.getPipelineQueueSize());
+		options.setBulkLoad(sqliteConfig.isBulkLoad());
+		return options;
 	}
 }
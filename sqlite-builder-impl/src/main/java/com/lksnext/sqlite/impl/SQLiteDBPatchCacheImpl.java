@@ -0,0 +1,663 @@
+package com.lksnext.sqlite.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.lksnext.sqlite.PatchCompression;
+import com.lksnext.sqlite.PatchFormat;
+import com.lksnext.sqlite.SQLiteDBPatchCache;
+import com.lksnext.sqlite.config.SQLitePropertyConfig;
+import com.lksnext.sqlite.impl.metrics.PipelineMetrics;
+import com.lksnext.sqlite.impl.patch.PagePatchWriter;
+import com.lksnext.sqlite.impl.patch.PatchBatch;
+import com.lksnext.sqlite.impl.patch.PatchWriter;
+import com.lksnext.sqlite.impl.patch.VCDiffPatchWriter;
+import com.lksnext.sqlite.impl.util.SQLitePathUtils;
+import com.lksnext.sqlite.metadata.SQLiteDBFileInfo;
+import com.lksnext.sqlite.metadata.SQLiteDBMetadata;
+import com.lksnext.sqlite.metadata.SQLiteDBMetadataManager;
+import com.lksnext.sqlite.metadata.SQLitePatchInfo;
+import com.lksnext.sqlite.metrics.SQLiteDBMetrics;
+
+@Service
+public class SQLiteDBPatchCacheImpl implements SQLiteDBPatchCache, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SQLiteDBPatchCacheImpl.class);
+
+    private static final String PATCH_EXTENSION = ".patch";
+
+    private static final String COMPRESSED_PATCH_EXTENSION = ".patch.gz";
+
+    private static final String COMPRESSED_PATCH_ENCODING = "gzip";
+
+    private static final String COMPRESSED_KEY_SUFFIX = "/" + COMPRESSED_PATCH_ENCODING;
+
+    @Autowired
+    private SQLitePropertyConfig sqliteConfig;
+
+    @Autowired
+    private SQLiteDBMetadataManager sqliteDBMetadataManager;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    /**
+     * Patches being generated, by database, current version and requested
+     * version, and their compressed artifacts.
+     */
+    private final ConcurrentMap<String, CompletableFuture<Path>> inFlight =
+            new ConcurrentHashMap<String, CompletableFuture<Path>>();
+
+    /**
+     * Patches of each database generated ahead and still being written,
+     * possibly in the background after the time budget of its persist ran out.
+     */
+    private final ConcurrentMap<String, PatchBatch> pendingPatches = new ConcurrentHashMap<String, PatchBatch>();
+
+    private final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> demand =
+            new ConcurrentHashMap<String, ConcurrentMap<String, AtomicLong>>();
+
+    private final ConcurrentMap<Path, Long> lastAccess = new ConcurrentHashMap<Path, Long>();
+
+    /**
+     * Raw patches being compressed, which are not evicted meanwhile.
+     */
+    private final Set<Path> compressing = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService patchExecutor;
+
+    private ExecutorService compressionExecutor;
+
+    @Override
+    public URI getPatch(String database, String md5) throws URISyntaxException, IOException {
+        if (md5 == null) {
+            return null;
+        }
+        recordDemand(database, md5);
+        Path patch = getPatch(sqliteDBMetadataManager.loadMetadata(database), database, md5);
+        return patch != null ? patch.toUri() : null;
+    }
+
+    @Override
+    public URI getCompressedPatch(String database, String md5) throws URISyntaxException, IOException {
+        if (md5 == null) {
+            return null;
+        }
+        recordDemand(database, md5);
+        Path patch = getCompressedPatch(sqliteDBMetadataManager.loadMetadata(database), database, md5);
+        return patch != null ? patch.toUri() : null;
+    }
+
+    @Override
+    public Map<String, Long> getDemand(String database) {
+        Map<String, AtomicLong> requests = demand.get(key(database));
+        if (requests == null) {
+            return new HashMap<String, Long>();
+        }
+        return requests.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get()));
+    }
+
+    /**
+     * Returns the patch from a version of the database to the current one of
+     * the metadata, generating it unless it exists or is being generated: the
+     * raw patch, or the compressed one if only that is kept.
+     */
+    Path getPatch(SQLiteDBMetadata metadata, String database, String md5) throws IOException {
+        SQLiteDBFileInfo current = metadata.getCurrent();
+        SQLiteDBFileInfo previous = findPrevious(metadata, md5);
+        if (previous == null) {
+            return null;
+        }
+        if (compression(current) == PatchCompression.GZIP_ONLY) {
+            return getCompressedPatch(current, previous, database);
+        }
+        return getRawPatch(current, previous, database);
+    }
+
+    /**
+     * Returns the compressed patch from a version of the database to the
+     * current one of the metadata, generating it if needed, or
+     * <code>null</code> if the patches of the current version are not
+     * compressed.
+     */
+    Path getCompressedPatch(SQLiteDBMetadata metadata, String database, String md5) throws IOException {
+        SQLiteDBFileInfo current = metadata.getCurrent();
+        SQLiteDBFileInfo previous = findPrevious(metadata, md5);
+        if (previous == null || compression(current) == PatchCompression.NONE) {
+            return null;
+        }
+        return getCompressedPatch(current, previous, database);
+    }
+
+    private Path getRawPatch(SQLiteDBFileInfo current, SQLiteDBFileInfo previous, String database)
+            throws IOException {
+        Path patchFile = patchPath(database, current.getMd5(), previous.getMd5());
+        return getOrBuild(patchKey(database, current, previous), patchFile, () -> {
+            writePatch(current, previous, patchFile, database);
+            if (compression(current) != PatchCompression.GZIP_ONLY) {
+                recordPatch(database, current.getMd5(), previous.getMd5());
+            }
+            return patchFile;
+        });
+    }
+
+    private Path getCompressedPatch(SQLiteDBFileInfo current, SQLiteDBFileInfo previous, String database)
+            throws IOException {
+        Path compressedFile = compressedPatchPath(database, current.getMd5(), previous.getMd5());
+        return getOrBuild(patchKey(database, current, previous) + COMPRESSED_KEY_SUFFIX, compressedFile, () -> {
+            getRawPatch(current, previous, database);
+            CompletableFuture<Path> compression = CompletableFuture
+                    .supplyAsync(() -> compressPatch(database, current, previous.getMd5()), compressionExecutor());
+            return await(compression);
+        });
+    }
+
+    /**
+     * Returns the file unless missing; otherwise waits for the build of the
+     * key in progress or runs it. Builds of a batch that dropped the patch are
+     * retried. The file is named after both versions of the key, so an
+     * existing one is always a patch to the requested current version.
+     */
+    private Path getOrBuild(String key, Path file, PatchBuild builder) throws IOException {
+        if (Files.exists(file)) {
+            lastAccess.put(file, System.currentTimeMillis());
+            return file;
+        }
+
+        CompletableFuture<Path> build = new CompletableFuture<Path>();
+        while (true) {
+            CompletableFuture<Path> existing = inFlight.putIfAbsent(key, build);
+            if (existing == null) {
+                break;
+            }
+            Path patch = await(existing);
+            if (patch != null) {
+                return patch;
+            }
+            // Dropped by the batch that was generating it
+            inFlight.remove(key, existing);
+        }
+
+        try {
+            build.complete(builder.build());
+        } catch (IOException | RuntimeException e) {
+            build.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, build);
+        }
+        Path patch = await(build);
+        lastAccess.put(patch, System.currentTimeMillis());
+        evict(patch);
+        return patch;
+    }
+
+    /**
+     * Deletes the patches to the replaced version of the database and, if
+     * requested, generates ahead the patches from the versions clients
+     * request most.
+     */
+    void refresh(SQLiteDBMetadata metadata, String database, boolean generate) {
+        deletePatches(database);
+        if (generate) {
+            createPatches(metadata, database);
+        }
+    }
+
+    private void recordDemand(String database, String md5) {
+        demand.computeIfAbsent(key(database), k -> new ConcurrentHashMap<String, AtomicLong>())
+                .computeIfAbsent(md5, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Selects the previous versions to generate patches from ahead: the ones
+     * requested most, up to <code>maxPatchNumber</code>. Without demand
+     * recorded yet, the newest ones. Demand of versions no longer known is
+     * forgotten.
+     */
+    private List<SQLiteDBFileInfo> hotSet(SQLiteDBMetadata metadata, String database) {
+        List<SQLiteDBFileInfo> previous = metadata.getPrevious();
+        int limit = Math.min(sqliteConfig.getMaxPatchNumber(), previous.size());
+        ConcurrentMap<String, AtomicLong> requests = demand.get(key(database));
+        if (requests == null || requests.isEmpty()) {
+            return previous.subList(0, Math.max(0, limit));
+        }
+
+        Set<String> known = new HashSet<String>();
+        known.add(metadata.getCurrent().getMd5());
+        previous.forEach(info -> known.add(info.getMd5()));
+        requests.keySet().retainAll(known);
+
+        List<SQLiteDBFileInfo> requested = previous.stream().filter(info -> requests.containsKey(info.getMd5()))
+                .sorted(Comparator.comparingLong((SQLiteDBFileInfo info) -> {
+                    AtomicLong count = requests.get(info.getMd5());
+                    return count != null ? count.get() : 0;
+                }).reversed()).collect(Collectors.toList());
+        return requested.subList(0, Math.max(0, Math.min(limit, requested.size())));
+    }
+
+    /**
+     * Writes the patches of the hot set on the patch executor, reading the
+     * current version once for all of them. Waits for them up to the time
+     * budget; the rest go on in the background.
+     */
+    private void createPatches(SQLiteDBMetadata sqliteDBMetadata, String database) {
+        List<SQLiteDBFileInfo> hotSet = hotSet(sqliteDBMetadata, database);
+        if (hotSet.isEmpty()) {
+            return;
+        }
+
+        SQLiteDBFileInfo current = sqliteDBMetadata.getCurrent();
+        PatchCompression compression = compression(current);
+        PatchWriter patchWriter = patchWriter(sqliteConfig, current.getPatchFormat());
+        PatchBatch batch = new PatchBatch(patchWriter, Paths.get(current.getFile()), patchExecutor());
+        CompletableFuture<Integer> result = batch.getResult();
+        List<CompletableFuture<Path>> patches = new ArrayList<CompletableFuture<Path>>();
+        for (SQLiteDBFileInfo previous : hotSet) {
+            String key = patchKey(database, current, previous);
+            String md5 = previous.getMd5();
+            Path patchFile = patchPath(database, current.getMd5(), md5);
+            CompletableFuture<Path> patch = result.handle((written, e) -> Files.exists(patchFile) ? patchFile : null);
+            // Already requested by a client since the metadata was saved
+            if (inFlight.putIfAbsent(key, patch) != null) {
+                continue;
+            }
+            patch.whenComplete((file, e) -> inFlight.remove(key, patch));
+            batch.add(md5, Paths.get(previous.getFile()), patchFile);
+            patch.thenAccept(file -> recordPatchSize(database, file));
+            if (compression == PatchCompression.NONE) {
+                patches.add(patch.thenApply(file -> {
+                    if (file != null) {
+                        recordPatch(database, current.getMd5(), md5);
+                    }
+                    return file;
+                }));
+                continue;
+            }
+            // Compressed on their own pool once written, so the batch goes on
+            CompletableFuture<Path> compressed = patch.thenApplyAsync(
+                    file -> file != null ? compressPatch(database, current, md5) : null, compressionExecutor());
+            String compressedKey = key + COMPRESSED_KEY_SUFFIX;
+            if (inFlight.putIfAbsent(compressedKey, compressed) == null) {
+                compressed.whenComplete((file, e) -> inFlight.remove(compressedKey, compressed));
+            }
+            patches.add(compressed);
+        }
+        if (patches.isEmpty()) {
+            return;
+        }
+        LOG.info("Generating {} patches for database {}", patches.size(), database);
+
+        pendingPatches.put(database, batch);
+        result.whenComplete((written, e) -> pendingPatches.remove(database, batch));
+        CompletableFuture.allOf(patches.toArray(new CompletableFuture<?>[0])).whenComplete((file, e) -> evict(null));
+        long batchStart = System.nanoTime();
+        result.whenComplete((written, e) -> pipelineMetrics.recordTime(SQLiteDBMetrics.PATCH_TIME, database,
+                System.nanoTime() - batchStart));
+        batch.start();
+
+        long budget = sqliteConfig.getPatchTimeBudget();
+        try {
+            if (budget > 0) {
+                result.get(budget, TimeUnit.MILLISECONDS);
+            } else {
+                result.get();
+            }
+        } catch (TimeoutException e) {
+            LOG.info("Patches for database {} go on in the background after {} ms", database, budget);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for the patches of database {}", database);
+        } catch (ExecutionException e) {
+            LOG.error("Error generating patches for database {}", database, e.getCause());
+        }
+    }
+
+    /**
+     * Writes the gzip form of a raw patch, deleting the raw one if only the
+     * compressed one is kept. Patches are compressed once and downloaded many
+     * times, so the best level is used.
+     */
+    private Path compressPatch(String database, SQLiteDBFileInfo current, String md5) {
+        long compressionTime = System.currentTimeMillis();
+        long compressionStart = System.nanoTime();
+        Path patchFile = patchPath(database, current.getMd5(), md5);
+        Path compressedFile = compressedPatchPath(database, current.getMd5(), md5);
+        Path tempFile = Paths.get(compressedFile.toString() + PatchBatch.TEMP_SUFFIX);
+        compressing.add(patchFile);
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile), 64 * 1024) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            }) {
+                Files.copy(patchFile, out);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tempFile);
+                throw e;
+            }
+            Files.move(tempFile, compressedFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            if (compression(current) == PatchCompression.GZIP_ONLY) {
+                Files.deleteIfExists(patchFile);
+                lastAccess.remove(patchFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            compressing.remove(patchFile);
+        }
+        pipelineMetrics.recordTime(SQLiteDBMetrics.PATCH_COMPRESSION_TIME, database,
+                System.nanoTime() - compressionStart);
+        compressionTime = System.currentTimeMillis() - compressionTime;
+        LOG.info("Patch {} for database {} compressed in {} ms", md5, database, compressionTime);
+        recordPatch(database, current.getMd5(), md5);
+        return compressedFile;
+    }
+
+    /**
+     * Records in the metadata the sizes of the artifacts of a patch, unless
+     * the current version changed meanwhile.
+     */
+    private void recordPatch(String database, String currentMd5, String md5) {
+        Long size = sizeOf(patchPath(database, currentMd5, md5));
+        Long compressedSize = sizeOf(compressedPatchPath(database, currentMd5, md5));
+        try {
+            sqliteDBMetadataManager.updateMetadata(database, metadata -> {
+                SQLiteDBFileInfo current = metadata.getCurrent();
+                if (current == null || !currentMd5.equals(current.getMd5())) {
+                    return false;
+                }
+                SQLitePatchInfo info =
+                        current.getPatches().stream().filter(patch -> md5.equals(patch.getMd5())).findFirst()
+                                .orElse(null);
+                if (info == null) {
+                    info = new SQLitePatchInfo();
+                    info.setMd5(md5);
+                    current.getPatches().add(info);
+                }
+                info.setSize(size);
+                info.setCompressedSize(compressedSize);
+                info.setEncoding(compressedSize != null ? COMPRESSED_PATCH_ENCODING : null);
+                return true;
+            });
+        } catch (URISyntaxException | IOException e) {
+            LOG.warn("Unable to record the size of patch {} for database {}", md5, database, e);
+        }
+    }
+
+    private void recordPatchSize(String database, Path patchFile) {
+        Long size = patchFile != null ? sizeOf(patchFile) : null;
+        if (size != null) {
+            pipelineMetrics.recordValue(SQLiteDBMetrics.PATCH_SIZE, database, size);
+        }
+    }
+
+    private Path writePatch(SQLiteDBFileInfo current, SQLiteDBFileInfo previous, Path patchFile, String database)
+            throws IOException {
+        long patchCreationTime = System.currentTimeMillis();
+        long patchStart = System.nanoTime();
+        Path tempFile = Paths.get(patchFile.toString() + PatchBatch.TEMP_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+            patchWriter(sqliteConfig, current.getPatchFormat()).write(Paths.get(previous.getFile()), Paths.get(current.getFile()),
+                    out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, patchFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        pipelineMetrics.recordTime(SQLiteDBMetrics.PATCH_TIME, database, System.nanoTime() - patchStart);
+        recordPatchSize(database, patchFile);
+        patchCreationTime = System.currentTimeMillis() - patchCreationTime;
+        LOG.info("Patch {} for database {} created in {} ms", previous.getMd5(), database, patchCreationTime);
+        return patchFile;
+    }
+
+    /**
+     * Cancels the patches of the database being generated, waits for them to
+     * stop and deletes every patch of the database.
+     */
+    private void deletePatches(String database) {
+        LOG.info("Deleting all patches for database {}", database);
+        long deletePatchesTime = System.currentTimeMillis();
+        PatchBatch pending = pendingPatches.get(database);
+        if (pending != null) {
+            LOG.info("Cancelling pending patches for database {}", database);
+            pending.cancel();
+            pending.getResult().join();
+        }
+        String prefix = key(database) + '/';
+        inFlight.forEach((key, build) -> {
+            if (key.startsWith(prefix)) {
+                build.handle((patch, e) -> patch).join();
+            }
+        });
+
+        Path folder = Paths.get(SQLitePathUtils.getMasterdataDBFolderPath(sqliteConfig.getDatabasePath(), database));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (isPatch(name) || name.endsWith(PatchBatch.TEMP_SUFFIX)
+                        && isPatch(name.substring(0, name.length() - PatchBatch.TEMP_SUFFIX.length()))) {
+                    Files.deleteIfExists(file);
+                    lastAccess.remove(file);
+                    LOG.info("Patch {} deleted for database {}", name, database);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Error deleting patches for center {}", database, e);
+        }
+        deletePatchesTime = System.currentTimeMillis() - deletePatchesTime;
+        LOG.info("All patches deleted for database {} in {} ms", database, deletePatchesTime);
+    }
+
+    /**
+     * Deletes the least recently used patches of every database until their
+     * total size is within <code>patchCacheMaxBytes</code>. The patch just
+     * generated is kept.
+     */
+    private synchronized void evict(Path keep) {
+        long maxBytes = sqliteConfig.getPatchCacheMaxBytes();
+        if (maxBytes <= 0) {
+            return;
+        }
+
+        List<PatchFile> patches = new ArrayList<PatchFile>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(Paths.get(sqliteConfig.getDatabasePath()),
+                Files::isDirectory)) {
+            for (Path folder : folders) {
+                try (DirectoryStream<Path> files =
+                        Files.newDirectoryStream(folder, file -> isPatch(file.getFileName().toString()))) {
+                    for (Path file : files) {
+                        Long accessed = lastAccess.get(file);
+                        PatchFile patch = new PatchFile(file, Files.size(file),
+                                accessed != null ? accessed : Files.getLastModifiedTime(file).toMillis());
+                        patches.add(patch);
+                        totalBytes += patch.size;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to list patches to evict", e);
+            return;
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        patches.sort(Comparator.comparingLong(patch -> patch.lastAccess));
+        for (PatchFile patch : patches) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            if (patch.file.equals(keep) || compressing.contains(patch.file)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(patch.file);
+                lastAccess.remove(patch.file);
+                totalBytes -= patch.size;
+                LOG.info("Patch {} evicted, {} bytes of patches left", patch.file, totalBytes);
+            } catch (IOException e) {
+                LOG.warn("Unable to evict patch {}", patch.file, e);
+            }
+        }
+    }
+
+    private Path patchPath(String database, String currentMd5, String md5) {
+        return Paths.get(
+                SQLitePathUtils.getMasterdataPatchPath(sqliteConfig.getDatabasePath(), database, currentMd5, md5));
+    }
+
+    private Path compressedPatchPath(String database, String currentMd5, String md5) {
+        return Paths.get(SQLitePathUtils.getMasterdataCompressedPatchPath(sqliteConfig.getDatabasePath(), database,
+                currentMd5, md5));
+    }
+
+    private static boolean isPatch(String name) {
+        return name.endsWith(PATCH_EXTENSION) || name.endsWith(COMPRESSED_PATCH_EXTENSION);
+    }
+
+    private static SQLiteDBFileInfo findPrevious(SQLiteDBMetadata metadata, String md5) {
+        SQLiteDBFileInfo current = metadata.getCurrent();
+        if (current == null || md5.equals(current.getMd5())) {
+            return null;
+        }
+        return metadata.getPrevious().stream().filter(info -> md5.equals(info.getMd5())).findFirst().orElse(null);
+    }
+
+    private static PatchCompression compression(SQLiteDBFileInfo current) {
+        return current.getPatchCompression() != null ? current.getPatchCompression() : PatchCompression.NONE;
+    }
+
+    private static String patchKey(String database, SQLiteDBFileInfo current, SQLiteDBFileInfo previous) {
+        return key(database) + '/' + current.getMd5() + '/' + previous.getMd5();
+    }
+
+    private static Long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String key(String database) {
+        return database.toLowerCase(Locale.ROOT);
+    }
+
+    private static Path await(CompletableFuture<Path> build) throws IOException {
+        try {
+            return build.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a patch");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Error generating patch", e.getCause());
+        }
+    }
+
+    /**
+     * @return the writer of patches in <code>format</code> for the patch
+     *         settings of <code>config</code>
+     */
+    public static PatchWriter patchWriter(SQLitePropertyConfig config, PatchFormat format) {
+        VCDiffPatchWriter vcdiffWriter =
+                new VCDiffPatchWriter(config.getPatchWindowSize(), config.getPatchDictionaryMargin());
+        if (format == PatchFormat.PAGES) {
+            return new PagePatchWriter(config.getPatchWindowSize(), vcdiffWriter);
+        }
+        return vcdiffWriter;
+    }
+
+    private synchronized ExecutorService patchExecutor() {
+        if (patchExecutor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqlite-patch-");
+            threadFactory.setDaemon(true);
+            patchExecutor = Executors.newFixedThreadPool(Math.max(1, sqliteConfig.getPatchThreads()), threadFactory);
+        }
+        return patchExecutor;
+    }
+
+    private synchronized ExecutorService compressionExecutor() {
+        if (compressionExecutor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqlite-patch-gzip-");
+            threadFactory.setDaemon(true);
+            compressionExecutor =
+                    Executors.newFixedThreadPool(Math.max(1, sqliteConfig.getPatchCompressionThreads()), threadFactory);
+        }
+        return compressionExecutor;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (patchExecutor != null) {
+            patchExecutor.shutdownNow();
+        }
+        if (compressionExecutor != null) {
+            compressionExecutor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface PatchBuild {
+
+        Path build() throws IOException;
+    }
+
+    private static final class PatchFile {
+
+        private final Path file;
+        private final long size;
+        private final long lastAccess;
+
+        private PatchFile(Path file, long size, long lastAccess) {
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package com.lksnext.sqlite.impl;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
@@ -12,31 +8,39 @@ import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
-import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.lksnext.sqlite.PersistOptions;
 import com.lksnext.sqlite.SQLiteDBPersistManager;
 import com.lksnext.sqlite.config.SQLitePropertyConfig;
+import com.lksnext.sqlite.digest.FileDigester;
 import com.lksnext.sqlite.file.FileManager;
+import com.lksnext.sqlite.impl.digest.FileDigesterRegistry;
+import com.lksnext.sqlite.impl.metrics.PipelineMetrics;
+import com.lksnext.sqlite.impl.util.ParallelZipWriter;
 import com.lksnext.sqlite.impl.util.SQLitePathUtils;
 import com.lksnext.sqlite.metadata.SQLiteDBFileInfo;
 import com.lksnext.sqlite.metadata.SQLiteDBMetadata;
 import com.lksnext.sqlite.metadata.SQLiteDBMetadataManager;
+import com.lksnext.sqlite.metrics.SQLiteDBMetrics;
 
 @Service
-public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
+public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(SQLiteDBPersistManagerImpl.class);
 
+    private static final int ZIP_BLOCK_SIZE = 1024 * 1024;
+
     @Autowired
     private FileManager fileManager;
 
@@ -46,6 +50,17 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
     @Autowired
     private SQLiteDBMetadataManager sqliteDBMetadataManager;
 
+    @Autowired
+    private FileDigesterRegistry fileDigesters;
+
+    @Autowired
+    private SQLiteDBPatchCacheImpl patchCache;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    private ExecutorService zipExecutor;
+
     @Override
     public void persist(String owner, String database) throws URISyntaxException, IOException {
         persist(owner, database, true);
@@ -54,12 +69,29 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
     @Override
     public void persist(String owner, String database, boolean createDiffPatches)
             throws URISyntaxException, IOException {
+        PersistOptions options = new PersistOptions();
+        options.setCreateDiffPatches(createDiffPatches);
+        persist(owner, database, options);
+    }
+
+    @Override
+    public void persist(String owner, String database, PersistOptions options)
+            throws URISyntaxException, IOException {
 
-        String newMD5 = calculateMD5(sqliteConfig.getTemporalPath(), database);
-        SQLiteDBMetadata metadata = sqliteDBMetadataManager.loadMetadata(database);
+        SQLiteDBMetadata metadata = sqliteDBMetadataManager.reloadMetadata(database);
         SQLiteDBFileInfo current = metadata.getCurrent();
+        String fingerprint = options.getFingerprint();
+        if (current != null && fingerprint != null && fingerprint.equals(current.getFingerprint())) {
+            LOG.info("Database {} content is unchanged, fingerprint {}", database, fingerprint);
+            purgeOrphanedDatabaseFiles(metadata, database);
+            return;
+        }
+
+        long persistStart = System.nanoTime();
+        FileDigester digester = fileDigesters.getDefault();
+        String newMD5 = calculateDigest(sqliteConfig.getTemporalPath(), database, digester);
         
-        if (current==null || !current.getMd5().equals(newMD5)) {
+        if (current==null || !isSameContent(current, database, digester, newMD5)) {
             LOG.info("New database generated {} {} {}", owner, database, newMD5);
             URI srcURI = SQLitePathUtils.getTemporalDBPath(sqliteConfig.getTemporalPath(), database);
             URI destURI = SQLitePathUtils.getMasterdataDBPath(sqliteConfig.getDatabasePath(), database, newMD5);
@@ -72,7 +104,10 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
             LOG.info("Start addDBtoMetadata for Database {}", database);
             long addDbToMetadataTime = System.currentTimeMillis();
             List<SQLiteDBFileInfo> dbsToDelete = sqliteDBMetadataManager.addDBtoMetadata(metadata, owner, database,
-                    Paths.get(destURI).toString(), newMD5);
+                    Paths.get(destURI).toString(), newMD5, digester.getAlgorithm());
+            metadata.getCurrent().setFingerprint(fingerprint);
+            metadata.getCurrent().setPatchFormat(options.getPatchFormat());
+            metadata.getCurrent().setPatchCompression(options.getPatchCompression());
             addDbToMetadataTime = System.currentTimeMillis() - addDbToMetadataTime;
             LOG.info("addDBtoMetadata for Database {} finished in {} ms", database, addDbToMetadataTime);
             
@@ -97,11 +132,11 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
             
             saveZippedLatestDb(database, destURI);
 
-            deletePatches(database);
-
-            if (createDiffPatches) {
-                createPatches(metadata, database);
-            }
+            patchCache.refresh(metadata, database, options.isCreateDiffPatches());
+            pipelineMetrics.recordTime(SQLiteDBMetrics.PERSIST_TIME, database, System.nanoTime() - persistStart);
+        } else if (fingerprint != null && !fingerprint.equals(current.getFingerprint())) {
+            current.setFingerprint(fingerprint);
+            sqliteDBMetadataManager.saveMetadata(metadata, database);
         }
         purgeOrphanedDatabaseFiles(metadata, database);
     }
@@ -169,13 +204,29 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
         }
     }
 
-    private String calculateMD5(URI tempDir, String database) throws URISyntaxException, IOException {
+    private String calculateDigest(URI tempDir, String database, FileDigester digester) throws IOException {
         URI dbPath = SQLitePathUtils.getTemporalDBPath(tempDir, database);
-        String md5 = "";
-        try (FileInputStream fis = new FileInputStream(new File(dbPath))) {
-            md5 = DigestUtils.md5Hex(fis);
+        long digestTime = System.currentTimeMillis();
+        long digestStart = System.nanoTime();
+        String digest = digester.digest(dbPath);
+        pipelineMetrics.recordTime(SQLiteDBMetrics.HASH_TIME, database, System.nanoTime() - digestStart);
+        digestTime = System.currentTimeMillis() - digestTime;
+        LOG.info("Database {} {} digest computed in {} ms", database, digester.getAlgorithm(), digestTime);
+        return digest;
+    }
+
+    /**
+     * Compares the new database with the current one. When the current digest
+     * was computed with another algorithm, the new database is digested again
+     * with that algorithm.
+     */
+    private boolean isSameContent(SQLiteDBFileInfo current, String database, FileDigester digester,
+            String newDigest) throws IOException {
+        if (FileDigesterRegistry.isSameAlgorithm(current.getAlgorithm(), digester.getAlgorithm())) {
+            return current.getMd5().equals(newDigest);
         }
-        return md5;
+        FileDigester currentDigester = fileDigesters.get(current.getAlgorithm());
+        return current.getMd5().equals(calculateDigest(sqliteConfig.getTemporalPath(), database, currentDigester));
     }
 
     private void updateOrCreateSymLinkToLatest(SQLiteDBMetadata sqliteDBMetadata, URI targetDir, String database) {
@@ -188,50 +239,6 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
         }
     }
 
-    private void deletePatches(String database) {
-    	LOG.info("Deleting all patches for database {}", database);
-    	long deletePatchesTime = System.currentTimeMillis();
-        try {
-            File folder = new File(SQLitePathUtils.getMasterdataDBFolderPath(sqliteConfig.getDatabasePath(), database));
-            File fList[] = folder.listFiles();
-            long patchTime = 0;
-            for (int i = 0; i < fList.length; i++) {
-                File pes = fList[i];
-                if (pes.getName().endsWith(".patch")) {
-                	patchTime = System.currentTimeMillis();
-                    pes.delete();
-                    patchTime = System.currentTimeMillis() - patchTime;
-                    LOG.info("Patch {} deleted for database {} in {} ms", pes.getName(), database, patchTime);
-                }
-            }
-        } catch (Exception e) {
-            LOG.error("Error deleting patches for center {}", database, e);
-        }
-        deletePatchesTime = System.currentTimeMillis() - deletePatchesTime;
-        LOG.info("All patches deleted for database {} in {} ms", database, deletePatchesTime);
-    }
-
-    private void createPatches(SQLiteDBMetadata sqliteDBMetadata, String database) {
-
-        int patchCount = 0;
-        while (patchCount < sqliteConfig.getMaxPatchNumber() && patchCount < sqliteDBMetadata.getPrevious().size()) {
-
-            File prev = new File(sqliteDBMetadata.getPrevious().get(patchCount).getFile());
-            File current = new File(sqliteDBMetadata.getCurrent().getFile());
-            try {
-            	long patchCreationTime = System.currentTimeMillis();
-                createPatch(prev, current, sqliteDBMetadata.getPrevious().get(patchCount).getMd5(), database);
-                patchCreationTime = System.currentTimeMillis() - patchCreationTime;
-				LOG.info("Patch {} for database {} created in {} ms",
-						sqliteDBMetadata.getPrevious().get(patchCount).getMd5(), database, patchCreationTime);
-            } catch (Exception e) {
-                LOG.error("Error generating patch {} for center {}", patchCount, database, e);
-            }
-            patchCount++;
-        }
-
-    }
-
     @Override
     public void createPatchForMD5(SQLiteDBMetadata sqliteDBMetadata, String database, String md5) {
 
@@ -239,17 +246,9 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
             return;
         }
 
-        List<SQLiteDBFileInfo> prev = sqliteDBMetadata.getPrevious();
-
-        SQLiteDBFileInfo fileInfo = prev.stream().filter(info -> {
-            return md5.equals(info.getMd5());
-        }).findFirst().orElse(null);
-
-        if (fileInfo != null) {
-            File previous = new File(fileInfo.getFile());
-            File current = new File(sqliteDBMetadata.getCurrent().getFile());
+        if (existsDBForMD5(sqliteDBMetadata, database, md5)) {
             try {
-                createPatch(previous, current, fileInfo.getMd5(), database);
+                patchCache.getPatch(sqliteDBMetadata, database, md5);
             } catch (Exception e) {
                 LOG.error("Error generating patch {} for center {}", md5, database, e);
             }
@@ -263,6 +262,12 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
             return false;
         }
 
+        try {
+            return sqliteDBMetadataManager.findPrevious(database, md5) != null;
+        } catch (URISyntaxException | IOException e) {
+            LOG.warn("Unable to look up version {} of database {}, searching the given metadata", md5, database, e);
+        }
+
         List<SQLiteDBFileInfo> prev = sqliteDBMetadata.getPrevious();
 
         SQLiteDBFileInfo fileInfo = prev.stream().filter(info -> {
@@ -272,64 +277,56 @@ public class SQLiteDBPersistManagerImpl implements SQLiteDBPersistManager {
         return fileInfo != null;
     }
 
-    private void createPatch(File previous, File current, String md5, String database) throws Exception {
-
-        FileOutputStream out = null;
-        OutputStream vcDiffOut = null;
-
-        try (FileInputStream is = new FileInputStream(previous);
-                FileInputStream isTarget = new FileInputStream(current);) {
-
-            byte[] dictionary = IOUtils.toByteArray(is);
-
-            File outFile =
-                    new File(SQLitePathUtils.getMasterdataPatchPath(sqliteConfig.getDatabasePath(), database, md5));
-            outFile.createNewFile();
-            out = new FileOutputStream(outFile);
-
-            vcDiffOut = VCDiffEncoderBuilder.builder().withDictionary(dictionary).buildOutputStream(out);
-
-            IOUtils.copyLarge(isTarget, vcDiffOut, new byte[32 * 1024]);
-
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (Exception e) {
-                    // Ignore
-                }
-            }
-
-            if (vcDiffOut != null) {
-                try {
-                    vcDiffOut.close();
-                } catch (Exception e) {
-                    // Ignore
-                }
-            }
-        }
-    }
-    
     private void saveZippedLatestDb(String database, URI file) {
 		deleteLatestZippedDb(database);// sqliteConfig.getDatabasePath()
 		
 		URI folderURI = SQLitePathUtils.getMasterdataDBFolderPath(sqliteConfig.getDatabasePath(), database);
-		URI zip = SQLitePathUtils.getMasterdataLatestZipPath(folderURI);
-		File fileToZip = Paths.get(file).toFile();
+		Path zip = Paths.get(SQLitePathUtils.getMasterdataLatestZipPath(folderURI));
+		Path fileToZip = Paths.get(file);
 		
-		try (FileOutputStream fos = new FileOutputStream(Paths.get(zip).toFile());
-				ZipOutputStream zipOut = new ZipOutputStream(fos);
-				FileInputStream fis = new FileInputStream(fileToZip);){
-			
-			ZipEntry zipEntry = new ZipEntry(SQLitePathUtils.LATEST_DB_NAME);
-			zipOut.putNextEntry(zipEntry);
-			byte[] bytes = new byte[1024];
-			int length;
-			while ((length = fis.read(bytes)) >= 0) {
-				zipOut.write(bytes, 0, length);
+		long zipTime = System.currentTimeMillis();
+		long zipStart = System.nanoTime();
+		try {
+			ParallelZipWriter zipWriter = zipWriter(sqliteConfig, zipExecutor());
+			long zipSize = zipWriter.write(fileToZip, SQLitePathUtils.LATEST_DB_NAME, zip);
+			pipelineMetrics.recordTime(SQLiteDBMetrics.ZIP_TIME, database, System.nanoTime() - zipStart);
+			pipelineMetrics.recordValue(SQLiteDBMetrics.ZIP_SIZE, database, zipSize);
+			zipTime = System.currentTimeMillis() - zipTime;
+			long size = Files.size(fileToZip);
+			LOG.info("latest.zip for database {} written in {} ms, {} to {} bytes, {} MB/s", database, zipTime, size,
+					zipSize, String.format("%.1f", size / 1048.576 / Math.max(1, zipTime)));
+		} catch (Exception e) {
+			LOG.error("Error creting latest.zip for database {}", database, e);
+			try {
+				Files.deleteIfExists(zip);
+			} catch (IOException deleteError) {
+				LOG.warn("Unable to delete incomplete {}", zip, deleteError);
 			}
-		}catch (Exception e) {
-			LOG.error("Error creting latest.zip for database {}", e);
+		}
+	}
+
+	/**
+	 * @return the writer of <code>latest.zip</code> for the zip settings of
+	 *         <code>config</code>, compressing on <code>executor</code>
+	 */
+	public static ParallelZipWriter zipWriter(SQLitePropertyConfig config, Executor executor) {
+		int threads = Math.max(1, config.getZipThreads());
+		return new ParallelZipWriter(ZIP_BLOCK_SIZE, config.getZipLevel(), threads * 2, executor);
+	}
+
+	private synchronized ExecutorService zipExecutor() {
+		if (zipExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqlite-zip-");
+			threadFactory.setDaemon(true);
+			zipExecutor = Executors.newFixedThreadPool(Math.max(1, sqliteConfig.getZipThreads()), threadFactory);
+		}
+		return zipExecutor;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (zipExecutor != null) {
+			zipExecutor.shutdownNow();
 		}
 	}
 
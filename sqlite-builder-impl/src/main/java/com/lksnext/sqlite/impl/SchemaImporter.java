@@ -0,0 +1,485 @@
+package com.lksnext.sqlite.impl;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import com.lksnext.sqlite.impl.definition.IndexPlan;
+import com.lksnext.sqlite.impl.metrics.PipelineMetrics;
+import com.lksnext.sqlite.impl.definition.TablePlan;
+import com.lksnext.sqlite.impl.util.BatchInserter;
+import com.lksnext.sqlite.impl.util.ColumnPlan;
+import com.lksnext.sqlite.impl.util.GenericTable;
+import com.lksnext.sqlite.impl.util.ImportOptions;
+import com.lksnext.sqlite.impl.util.NamedParameterStatement;
+import com.lksnext.sqlite.impl.util.ResultSetImporter;
+import com.lksnext.sqlite.impl.util.RowBatch;
+import com.lksnext.sqlite.impl.util.RowBatchQueue;
+import com.lksnext.sqlite.impl.util.RowFetcher;
+import com.lksnext.sqlite.impl.util.SQLiteUtils;
+import com.lksnext.sqlite.impl.util.TableFingerprint;
+import com.lksnext.sqlite.impl.util.TableLoad;
+import com.lksnext.sqlite.metrics.SQLiteDBMetrics;
+
+/**
+ * Imports the tables of a database definition into a SQLite connection.
+ * <p>
+ * Tables are imported one after another in the order of the definition, unless
+ * a parallelism greater than one is requested. In that case the source queries
+ * of up to that many tables run at the same time, each on its own source
+ * connection, and their rows are funnelled through a bounded queue to the
+ * calling thread, the only one writing into SQLite. A table starts once the
+ * tables in its <code>dependsOn</code> list, and the previous elements of the
+ * same table, have been imported and cleaned up.
+ */
+class SchemaImporter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SchemaImporter.class);
+
+	private static final int FETCH_SIZE = 10000;
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private final DataSource dataSource;
+
+	private final Connection sqliteCon;
+
+	private final String database;
+
+	private final Map<String, String> context;
+
+	private final ImportOptions options;
+
+	private final SharedImports sharedImports;
+
+	private final BuildMonitor monitor;
+
+	private final Map<String, TableFingerprint> fingerprints = new TreeMap<String, TableFingerprint>();
+
+	private final Set<String> cleanedTables = new HashSet<String>();
+
+	private boolean cleanedUnknownTables;
+
+	SchemaImporter(DataSource dataSource, Connection sqliteCon, String database, Map<String, String> context,
+			ImportOptions options, SharedImports sharedImports, BuildMonitor monitor) {
+		this.dataSource = dataSource;
+		this.sqliteCon = sqliteCon;
+		this.database = database;
+		this.context = context;
+		this.options = options;
+		this.sharedImports = sharedImports;
+		this.monitor = monitor;
+	}
+
+	void importTables(List<TablePlan> tables, int parallelism) throws SQLException {
+		if (parallelism > 1 && tables.size() > 1) {
+			importConcurrently(tables, parallelism);
+		} else {
+			for (TablePlan table : tables) {
+				options.getCancellation().throwIfCancelled();
+				populateTableData(table);
+			}
+		}
+	}
+
+	/**
+	 * Returns the fingerprints of the tables written by this importer, by
+	 * lowercase table name. They are computed from the rows as they are
+	 * imported, except for the tables changed by cleanup statements, which are
+	 * read back from SQLite. When a cleanup statement does not tell which table
+	 * it changes, every table of the database is read back.
+	 */
+	Map<String, TableFingerprint> getFingerprints() throws SQLException {
+		Set<String> changed = new HashSet<String>(cleanedTables);
+		if (cleanedUnknownTables) {
+			changed.addAll(SQLiteUtils.getTableNames(sqliteCon));
+		}
+		for (String table : changed) {
+			if (SQLiteUtils.existsTable(sqliteCon, table)) {
+				fingerprints.put(table, TableFingerprint.ofTable(sqliteCon, table));
+			} else {
+				fingerprints.remove(table);
+			}
+		}
+		return fingerprints;
+	}
+
+	private void addFingerprint(String table, TableFingerprint fingerprint) {
+		monitor.getListener().tableImported(database, table, fingerprint != null ? fingerprint.getRows() : 0);
+		if (fingerprint == null) {
+			return;
+		}
+		String key = table.toLowerCase(Locale.ROOT);
+		TableFingerprint existing = fingerprints.get(key);
+		if (existing == null) {
+			existing = new TableFingerprint();
+			fingerprints.put(key, existing);
+		}
+		existing.merge(fingerprint);
+	}
+
+	/**
+	 * Builds the indexes declared on the tables. Runs once every table is
+	 * imported, so index builds never hold back the import of other tables.
+	 * Tables are only created with their first row, so the indexes of a table
+	 * whose source returned no rows are skipped.
+	 */
+	void buildIndexes(List<TablePlan> tables) throws SQLException {
+		for (TablePlan table : tables) {
+			if (table.getIndexes().isEmpty()) {
+				continue;
+			}
+			if (!SQLiteUtils.existsTable(sqliteCon, table.getTable())) {
+				LOG.info("Table {} has no rows, its indexes are not created", table.getTable());
+				continue;
+			}
+			for (IndexPlan index : table.getIndexes()) {
+				LOG.info("Creating index {} on {}{}", index.getName(), table.getTable(), index.getColumns());
+				SQLiteUtils.createIndex(sqliteCon, index.getName(), table.getTable(), index.getColumns(),
+						index.isUnique());
+			}
+		}
+	}
+
+	private void populateTableData(TablePlan table) throws SQLException {
+		String query = table.getSource();
+		LOG.debug("populateTableData query: " + query);
+		if (sharedImports.isShared(table, context)) {
+			long copyStart = System.nanoTime();
+			TableFingerprint copied = sharedImports.copy(sqliteCon, table, context, options.getCancellation());
+			recordImport(table.getTable(), copied != null ? copied.getRows() : 0, 0, System.nanoTime() - copyStart);
+			addFingerprint(table.getTable(), copied);
+		} else if (StringUtils.isNotEmpty(query)) {
+			long importStart = System.nanoTime();
+			GenericTable imported;
+			if (context != null) {
+				imported = SQLiteUtils.importData(dataSource, sqliteCon, table.getSourceQuery(), table.getTable(),
+						context, options);
+			} else {
+				imported = SQLiteUtils.importData(dataSource, sqliteCon, query, table.getTable(), options);
+			}
+			if (imported.getFirstRowTime() >= 0) {
+				monitor.getMetrics().recordTableTime(SQLiteDBMetrics.IMPORT_FIRST_ROW, database, table.getTable(),
+						imported.getFirstRowTime());
+			}
+			recordImport(table.getTable(), imported.getRowCount(), imported.getBytes(),
+					System.nanoTime() - importStart);
+			addFingerprint(table.getTable(), imported.getFingerprint());
+		}
+		cleanupTable(table);
+	}
+
+	private void recordImport(String table, long rows, long bytes, long importTime) {
+		PipelineMetrics metrics = monitor.getMetrics();
+		metrics.incrementTable(SQLiteDBMetrics.IMPORT_ROWS, database, table, rows);
+		if (bytes > 0) {
+			metrics.incrementTable(SQLiteDBMetrics.IMPORT_BYTES, database, table, bytes);
+		}
+		metrics.recordTableTime(SQLiteDBMetrics.IMPORT_TIME, database, table, importTime);
+		if (rows > 0 && importTime > 0) {
+			metrics.recordTableValue(SQLiteDBMetrics.IMPORT_RATE, database, table,
+					rows * (double) TimeUnit.SECONDS.toNanos(1) / importTime);
+		}
+	}
+
+	private void cleanupTable(TablePlan table) throws SQLException {
+		String cleanup = table.getCleanup();
+		if (StringUtils.isNotEmpty(cleanup)) {
+			LOG.debug("Cleaning table {}...", table.getTable());
+			if (table.getCleanupTarget() != null) {
+				cleanedTables.add(table.getCleanupTarget().toLowerCase(Locale.ROOT));
+			} else {
+				cleanedUnknownTables = true;
+			}
+
+			if (context != null) {
+				SQLiteUtils.cleanupAction(sqliteCon, table.getCleanupQuery(), context);
+			} else {
+				SQLiteUtils.cleanupAction(sqliteCon, cleanup);
+			}
+
+		}
+	}
+
+	private void importConcurrently(List<TablePlan> tables, int parallelism) throws SQLException {
+		Map<Integer, Set<Integer>> pending = dependencies(tables);
+		Deque<Integer> ready = new ArrayDeque<Integer>();
+		for (Entry<Integer, Set<Integer>> entry : pending.entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				ready.add(entry.getKey());
+			}
+		}
+		Set<Integer> remaining = new HashSet<Integer>(pending.keySet());
+
+		DSLContext create = DSL.using(sqliteCon, SQLDialect.SQLITE);
+		RowBatchQueue queue = new RowBatchQueue(options.getPipelineCapacity() * parallelism);
+		Set<Statement> statements = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>());
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+				ResultSetImporter.daemonThreadFactory("sqlite-table-fetch-"));
+		Map<String, Integer> running = new HashMap<String, Integer>();
+		Map<String, BatchInserter> inserters = new HashMap<String, BatchInserter>();
+		Map<String, TableLoad> loads = new HashMap<String, TableLoad>();
+		Map<String, Long> importStarts = new HashMap<String, Long>();
+		boolean completed = false;
+
+		LOG.info("Importing {} tables with {} concurrent source queries", tables.size(), parallelism);
+		try {
+			while (!remaining.isEmpty()) {
+				options.getCancellation().throwIfCancelled();
+				while (!ready.isEmpty()) {
+					Integer idx = ready.poll();
+					TablePlan table = tables.get(idx);
+					if (StringUtils.isEmpty(table.getSource())) {
+						cleanupTable(table);
+						complete(idx, pending, remaining, ready);
+					} else {
+						LOG.info("Importing {}...", table.getTable());
+						running.put(table.getTable(), idx);
+						importStarts.put(table.getTable(), System.nanoTime());
+						executor.submit(() -> fetch(table, queue, statements));
+					}
+				}
+				if (running.isEmpty()) {
+					if (remaining.isEmpty()) {
+						break;
+					}
+					throw new IllegalStateException("Cyclic dependsOn between the tables " + names(tables, remaining));
+				}
+
+				RowBatch batch = queue.take();
+				String tableName = batch.getTable();
+				if (batch.getPlan() != null) {
+					ColumnPlan plan = batch.getPlan();
+					TableLoad load = TableLoad.create(create, tableName, plan, batch.getRows().get(0),
+							new GenericTable(DSL.name(tableName)), options.isBulkLoad());
+					loads.put(tableName, load);
+					inserters.put(tableName, new BatchInserter(sqliteCon, load.getLoadTable(),
+							plan.getColumnNames(), options.getBatchSize()));
+				}
+				BatchInserter inserter = inserters.get(tableName);
+				for (Object[] row : batch.getRows()) {
+					inserter.addRow(row);
+				}
+				if (batch.isLast()) {
+					ResultSetImporter.rethrow(batch.getError());
+					if (inserter != null) {
+						inserter.flush();
+						inserters.remove(tableName).close();
+						loads.remove(tableName).complete(create);
+						addFingerprint(tableName, inserter.getFingerprint());
+					}
+					sqliteCon.commit();
+					Integer idx = running.remove(tableName);
+					TablePlan table = tables.get(idx);
+					if (sharedImports.isShared(table, context)) {
+						TableFingerprint copied =
+								sharedImports.copy(sqliteCon, table, context, options.getCancellation());
+						recordImport(tableName, copied != null ? copied.getRows() : 0, 0,
+								System.nanoTime() - importStarts.remove(tableName));
+						addFingerprint(tableName, copied);
+					} else {
+						recordImport(tableName, inserter != null ? inserter.getRows() : 0,
+								inserter != null ? inserter.getBytes() : 0,
+								System.nanoTime() - importStarts.remove(tableName));
+					}
+					cleanupTable(table);
+					complete(idx, pending, remaining, ready);
+				}
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while importing tables", e);
+		} finally {
+			if (!completed) {
+				queue.close();
+				cancel(statements);
+			}
+			for (BatchInserter inserter : inserters.values()) {
+				closeQuietly(inserter);
+			}
+			shutdown(executor);
+		}
+	}
+
+	/**
+	 * Resolves, for every element of the schema, the elements that must be
+	 * completed before it starts.
+	 */
+	private static Map<Integer, Set<Integer>> dependencies(List<TablePlan> tables) {
+		Map<Integer, Set<Integer>> dependencies = new HashMap<Integer, Set<Integer>>();
+		for (int i = 0; i < tables.size(); i++) {
+			TablePlan table = tables.get(i);
+			Set<Integer> dependsOn = new HashSet<Integer>();
+			for (String dependency : table.getDependsOn()) {
+				boolean found = false;
+				for (int j = 0; j < tables.size(); j++) {
+					if (j != i && dependency.equals(tables.get(j).getTable())) {
+						dependsOn.add(j);
+						found = true;
+					}
+				}
+				if (!found) {
+					LOG.warn("Table {} depends on {}, which is not in the schema", table.getTable(), dependency);
+				}
+			}
+			for (int j = 0; j < i; j++) {
+				if (table.getTable().equals(tables.get(j).getTable())) {
+					dependsOn.add(j);
+				}
+			}
+			dependencies.put(i, dependsOn);
+		}
+		return dependencies;
+	}
+
+	private static void complete(Integer idx, Map<Integer, Set<Integer>> pending, Set<Integer> remaining,
+			Deque<Integer> ready) {
+		remaining.remove(idx);
+		for (Integer other : remaining) {
+			Set<Integer> dependsOn = pending.get(other);
+			if (dependsOn.remove(idx) && dependsOn.isEmpty()) {
+				ready.add(other);
+			}
+		}
+	}
+
+	private static String names(List<TablePlan> tables, Set<Integer> indexes) {
+		Set<String> names = new HashSet<String>();
+		for (Integer idx : indexes) {
+			names.add(tables.get(idx).getTable());
+		}
+		return names.toString();
+	}
+
+	/**
+	 * Runs the source query of a table on its own connection and puts its rows
+	 * into the queue. Shared tables are only staged, and the writer copies them
+	 * once their end is queued. Runs on a fetch thread.
+	 */
+	private void fetch(TablePlan table, RowBatchQueue queue, Set<Statement> statements) {
+		String tableName = table.getTable();
+		Connection con = null;
+		try {
+			if (sharedImports.isShared(table, context)) {
+				sharedImports.stage(table, context, options.getCancellation());
+				queue.put(RowBatch.end(tableName));
+				return;
+			}
+			con = DataSourceUtils.getConnection(dataSource);
+			if (context != null) {
+				try (NamedParameterStatement stmt = new NamedParameterStatement(con, table.getSourceQuery(),
+						ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+					statements.add(stmt.getStatement());
+					options.getCancellation().register(stmt.getStatement());
+					for (Entry<String, String> p : context.entrySet()) {
+						stmt.setString(p.getKey(), p.getValue());
+					}
+					long queryStart = System.nanoTime();
+					try (ResultSet rs = stmt.executeQuery()) {
+						fetchRows(tableName, rs, queue, queryStart);
+					} finally {
+						statements.remove(stmt.getStatement());
+						options.getCancellation().unregister(stmt.getStatement());
+					}
+				}
+			} else {
+				try (Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+					statements.add(stmt);
+					options.getCancellation().register(stmt);
+					long queryStart = System.nanoTime();
+					try (ResultSet rs = stmt.executeQuery(table.getSource())) {
+						fetchRows(tableName, rs, queue, queryStart);
+					} finally {
+						statements.remove(stmt);
+						options.getCancellation().unregister(stmt);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception | Error e) {
+			LOG.error("Error importing table {}", tableName, e);
+			LOG.error("Query: {}", table.getSource());
+			try {
+				queue.put(RowBatch.error(tableName, e));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		} finally {
+			DataSourceUtils.releaseConnection(con, dataSource);
+		}
+	}
+
+	private void fetchRows(String tableName, ResultSet rs, RowBatchQueue queue, long queryStart)
+			throws SQLException, InterruptedException {
+		rs.setFetchSize(FETCH_SIZE);
+		if (!rs.next()) {
+			queue.put(RowBatch.end(tableName));
+			return;
+		}
+		monitor.getMetrics().recordTableTime(SQLiteDBMetrics.IMPORT_FIRST_ROW, database, tableName,
+				System.nanoTime() - queryStart);
+		ColumnPlan plan = ColumnPlan.compile(rs.getMetaData());
+		Object[] first = new Object[plan.size()];
+		plan.read(rs, first);
+		if (queue.put(RowBatch.first(tableName, plan, Collections.singletonList(first)))) {
+			new RowFetcher(rs, plan, tableName, options.getBatchSize(), queue).call();
+		}
+	}
+
+	private static void cancel(Set<Statement> statements) {
+		for (Statement statement : statements) {
+			try {
+				statement.cancel();
+			} catch (Exception e) {
+				LOG.debug("Unable to cancel source query", e);
+			}
+		}
+	}
+
+	private static void closeQuietly(BatchInserter inserter) {
+		try {
+			inserter.close();
+		} catch (Exception e) {
+			LOG.debug("Unable to close insert statement", e);
+		}
+	}
+
+	private static void shutdown(ExecutorService executor) {
+		executor.shutdownNow();
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				LOG.warn("Source queries still running after {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
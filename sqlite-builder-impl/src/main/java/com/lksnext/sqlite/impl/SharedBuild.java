@@ -0,0 +1,31 @@
+package com.lksnext.sqlite.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import com.lksnext.sqlite.impl.util.CancellationToken;
+
+/**
+ * Build of a database, shared with the requests that need the same database
+ * while it runs. It runs under the cancellation of the request that started
+ * it, so a request waiting for it can tell a build cancelled by its owner from
+ * one that failed, and build the database again instead of failing with it.
+ */
+final class SharedBuild extends FutureTask<BuiltDatabase> {
+
+	private final CancellationToken cancellation;
+
+	SharedBuild(Callable<BuiltDatabase> build, CancellationToken cancellation) {
+		super(build);
+		this.cancellation = cancellation;
+	}
+
+	/**
+	 * @return whether the build was cancelled by the request that started it,
+	 *         while the request with the given cancellation still needs it
+	 */
+	boolean isCancelledFor(CancellationToken waiter) {
+		return cancellation.isCancelled() && !waiter.isCancelled();
+	}
+
+}
@@ -0,0 +1,366 @@
+package com.lksnext.sqlite.impl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lksnext.sqlite.impl.definition.DatabasePlan;
+import com.lksnext.sqlite.impl.definition.TablePlan;
+import com.lksnext.sqlite.impl.util.CancellationToken;
+import com.lksnext.sqlite.impl.util.GenericTable;
+import com.lksnext.sqlite.impl.util.ImportOptions;
+import com.lksnext.sqlite.impl.util.ResultSetImporter;
+import com.lksnext.sqlite.impl.util.SQLitePathUtils;
+import com.lksnext.sqlite.impl.util.SQLiteUtils;
+import com.lksnext.sqlite.impl.util.TableFingerprint;
+
+/**
+ * Imports shared by several databases of a generation run.
+ * <p>
+ * A table import is shared when more than one database of the run would send
+ * the same source query, with the same values for the parameters it uses, into
+ * the same table. Context-independent queries such as country lists are the
+ * usual case. Such imports run once against the source, into a staging SQLite
+ * file of their own, and every database copies the rows from there with
+ * <code>ATTACH</code> and <code>INSERT ... SELECT</code>. The staging files are
+ * deleted when the run is closed.
+ * <p>
+ * A staging import runs with a cancellation of its own, cancelled once every
+ * database waiting for it has been cancelled. A database that needs it
+ * afterwards imports it again.
+ */
+class SharedImports implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SharedImports.class);
+
+	private static final String STAGED_SCHEMA = "staged";
+
+	private static final String STAGING_PREFIX = "staging-";
+
+	private static final String TABLE_SQL = "SELECT sql FROM " + STAGED_SCHEMA
+			+ ".sqlite_master WHERE type = 'table' AND name = ? COLLATE NOCASE";
+
+	private static final long WAIT_POLL_INTERVAL = 100;
+
+	private final DataSource dataSource;
+
+	private final URI tempDir;
+
+	private final ImportOptions options;
+
+	private final Map<String, Integer> uses = new HashMap<String, Integer>();
+
+	private final ConcurrentMap<String, Staging> staged = new ConcurrentHashMap<String, Staging>();
+
+	private final String runId = UUID.randomUUID().toString();
+
+	private final AtomicInteger stagedCount = new AtomicInteger();
+
+	/**
+	 * @param options options of the staging imports, which run with a
+	 *            cancellation token of their own
+	 */
+	SharedImports(DataSource dataSource, URI tempDir, ImportOptions options) {
+		this.dataSource = dataSource;
+		this.tempDir = tempDir;
+		this.options = options;
+	}
+
+	/**
+	 * @return an instance that shares nothing, for runs of a single database
+	 */
+	static SharedImports none() {
+		return new SharedImports(null, null, null);
+	}
+
+	/**
+	 * Registers a database of the run with the context it is built with. Every
+	 * database must be registered once, before the run starts building them.
+	 */
+	void register(DatabasePlan database, Map<String, String> context) {
+		for (TablePlan table : database.getTables()) {
+			if (StringUtils.isNotEmpty(table.getSource())) {
+				String key = key(table, context);
+				Integer count = uses.get(key);
+				uses.put(key, count == null ? 1 : count + 1);
+			}
+		}
+	}
+
+	/**
+	 * @return number of table imports shared by more than one database
+	 */
+	int getSharedCount() {
+		int shared = 0;
+		for (Integer count : uses.values()) {
+			if (count > 1) {
+				shared++;
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * The key of an import: the target table, the source query and the values
+	 * of the context parameters the query uses.
+	 */
+	private static String key(TablePlan table, Map<String, String> context) {
+		StringBuilder key = new StringBuilder(table.getTable()).append('\n').append(table.getSource());
+		if (context != null) {
+			for (String parameter : new TreeSet<String>(table.getSourceQuery().getParameterNames())) {
+				key.append('\n').append(parameter).append('=').append(context.get(parameter));
+			}
+		}
+		return key.toString();
+	}
+
+	boolean isShared(TablePlan table, Map<String, String> context) {
+		if (uses.isEmpty() || StringUtils.isEmpty(table.getSource())) {
+			return false;
+		}
+		Integer count = uses.get(key(table, context));
+		return count != null && count > 1;
+	}
+
+	/**
+	 * Imports the table into its staging file, unless it is already imported
+	 * or being imported by another database, in which case waits for it.
+	 *
+	 * @param cancellation cancellation of the build of the database, checked
+	 *            while waiting
+	 * @return the staging file and the fingerprint of the staged rows
+	 */
+	StagedTable stage(TablePlan table, Map<String, String> context, CancellationToken cancellation)
+			throws SQLException {
+		String key = key(table, context);
+		while (true) {
+			cancellation.throwIfCancelled();
+			Staging staging = new Staging(table, context);
+			Staging existing = staged.putIfAbsent(key, staging);
+			if (existing != null) {
+				staging = existing;
+			}
+			Runnable listener = staging.join(cancellation);
+			if (listener == null) {
+				// Cancelled, as every database waiting for it was
+				staged.remove(key, staging);
+				continue;
+			}
+
+			try {
+				if (existing == null) {
+					staging.task.run();
+				}
+				return staging.await(cancellation);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for the shared import of " + table.getTable(), e);
+			} catch (ExecutionException e) {
+				staged.remove(key, staging);
+				cancellation.throwIfCancelled();
+				if (!staging.cancellation.isCancelled()) {
+					ResultSetImporter.rethrow(e.getCause());
+					return null;
+				}
+				LOG.info("Shared import of {} was cancelled, importing it again", table.getTable());
+			} finally {
+				staging.leave(cancellation, listener);
+			}
+		}
+	}
+
+	private StagedTable importStaged(TablePlan table, Map<String, String> context, ImportOptions options)
+			throws ClassNotFoundException, URISyntaxException, SQLException, IOException {
+		String fileName = STAGING_PREFIX + runId + "-" + stagedCount.incrementAndGet();
+		Path stagingFile = Paths.get(SQLitePathUtils.getTemporalDBPath(tempDir, fileName));
+		LOG.info("Importing shared table {} into {}", table.getTable(), stagingFile.getFileName());
+		GenericTable imported;
+		try (Connection stagingCon = SQLiteUtils.createNewDatabase(tempDir, fileName)) {
+			if (context != null) {
+				imported = SQLiteUtils.importData(dataSource, stagingCon, table.getSourceQuery(), table.getTable(),
+						context, options);
+			} else {
+				imported = SQLiteUtils.importData(dataSource, stagingCon, table.getSource(), table.getTable(),
+						options);
+			}
+		} catch (SQLException | RuntimeException e) {
+			Files.deleteIfExists(stagingFile);
+			throw e;
+		}
+		return new StagedTable(stagingFile, imported.getFingerprint());
+	}
+
+	/**
+	 * Copies the shared table into the database, importing it first if no
+	 * other database did. The pending work of the connection is committed,
+	 * since SQLite only attaches databases outside of a transaction.
+	 *
+	 * @return fingerprint of the copied rows, <code>null</code> if there were
+	 *         none
+	 */
+	TableFingerprint copy(Connection sqliteCon, TablePlan table, Map<String, String> context,
+			CancellationToken cancellation) throws SQLException {
+		StagedTable stagedTable = stage(table, context, cancellation);
+		Path stagingFile = stagedTable.file;
+		String tableName = table.getTable();
+
+		sqliteCon.commit();
+		sqliteCon.setAutoCommit(true);
+		try (Statement stmt = sqliteCon.createStatement()) {
+			stmt.execute("ATTACH DATABASE '" + stagingFile.toString().replace("'", "''") + "' AS " + STAGED_SCHEMA);
+			try {
+				String createTableSQL = stagedTableSQL(sqliteCon, tableName);
+				if (createTableSQL == null) {
+					LOG.debug("Shared table {} is empty", tableName);
+				} else {
+					sqliteCon.setAutoCommit(false);
+					stmt.execute(createTableSQL);
+					int rows = stmt.executeUpdate("INSERT INTO main." + quote(tableName) + " SELECT * FROM "
+							+ STAGED_SCHEMA + "." + quote(tableName));
+					sqliteCon.commit();
+					LOG.info("Copied {} rows of shared table {}", rows, tableName);
+				}
+			} finally {
+				sqliteCon.setAutoCommit(true);
+				stmt.execute("DETACH DATABASE " + STAGED_SCHEMA);
+			}
+		} finally {
+			sqliteCon.setAutoCommit(false);
+		}
+		return stagedTable.fingerprint;
+	}
+
+	private static String stagedTableSQL(Connection sqliteCon, String tableName) throws SQLException {
+		try (PreparedStatement stmt = sqliteCon.prepareStatement(TABLE_SQL)) {
+			stmt.setString(1, tableName);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next() ? rs.getString(1) : null;
+			}
+		}
+	}
+
+	private static String quote(String name) {
+		return '"' + name.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Deletes the staging files of the run.
+	 */
+	@Override
+	public void close() {
+		for (Staging staging : staged.values()) {
+			if (!staging.task.isDone()) {
+				continue;
+			}
+			try {
+				Files.deleteIfExists(staging.task.get().file);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException | IOException e) {
+				LOG.debug("Unable to delete staging file", e);
+			}
+		}
+		staged.clear();
+	}
+
+	/**
+	 * Staging import of a table, and the cancellations of the databases
+	 * waiting for it.
+	 */
+	private final class Staging {
+
+		private final String table;
+		private final CancellationToken cancellation = new CancellationToken();
+		private final FutureTask<StagedTable> task;
+		private final List<CancellationToken> waiting = new ArrayList<CancellationToken>();
+
+		private Staging(TablePlan table, Map<String, String> context) {
+			this.table = table.getTable();
+			this.task = new FutureTask<StagedTable>(
+					() -> importStaged(table, context, options.withCancellation(cancellation)));
+		}
+
+		/**
+		 * @return the listener of the cancellation of the database, to leave
+		 *         with, or <code>null</code> if the import was cancelled
+		 */
+		private synchronized Runnable join(CancellationToken database) {
+			if (cancellation.isCancelled()) {
+				return null;
+			}
+			waiting.add(database);
+			Runnable listener = () -> waitingCancelled();
+			database.addListener(listener);
+			return listener;
+		}
+
+		private synchronized void leave(CancellationToken database, Runnable listener) {
+			database.removeListener(listener);
+			waiting.remove(database);
+		}
+
+		private synchronized void waitingCancelled() {
+			if (task.isDone() || cancellation.isCancelled()) {
+				return;
+			}
+			for (CancellationToken database : waiting) {
+				if (!database.isCancelled()) {
+					return;
+				}
+			}
+			LOG.info("Cancelling the shared import of {}, no database waits for it", table);
+			cancellation.cancel();
+		}
+
+		/**
+		 * Waits for the import, checking the cancellation of the database.
+		 */
+		private StagedTable await(CancellationToken database) throws InterruptedException, ExecutionException {
+			while (true) {
+				try {
+					return task.get(WAIT_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					database.throwIfCancelled();
+				}
+			}
+		}
+	}
+
+	static final class StagedTable {
+
+		private final Path file;
+		private final TableFingerprint fingerprint;
+
+		private StagedTable(Path file, TableFingerprint fingerprint) {
+			this.file = file;
+			this.fingerprint = fingerprint;
+		}
+	}
+}
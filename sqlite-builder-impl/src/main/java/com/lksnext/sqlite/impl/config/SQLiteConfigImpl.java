@@ -9,6 +9,8 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import com.lksnext.sqlite.config.SQLitePropertyConfig;
+import com.lksnext.sqlite.impl.metadata.MetadataStore;
+import com.lksnext.sqlite.impl.metrics.MetricsRegistry;
 
 @Component
 @ConfigurationProperties(prefix = "sqlite.builder.location")
@@ -32,6 +34,44 @@ public class SQLiteConfigImpl implements SQLitePropertyConfig {
 
     private boolean symLinkDisabled;
 
+    private int generatorThreads = 1;
+
+    private int insertBatchSize = 1000;
+
+    private boolean pipelinedImport;
+
+    private int pipelineQueueSize = 4;
+
+    private boolean bulkLoad;
+
+    private String digestAlgorithm = "md5";
+
+    private int digestThreads = 2;
+
+    private int patchWindowSize = 4 * 1024 * 1024;
+
+    private int patchDictionaryMargin = 4 * 1024 * 1024;
+
+    private int patchThreads = 2;
+
+    private long patchTimeBudget;
+
+    private long patchCacheMaxBytes;
+
+    private int zipLevel = 6;
+
+    private int zipThreads = 2;
+
+    private int patchCompressionThreads = 1;
+
+    private long metadataCheckInterval = 1000;
+
+    private MetadataStore metadataStore = MetadataStore.JSON;
+
+    private MetricsRegistry metricsRegistry = MetricsRegistry.MEMORY;
+
+    private long lockTimeout = 60000;
+
     public void setDatabasePath(String path) {
         this.databasePath = path;
     }
@@ -101,4 +141,182 @@ public class SQLiteConfigImpl implements SQLitePropertyConfig {
 	public void setSymLinkDisabled(boolean symLinkDisabled) {
 		this.symLinkDisabled = symLinkDisabled;
 	}
+
+	@Override
+	public int getGeneratorThreads() {
+		return generatorThreads;
+	}
+
+	public void setGeneratorThreads(int generatorThreads) {
+		this.generatorThreads = generatorThreads;
+	}
+
+	@Override
+	public int getInsertBatchSize() {
+		return insertBatchSize;
+	}
+
+	public void setInsertBatchSize(int insertBatchSize) {
+		this.insertBatchSize = insertBatchSize;
+	}
+
+	@Override
+	public boolean isPipelinedImport() {
+		return pipelinedImport;
+	}
+
+	public void setPipelinedImport(boolean pipelinedImport) {
+		this.pipelinedImport = pipelinedImport;
+	}
+
+	@Override
+	public int getPipelineQueueSize() {
+		return pipelineQueueSize;
+	}
+
+	public void setPipelineQueueSize(int pipelineQueueSize) {
+		this.pipelineQueueSize = pipelineQueueSize;
+	}
+
+	@Override
+	public boolean isBulkLoad() {
+		return bulkLoad;
+	}
+
+	public void setBulkLoad(boolean bulkLoad) {
+		this.bulkLoad = bulkLoad;
+	}
+
+	@Override
+	public String getDigestAlgorithm() {
+		return digestAlgorithm;
+	}
+
+	public void setDigestAlgorithm(String digestAlgorithm) {
+		this.digestAlgorithm = digestAlgorithm;
+	}
+
+	@Override
+	public int getDigestThreads() {
+		return digestThreads;
+	}
+
+	public void setDigestThreads(int digestThreads) {
+		this.digestThreads = digestThreads;
+	}
+
+	@Override
+	public int getPatchWindowSize() {
+		return patchWindowSize;
+	}
+
+	public void setPatchWindowSize(int patchWindowSize) {
+		this.patchWindowSize = patchWindowSize;
+	}
+
+	@Override
+	public int getPatchDictionaryMargin() {
+		return patchDictionaryMargin;
+	}
+
+	public void setPatchDictionaryMargin(int patchDictionaryMargin) {
+		this.patchDictionaryMargin = patchDictionaryMargin;
+	}
+
+	@Override
+	public int getPatchThreads() {
+		return patchThreads;
+	}
+
+	public void setPatchThreads(int patchThreads) {
+		this.patchThreads = patchThreads;
+	}
+
+	@Override
+	public long getPatchTimeBudget() {
+		return patchTimeBudget;
+	}
+
+	public void setPatchTimeBudget(long patchTimeBudget) {
+		this.patchTimeBudget = patchTimeBudget;
+	}
+
+	@Override
+	public long getPatchCacheMaxBytes() {
+		return patchCacheMaxBytes;
+	}
+
+	public void setPatchCacheMaxBytes(long patchCacheMaxBytes) {
+		this.patchCacheMaxBytes = patchCacheMaxBytes;
+	}
+
+	@Override
+	public int getZipLevel() {
+		return zipLevel;
+	}
+
+	public void setZipLevel(int zipLevel) {
+		this.zipLevel = zipLevel;
+	}
+
+	@Override
+	public int getZipThreads() {
+		return zipThreads;
+	}
+
+	public void setZipThreads(int zipThreads) {
+		this.zipThreads = zipThreads;
+	}
+
+	@Override
+	public int getPatchCompressionThreads() {
+		return patchCompressionThreads;
+	}
+
+	public void setPatchCompressionThreads(int patchCompressionThreads) {
+		this.patchCompressionThreads = patchCompressionThreads;
+	}
+
+	@Override
+	public long getMetadataCheckInterval() {
+		return metadataCheckInterval;
+	}
+
+	public void setMetadataCheckInterval(long metadataCheckInterval) {
+		this.metadataCheckInterval = metadataCheckInterval;
+	}
+
+	/**
+	 * Read by {@link com.lksnext.sqlite.impl.metadata.ConditionalOnMetadataStore}
+	 * while the beans are registered; kept here to be bound and documented
+	 * along with the rest of the configuration.
+	 */
+	public MetadataStore getMetadataStore() {
+		return metadataStore;
+	}
+
+	public void setMetadataStore(MetadataStore metadataStore) {
+		this.metadataStore = metadataStore;
+	}
+
+	/**
+	 * Read by {@link com.lksnext.sqlite.impl.metrics.ConditionalOnMetricsRegistry}
+	 * while the beans are registered, like {@link #getMetadataStore()}.
+	 */
+	public MetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	@Override
+	public long getLockTimeout() {
+		return lockTimeout;
+	}
+
+	public void setLockTimeout(long lockTimeout) {
+		this.lockTimeout = lockTimeout;
+	}
 }
@@ -8,8 +8,14 @@ public class DatabaseDefinition {
 	private String database;
 	private String type;
 	private String _extends;
+	private String extendsMode;
+	private List<String> inherit;
 	private String description;
 	private Integer version;
+	private Integer parallelTables;
+	private boolean analyze;
+	private String patchFormat;
+	private String patchCompression;
 	private List<SchemaElement> schema;
 	
 	
@@ -50,11 +56,46 @@ public class DatabaseDefinition {
 	public void setExtends(String _extends) {
 		this._extends = _extends;
 	}
+	public String getExtendsMode() {
+		return extendsMode;
+	}
+	public void setExtendsMode(String extendsMode) {
+		this.extendsMode = extendsMode;
+	}
+	public List<String> getInherit() {
+		return inherit;
+	}
+	public void setInherit(List<String> inherit) {
+		this.inherit = inherit;
+	}
 	public Integer getVersion() {
 		return version;
 	}
 	public void setVersion(Integer version) {
 		this.version = version;
 	}
-
+	public Integer getParallelTables() {
+		return parallelTables;
+	}
+	public void setParallelTables(Integer parallelTables) {
+		this.parallelTables = parallelTables;
+	}
+	public boolean isAnalyze() {
+		return analyze;
+	}
+	public void setAnalyze(boolean analyze) {
+		this.analyze = analyze;
+	}
+	public String getPatchFormat() {
+		return patchFormat;
+	}
+	public void setPatchFormat(String patchFormat) {
+		this.patchFormat = patchFormat;
+	}
+	public String getPatchCompression() {
+		return patchCompression;
+	}
+	public void setPatchCompression(String patchCompression) {
+		this.patchCompression = patchCompression;
+	}
 }
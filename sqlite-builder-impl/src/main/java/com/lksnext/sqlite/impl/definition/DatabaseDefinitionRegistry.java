@@ -0,0 +1,114 @@
+package com.lksnext.sqlite.impl.definition;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+/**
+ * Loads the database definitions from the classpath and keeps them compiled
+ * as {@link DatabasePlan}s. A definition is parsed the first time it is used
+ * and again only when its resource file is modified.
+ */
+@Component
+public class DatabaseDefinitionRegistry {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DatabaseDefinitionRegistry.class);
+
+	private static final String YML_EXT = ".yml";
+	private static final String YAML_EXT = ".yaml";
+	private static final String FILE_PROTOCOL = "file";
+
+	private final ConcurrentMap<String, CompiledDefinition> definitions = new ConcurrentHashMap<String, CompiledDefinition>();
+
+	public DatabasePlan getDatabasePlan(String definition) {
+		CompiledDefinition compiled = definitions.get(definition);
+		if (compiled != null && compiled.isCurrent()) {
+			return compiled.plan;
+		}
+		return definitions.compute(definition, (name, current) -> {
+			if (current != null && current.isCurrent()) {
+				return current;
+			}
+			URL resource = current != null ? current.resource : findResource(name);
+			return compile(name, resource);
+		}).plan;
+	}
+
+	/**
+	 * Forgets every compiled definition, so they are loaded again on next use.
+	 */
+	public void clear() {
+		definitions.clear();
+	}
+
+	private URL findResource(String definition) {
+		ClassLoader classLoader = this.getClass().getClassLoader();
+		URL resource = classLoader.getResource(definition + YML_EXT);
+		if (resource == null) {
+			resource = classLoader.getResource(definition + YAML_EXT);
+		}
+		if (resource == null) {
+			throw new IllegalArgumentException("Database definition " + definition + " not found");
+		}
+		return resource;
+	}
+
+	private CompiledDefinition compile(String definition, URL resource) {
+		long lastModified = lastModified(resource);
+		LOG.info("Loading database definition {} from {}", definition, resource);
+		Yaml yaml = new Yaml(new Constructor(DatabaseDefinition.class));
+		try (InputStream inputStream = resource.openStream()) {
+			byte[] content = IOUtils.toByteArray(inputStream);
+			DatabaseDefinition database = yaml.load(new ByteArrayInputStream(content));
+			return new CompiledDefinition(resource, lastModified,
+					new DatabasePlan(definition, database, DigestUtils.md5Hex(content)));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read database definition " + definition, e);
+		}
+	}
+
+	/**
+	 * Resources packaged inside a jar cannot change while the application runs,
+	 * so only the ones in the file system are checked for modifications.
+	 */
+	private static long lastModified(URL resource) {
+		if (!FILE_PROTOCOL.equals(resource.getProtocol())) {
+			return 0L;
+		}
+		try {
+			return new File(resource.toURI()).lastModified();
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return 0L;
+		}
+	}
+
+	private static final class CompiledDefinition {
+
+		private final URL resource;
+		private final long lastModified;
+		private final DatabasePlan plan;
+
+		private CompiledDefinition(URL resource, long lastModified, DatabasePlan plan) {
+			this.resource = resource;
+			this.lastModified = lastModified;
+			this.plan = plan;
+		}
+
+		private boolean isCurrent() {
+			return lastModified(resource) == lastModified;
+		}
+	}
+}
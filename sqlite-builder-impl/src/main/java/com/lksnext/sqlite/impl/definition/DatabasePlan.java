@@ -0,0 +1,184 @@
+package com.lksnext.sqlite.impl.definition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.lksnext.sqlite.PatchCompression;
+import com.lksnext.sqlite.PatchFormat;
+
+/**
+ * Immutable, compiled form of a {@link DatabaseDefinition}: the database name
+ * template is tokenized and the SQL of every table is parsed once, so the plan
+ * can be shared by every context and thread of a generation.
+ */
+public final class DatabasePlan {
+
+	private final String definition;
+	private final List<String> context;
+	private final NameTemplate database;
+	private final String type;
+	private final String _extends;
+	private final ExtendsMode extendsMode;
+	private final List<String> inherit;
+	private final String description;
+	private final Integer version;
+	private final int parallelTables;
+	private final boolean analyze;
+	private final PatchFormat patchFormat;
+	private final PatchCompression patchCompression;
+	private final List<TablePlan> tables;
+	private final String checksum;
+
+	DatabasePlan(String definition, DatabaseDefinition database, String checksum) {
+		this.definition = definition;
+		this.checksum = checksum;
+		this.context = database.getContext() != null
+				? Collections.unmodifiableList(new ArrayList<String>(database.getContext()))
+				: Collections.<String>emptyList();
+		this.database = NameTemplate.parse(database.getDatabase());
+		this.type = database.getType();
+		this._extends = database.getExtends();
+		this.extendsMode = ExtendsMode.parse(database.getExtendsMode());
+		this.inherit = database.getInherit() != null
+				? Collections.unmodifiableList(new ArrayList<String>(database.getInherit()))
+				: null;
+		if (inherit != null && extendsMode != ExtendsMode.ATTACH) {
+			throw new IllegalArgumentException("Database " + database.getDatabase()
+					+ " lists inherited tables, which requires extendsMode: attach");
+		}
+		this.description = database.getDescription();
+		this.version = database.getVersion();
+		this.parallelTables = database.getParallelTables() != null ? database.getParallelTables().intValue() : 1;
+		this.analyze = database.isAnalyze();
+		this.patchFormat = patchFormat(database.getPatchFormat());
+		this.patchCompression = patchCompression(database.getPatchCompression());
+
+		List<TablePlan> tables = new ArrayList<TablePlan>();
+		if (database.getSchema() != null) {
+			for (SchemaElement element : database.getSchema()) {
+				tables.add(new TablePlan(element));
+			}
+		}
+		this.tables = Collections.unmodifiableList(tables);
+	}
+
+	public String getDefinition() {
+		return definition;
+	}
+
+	/**
+	 * @return checksum of the definition file the plan was compiled from
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	public List<String> getContext() {
+		return context;
+	}
+
+	/**
+	 * @return the database name template as written in the definition
+	 */
+	public String getDatabase() {
+		return database.getTemplate();
+	}
+
+	public String getDatabaseName(Map<String, String> context) {
+		return database.render(context);
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getExtends() {
+		return _extends;
+	}
+
+	public ExtendsMode getExtendsMode() {
+		return extendsMode;
+	}
+
+	/**
+	 * @return tables copied from the extended database in
+	 *         {@link ExtendsMode#ATTACH} mode, <code>null</code> to copy all of
+	 *         them
+	 */
+	public List<String> getInherit() {
+		return inherit;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public Integer getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return maximum number of source queries of the tables run concurrently
+	 */
+	public int getParallelTables() {
+		return parallelTables;
+	}
+
+	/**
+	 * @return whether <code>ANALYZE</code> is run after the indexes are built,
+	 *         so the statistics in <code>sqlite_stat1</code> ship with the
+	 *         database
+	 */
+	public boolean isAnalyze() {
+		return analyze;
+	}
+
+	/**
+	 * @return format of the patches between versions of the database,
+	 *         {@link PatchFormat#VCDIFF} unless set
+	 */
+	public PatchFormat getPatchFormat() {
+		return patchFormat;
+	}
+
+	/**
+	 * @return compressed artifacts written for the patches between versions of
+	 *         the database, {@link PatchCompression#NONE} unless set
+	 */
+	public PatchCompression getPatchCompression() {
+		return patchCompression;
+	}
+
+	public List<TablePlan> getTables() {
+		return tables;
+	}
+
+	private static PatchFormat patchFormat(String format) {
+		if (StringUtils.isBlank(format)) {
+			return PatchFormat.VCDIFF;
+		}
+		try {
+			return PatchFormat.valueOf(format.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown patch format '" + format + "', expected vcdiff or pages", e);
+		}
+	}
+
+	private static PatchCompression patchCompression(String compression) {
+		if (StringUtils.isBlank(compression)) {
+			return PatchCompression.NONE;
+		}
+		try {
+			return PatchCompression.valueOf(compression.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(
+					"Unknown patch compression '" + compression + "', expected none, gzip or gzip_only", e);
+		}
+	}
+
+}
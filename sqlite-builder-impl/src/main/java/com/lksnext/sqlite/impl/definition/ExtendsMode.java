@@ -0,0 +1,33 @@
+package com.lksnext.sqlite.impl.definition;
+
+import java.util.Locale;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * How a database is created from the database it extends.
+ */
+public enum ExtendsMode {
+
+	/**
+	 * The file of the extended database is cloned as a whole. The default.
+	 */
+	COPY,
+
+	/**
+	 * A new database is created, the extended one is attached read-only and
+	 * only the inherited tables are copied, with their indexes.
+	 */
+	ATTACH;
+
+	static ExtendsMode parse(String mode) {
+		if (StringUtils.isBlank(mode)) {
+			return COPY;
+		}
+		try {
+			return valueOf(mode.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown extends mode '" + mode + "', expected copy or attach", e);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.lksnext.sqlite.impl.definition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Immutable, compiled form of an {@link IndexDefinition}. Indexes without a
+ * name are named after their table and columns.
+ */
+public final class IndexPlan {
+
+	private static final String INDEX_PREFIX = "idx_";
+
+	private final String name;
+	private final String table;
+	private final List<String> columns;
+	private final boolean unique;
+
+	IndexPlan(String table, IndexDefinition index) {
+		if (index.getColumns() == null || index.getColumns().isEmpty()) {
+			throw new IllegalArgumentException("Index on table " + table + " has no columns");
+		}
+		this.table = table;
+		this.columns = Collections.unmodifiableList(new ArrayList<String>(index.getColumns()));
+		this.name = StringUtils.isNotEmpty(index.getName()) ? index.getName()
+				: INDEX_PREFIX + table + "_" + StringUtils.join(columns, "_");
+		this.unique = index.isUnique();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	public boolean isUnique() {
+		return unique;
+	}
+
+}
@@ -0,0 +1,110 @@
+package com.lksnext.sqlite.impl.definition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A <code>${variable}</code> template split into literal and variable tokens
+ * once, so rendering it for a context is a single pass over the tokens. It
+ * follows the rules of <code>StrSubstitutor</code> for the templates used in
+ * the definitions: unknown variables are kept as they are and
+ * <code>$${variable}</code> escapes the variable. Values are not substituted
+ * recursively.
+ */
+public final class NameTemplate {
+
+	private static final String PREFIX = "${";
+	private static final String SUFFIX = "}";
+	private static final char ESCAPE = '$';
+
+	private final String template;
+
+	private final List<String> literals;
+
+	private final List<String> variables;
+
+	private final int literalLength;
+
+	private NameTemplate(String template, List<String> literals, List<String> variables) {
+		this.template = template;
+		this.literals = Collections.unmodifiableList(literals);
+		this.variables = Collections.unmodifiableList(variables);
+		int length = 0;
+		for (String literal : literals) {
+			length += literal.length();
+		}
+		this.literalLength = length;
+	}
+
+	public static NameTemplate parse(String template) {
+		List<String> literals = new ArrayList<String>();
+		List<String> variables = new ArrayList<String>();
+		if (template == null) {
+			return new NameTemplate(null, literals, variables);
+		}
+
+		StringBuilder literal = new StringBuilder();
+		int pos = 0;
+		while (pos < template.length()) {
+			int start = template.indexOf(PREFIX, pos);
+			if (start < 0) {
+				literal.append(template, pos, template.length());
+				break;
+			}
+			if (start > 0 && template.charAt(start - 1) == ESCAPE) {
+				literal.append(template, pos, start - 1).append(PREFIX);
+				pos = start + PREFIX.length();
+				continue;
+			}
+			int end = template.indexOf(SUFFIX, start + PREFIX.length());
+			if (end < 0) {
+				literal.append(template, pos, template.length());
+				break;
+			}
+			literal.append(template, pos, start);
+			literals.add(literal.toString());
+			literal.setLength(0);
+			variables.add(template.substring(start + PREFIX.length(), end));
+			pos = end + SUFFIX.length();
+		}
+		literals.add(literal.toString());
+		return new NameTemplate(template, literals, variables);
+	}
+
+	public String render(Map<String, String> context) {
+		if (template == null) {
+			return null;
+		}
+		if (variables.isEmpty()) {
+			return literals.get(0);
+		}
+		StringBuilder rendered = new StringBuilder(literalLength + variables.size() * 16);
+		for (int i = 0; i < variables.size(); i++) {
+			rendered.append(literals.get(i));
+			String variable = variables.get(i);
+			String value = context != null ? context.get(variable) : null;
+			if (value != null) {
+				rendered.append(value);
+			} else {
+				rendered.append(PREFIX).append(variable).append(SUFFIX);
+			}
+		}
+		rendered.append(literals.get(variables.size()));
+		return rendered.toString();
+	}
+
+	public List<String> getVariables() {
+		return variables;
+	}
+
+	public String getTemplate() {
+		return template;
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+}
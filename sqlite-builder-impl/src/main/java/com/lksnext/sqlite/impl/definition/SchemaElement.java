@@ -1,9 +1,13 @@
 package com.lksnext.sqlite.impl.definition;
 
+import java.util.List;
+
 public class SchemaElement {
 	private String table;
 	private String source;
 	private String cleanup;
+	private List<String> dependsOn;
+	private List<IndexDefinition> indexes;
 
 	public String getTable() {
 		return table;
@@ -29,4 +33,20 @@ public class SchemaElement {
 		this.cleanup = cleanup;
 	}
 
+	public List<String> getDependsOn() {
+		return dependsOn;
+	}
+
+	public void setDependsOn(List<String> dependsOn) {
+		this.dependsOn = dependsOn;
+	}
+
+	public List<IndexDefinition> getIndexes() {
+		return indexes;
+	}
+
+	public void setIndexes(List<IndexDefinition> indexes) {
+		this.indexes = indexes;
+	}
+
 }
@@ -0,0 +1,104 @@
+package com.lksnext.sqlite.impl.definition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.lksnext.sqlite.impl.util.NamedQuery;
+
+/**
+ * Immutable, compiled form of a {@link SchemaElement}.
+ */
+public final class TablePlan {
+
+	private static final Pattern CLEANUP_TARGET = Pattern.compile(
+			"^\\s*(?:UPDATE(?:\\s+OR\\s+\\w+)?|DELETE\\s+FROM|(?:INSERT(?:\\s+OR\\s+\\w+)?|REPLACE)\\s+INTO)"
+					+ "\\s+[\"`\\[]?(\\w+)[\"`\\]]?(?:\\s|\\(|$)",
+			Pattern.CASE_INSENSITIVE);
+
+	private final String table;
+	private final String source;
+	private final NamedQuery sourceQuery;
+	private final String cleanup;
+	private final NamedQuery cleanupQuery;
+	private final String cleanupTarget;
+	private final List<String> dependsOn;
+	private final List<IndexPlan> indexes;
+
+	TablePlan(SchemaElement element) {
+		this.table = element.getTable();
+		this.source = element.getSource();
+		this.sourceQuery = StringUtils.isNotEmpty(source) ? NamedQuery.parse(source) : null;
+		this.cleanup = element.getCleanup();
+		this.cleanupQuery = StringUtils.isNotEmpty(cleanup) ? NamedQuery.parse(cleanup) : null;
+		this.cleanupTarget = cleanupTarget(cleanup);
+		this.dependsOn = element.getDependsOn() != null
+				? Collections.unmodifiableList(new ArrayList<String>(element.getDependsOn()))
+				: Collections.<String>emptyList();
+
+		List<IndexPlan> indexes = new ArrayList<IndexPlan>();
+		if (element.getIndexes() != null) {
+			for (IndexDefinition index : element.getIndexes()) {
+				indexes.add(new IndexPlan(table, index));
+			}
+		}
+		this.indexes = Collections.unmodifiableList(indexes);
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public NamedQuery getSourceQuery() {
+		return sourceQuery;
+	}
+
+	public String getCleanup() {
+		return cleanup;
+	}
+
+	public NamedQuery getCleanupQuery() {
+		return cleanupQuery;
+	}
+
+	/**
+	 * @return the table changed by the cleanup statement, or <code>null</code>
+	 *         when there is no cleanup or its target cannot be told from the
+	 *         statement
+	 */
+	public String getCleanupTarget() {
+		return cleanupTarget;
+	}
+
+	private static String cleanupTarget(String cleanup) {
+		if (StringUtils.isEmpty(cleanup)) {
+			return null;
+		}
+		Matcher matcher = CLEANUP_TARGET.matcher(cleanup);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
+	/**
+	 * @return the tables that must be imported and cleaned before this one when
+	 *         the tables are imported concurrently
+	 */
+	public List<String> getDependsOn() {
+		return dependsOn;
+	}
+
+	/**
+	 * @return the indexes built on the table once every table is imported
+	 */
+	public List<IndexPlan> getIndexes() {
+		return indexes;
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.lksnext.sqlite.impl.digest;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.lksnext.sqlite.config.SQLitePropertyConfig;
+import com.lksnext.sqlite.digest.FileDigester;
+
+/**
+ * Available {@link FileDigester}s by algorithm name.
+ * <p>
+ * Built-in algorithms are <code>md5</code>, <code>sha-1</code>,
+ * <code>sha-256</code> and <code>murmur3-128</code>, plus their parallel tree
+ * variants <code>md5-tree</code>, <code>sha-1-tree</code>,
+ * <code>sha-256-tree</code> and <code>murmur3-128-tree</code>.
+ * <code>murmur3-128</code> is not cryptographic and is the fastest. Tree
+ * digests read their chunks on a pool of <code>digestThreads</code> threads.
+ * Digester beans take precedence over the built-in ones with the same name.
+ * Metadata written before digests were pluggable has no algorithm, and is
+ * read as <code>md5</code>.
+ */
+@Component
+public class FileDigesterRegistry implements DisposableBean {
+
+	public static final String MD5 = "md5";
+
+	private static final String TREE_SUFFIX = "-tree";
+
+	@Autowired
+	private SQLitePropertyConfig sqliteConfig;
+
+	@Autowired(required = false)
+	private List<FileDigester> customDigesters;
+
+	private final Map<String, FileDigester> digesters = new LinkedHashMap<String, FileDigester>();
+
+	private ExecutorService digestExecutor;
+
+	public FileDigesterRegistry() {
+		register(MD5, "MD5");
+		register("sha-1", "SHA-1");
+		register("sha-256", "SHA-256");
+		register("murmur3-128", Murmur3MessageDigest.ALGORITHM);
+	}
+
+	/**
+	 * Registry of the built-in digesters for use outside of a Spring context.
+	 */
+	public FileDigesterRegistry(SQLitePropertyConfig sqliteConfig) {
+		this();
+		this.sqliteConfig = sqliteConfig;
+	}
+
+	private void register(String algorithm, String messageDigest) {
+		digesters.put(algorithm, new StreamingFileDigester(algorithm, messageDigest));
+		digesters.put(algorithm + TREE_SUFFIX, new TreeFileDigester(algorithm + TREE_SUFFIX, messageDigest,
+				TreeFileDigester.DEFAULT_CHUNK_SIZE, command -> digestExecutor().execute(command)));
+	}
+
+	private synchronized ExecutorService digestExecutor() {
+		if (digestExecutor == null) {
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("sqlite-digest-");
+			threadFactory.setDaemon(true);
+			digestExecutor = Executors.newFixedThreadPool(Math.max(1, sqliteConfig.getDigestThreads()),
+					threadFactory);
+		}
+		return digestExecutor;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (digestExecutor != null) {
+			digestExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the digester configured for new databases
+	 */
+	public FileDigester getDefault() {
+		return get(sqliteConfig.getDigestAlgorithm());
+	}
+
+	/**
+	 * @param algorithm
+	 *            the algorithm name, <code>null</code> for <code>md5</code>
+	 * @throws IllegalArgumentException
+	 *             if there is no digester for the algorithm
+	 */
+	public FileDigester get(String algorithm) {
+		String name = StringUtils.isEmpty(algorithm) ? MD5 : algorithm.toLowerCase(Locale.ROOT);
+		if (customDigesters != null) {
+			for (FileDigester digester : customDigesters) {
+				if (name.equalsIgnoreCase(digester.getAlgorithm())) {
+					return digester;
+				}
+			}
+		}
+		FileDigester digester = digesters.get(name);
+		if (digester == null) {
+			throw new IllegalArgumentException("No digester for algorithm " + algorithm);
+		}
+		return digester;
+	}
+
+	/**
+	 * @return whether both names refer to the same algorithm, taking
+	 *         <code>null</code> as <code>md5</code>
+	 */
+	public static boolean isSameAlgorithm(String algorithm, String other) {
+		String name = StringUtils.isEmpty(algorithm) ? MD5 : algorithm;
+		String otherName = StringUtils.isEmpty(other) ? MD5 : other;
+		return name.equalsIgnoreCase(otherName);
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.lksnext.sqlite.impl.digest;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * 128-bit MurmurHash3 (x64 variant, seed 0) as a {@link MessageDigest}, so it
+ * can be used wherever a JDK digest is. The digest is <code>h1</code> followed
+ * by <code>h2</code>, little-endian, the same bytes Guava's
+ * <code>murmur3_128</code> returns.
+ * <p>
+ * It is not a cryptographic hash, but it detects accidental changes as well
+ * as MD5 does and runs several times faster, which is what naming database
+ * versions needs.
+ */
+final class Murmur3MessageDigest extends MessageDigest {
+
+	static final String ALGORITHM = "MurmurHash3-128";
+
+	private static final int BLOCK_SIZE = 16;
+
+	private static final long C1 = 0x87c37b91114253d5L;
+
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private final byte[] tail = new byte[BLOCK_SIZE];
+
+	private int tailLength;
+
+	private long length;
+
+	private long h1;
+
+	private long h2;
+
+	Murmur3MessageDigest() {
+		super(ALGORITHM);
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return BLOCK_SIZE;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		tail[tailLength++] = input;
+		length++;
+		if (tailLength == BLOCK_SIZE) {
+			block(tail, 0);
+			tailLength = 0;
+		}
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		length += len;
+		if (tailLength > 0) {
+			int copied = Math.min(BLOCK_SIZE - tailLength, len);
+			System.arraycopy(input, offset, tail, tailLength, copied);
+			tailLength += copied;
+			offset += copied;
+			len -= copied;
+			if (tailLength < BLOCK_SIZE) {
+				return;
+			}
+			block(tail, 0);
+			tailLength = 0;
+		}
+		if (len >= BLOCK_SIZE) {
+			// Little-endian reads of a byte buffer are intrinsics, unlike shifting bytes
+			ByteBuffer blocks = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+			while (len >= BLOCK_SIZE) {
+				block(blocks.getLong(offset), blocks.getLong(offset + 8));
+				offset += BLOCK_SIZE;
+				len -= BLOCK_SIZE;
+			}
+		}
+		System.arraycopy(input, offset, tail, 0, len);
+		tailLength = len;
+	}
+
+	private void block(byte[] input, int offset) {
+		block(getLong(input, offset), getLong(input, offset + 8));
+	}
+
+	private void block(long k1, long k2) {
+		h1 ^= mixK1(k1);
+		h1 = Long.rotateLeft(h1, 27);
+		h1 += h2;
+		h1 = h1 * 5 + 0x52dce729;
+
+		h2 ^= mixK2(k2);
+		h2 = Long.rotateLeft(h2, 31);
+		h2 += h1;
+		h2 = h2 * 5 + 0x38495ab5;
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		long k1 = 0;
+		long k2 = 0;
+		for (int i = tailLength - 1; i >= 8; i--) {
+			k2 ^= (tail[i] & 0xffL) << ((i - 8) * 8);
+		}
+		for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+			k1 ^= (tail[i] & 0xffL) << (i * 8);
+		}
+		long r1 = h1 ^ mixK1(k1);
+		long r2 = h2 ^ mixK2(k2);
+
+		r1 ^= length;
+		r2 ^= length;
+		r1 += r2;
+		r2 += r1;
+		r1 = fmix64(r1);
+		r2 = fmix64(r2);
+		r1 += r2;
+		r2 += r1;
+
+		byte[] digest = new byte[BLOCK_SIZE];
+		putLong(digest, 0, r1);
+		putLong(digest, 8, r2);
+		engineReset();
+		return digest;
+	}
+
+	@Override
+	protected void engineReset() {
+		tailLength = 0;
+		length = 0;
+		h1 = 0;
+		h2 = 0;
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		return k1 * C2;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		return k2 * C1;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static long getLong(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xffL) | (bytes[offset + 1] & 0xffL) << 8 | (bytes[offset + 2] & 0xffL) << 16
+				| (bytes[offset + 3] & 0xffL) << 24 | (bytes[offset + 4] & 0xffL) << 32
+				| (bytes[offset + 5] & 0xffL) << 40 | (bytes[offset + 6] & 0xffL) << 48
+				| (bytes[offset + 7] & 0xffL) << 56;
+	}
+
+	private static void putLong(byte[] bytes, int offset, long value) {
+		for (int i = 0; i < 8; i++) {
+			bytes[offset + i] = (byte) (value >>> (i * 8));
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.lksnext.sqlite.impl.digest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.lksnext.sqlite.digest.FileDigester;
+
+/**
+ * Digests the whole file with a {@link MessageDigest}, reading it through a
+ * {@link FileChannel} in large blocks.
+ */
+public class StreamingFileDigester implements FileDigester {
+
+	static final int BLOCK_SIZE = 1024 * 1024;
+
+	private final String algorithm;
+
+	private final String messageDigest;
+
+	public StreamingFileDigester(String algorithm, String messageDigest) {
+		this.algorithm = algorithm;
+		this.messageDigest = messageDigest;
+		newMessageDigest(messageDigest);
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	@Override
+	public String digest(URI file) throws IOException {
+		MessageDigest digest = newMessageDigest(messageDigest);
+		ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	static MessageDigest newMessageDigest(String messageDigest) {
+		if (Murmur3MessageDigest.ALGORITHM.equalsIgnoreCase(messageDigest)) {
+			return new Murmur3MessageDigest();
+		}
+		try {
+			return MessageDigest.getInstance(messageDigest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported digest algorithm " + messageDigest, e);
+		}
+	}
+
+}
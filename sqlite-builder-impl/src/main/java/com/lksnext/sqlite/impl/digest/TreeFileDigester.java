@@ -0,0 +1,116 @@
+package com.lksnext.sqlite.impl.digest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.lksnext.sqlite.digest.FileDigester;
+
+/**
+ * Digests the file as a two level tree: the file is split in chunks of a fixed
+ * size that are digested in parallel on the given executor, and the result is
+ * the digest of the chunk size followed by the digests of every chunk, in
+ * order. The executor bounds how many chunks are read at the same time.
+ * <p>
+ * The result differs from the plain digest of the same algorithm, so tree
+ * digests are recorded under their own algorithm name.
+ */
+public class TreeFileDigester implements FileDigester {
+
+	public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	private final String algorithm;
+
+	private final String messageDigest;
+
+	private final int chunkSize;
+
+	private final Executor executor;
+
+	public TreeFileDigester(String algorithm, String messageDigest, int chunkSize, Executor executor) {
+		this.algorithm = algorithm;
+		this.messageDigest = messageDigest;
+		this.chunkSize = chunkSize;
+		this.executor = executor;
+		StreamingFileDigester.newMessageDigest(messageDigest);
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	@Override
+	public String digest(URI file) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			long size = channel.size();
+			int chunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+
+			List<CompletableFuture<byte[]>> chunkDigests = new ArrayList<CompletableFuture<byte[]>>(chunks);
+			for (int i = 0; i < chunks; i++) {
+				int chunk = i;
+				chunkDigests.add(CompletableFuture.supplyAsync(() -> digestChunk(channel, chunk, size), executor));
+			}
+			try {
+				// Completes once every chunk is done, so none is read after the channel is closed
+				CompletableFuture.allOf(chunkDigests.toArray(new CompletableFuture<?>[chunks])).join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) e.getCause()).getCause();
+				}
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+
+			MessageDigest digest = StreamingFileDigester.newMessageDigest(messageDigest);
+			digest.update(Integer.toString(chunkSize).getBytes(StandardCharsets.US_ASCII));
+			for (CompletableFuture<byte[]> chunkDigest : chunkDigests) {
+				digest.update(chunkDigest.join());
+			}
+			return Hex.encodeHexString(digest.digest());
+		}
+	}
+
+	/**
+	 * Digests one chunk with positional reads, which do not change the
+	 * position of the channel and can run concurrently.
+	 */
+	private byte[] digestChunk(FileChannel channel, int chunk, long size) {
+		MessageDigest digest = StreamingFileDigester.newMessageDigest(messageDigest);
+		long position = (long) chunk * chunkSize;
+		long end = Math.min(size, position + chunkSize);
+		ByteBuffer buffer = ByteBuffer.allocate(Math.min(StreamingFileDigester.BLOCK_SIZE, chunkSize));
+		try {
+			while (position < end) {
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				position += read;
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return digest.digest();
+	}
+
+}
@@ -1,6 +1,5 @@
 package com.lksnext.sqlite.impl.file;
 
-import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
@@ -23,10 +22,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.util.DigestUtils;
 
 import com.lksnext.sqlite.config.SQLitePropertyConfig;
 import com.lksnext.sqlite.file.FileManager;
+import com.lksnext.sqlite.impl.digest.FileDigesterRegistry;
 
 @Service
 public class FileManagerImpl implements FileManager {
@@ -36,6 +35,9 @@ public class FileManagerImpl implements FileManager {
     @Autowired
     private SQLitePropertyConfig sqliteConfig;
 
+    @Autowired
+    private FileDigesterRegistry fileDigesters;
+
     @Override
     public byte[] getFileContent(String filePath) throws IOException, URISyntaxException {
         URI uri = new URI(filePath);
@@ -163,11 +165,9 @@ public class FileManagerImpl implements FileManager {
         Path filePath = Paths.get(sourceFile);
         Path md5Path = Paths.get(md5File);
         LOG.debug("Computing MD5 for file {} into {}", filePath, md5Path);
-        try (FileInputStream fis = new FileInputStream(filePath.toFile())) {
-            String md5 = DigestUtils.md5DigestAsHex(fis);
-            try (FileWriter fw = new FileWriter(md5Path.toFile())) {
-                fw.write(md5);
-            }
+        String md5 = fileDigesters.get(FileDigesterRegistry.MD5).digest(sourceFile);
+        try (FileWriter fw = new FileWriter(md5Path.toFile())) {
+            fw.write(md5);
         }
     }
 
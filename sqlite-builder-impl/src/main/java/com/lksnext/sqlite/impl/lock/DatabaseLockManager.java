@@ -0,0 +1,240 @@
+package com.lksnext.sqlite.impl.lock;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.lksnext.sqlite.config.SQLitePropertyConfig;
+import com.lksnext.sqlite.impl.util.SQLitePathUtils;
+
+/**
+ * Exclusive locks on databases, shared by every thread and process building
+ * into the same <code>databasePath</code>.
+ * <p>
+ * Processes are excluded with an OS lock on <code>&lt;database&gt;.lck</code>,
+ * which is released by the OS if the process dies, so a crash never blocks a
+ * database. Threads of this process are excluded first, since a file can only
+ * be locked once per process: a striped lock guards the databases held here
+ * while a lock is taken or released, and is not held meanwhile, so databases
+ * sharing a stripe do not wait for each other.
+ * <p>
+ * The holder writes its identity and the time it took the lock into the file
+ * and clears it on release. Content found when taking the lock was left by a
+ * holder that died, and is reported as a stale lock; it is shown too when the
+ * wait times out.
+ */
+@Component
+public class DatabaseLockManager {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DatabaseLockManager.class);
+
+	private static final int STRIPES = 64;
+
+	private static final long MAX_POLL_INTERVAL = 500;
+
+	private static final String OWNER = ManagementFactory.getRuntimeMXBean().getName();
+
+	@Autowired
+	private SQLitePropertyConfig sqliteConfig;
+
+	private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+	private final Condition[] released = new Condition[STRIPES];
+
+	/**
+	 * Databases locked by this process, by the thread holding them.
+	 */
+	private final ConcurrentMap<String, Thread> held = new ConcurrentHashMap<String, Thread>();
+
+	public DatabaseLockManager() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new ReentrantLock();
+			released[i] = stripes[i].newCondition();
+		}
+	}
+
+	/**
+	 * Locks the database, waiting up to <code>lockTimeout</code> for another
+	 * thread or process holding it. The lock is not reentrant.
+	 *
+	 * @return the lock, to be closed by the same thread, or <code>null</code>
+	 *         if the database was still locked when the timeout elapsed
+	 */
+	public DatabaseLock tryLock(String database) throws IOException, InterruptedException {
+		return tryLock(database, sqliteConfig.getLockTimeout());
+	}
+
+	public DatabaseLock tryLock(String database, long timeoutMillis) throws IOException, InterruptedException {
+		return tryLock(sqliteConfig.getDatabasePath(), database, timeoutMillis);
+	}
+
+	/**
+	 * Locks the database with its lock file in <code>basePath</code> instead
+	 * of <code>databasePath</code>.
+	 */
+	public DatabaseLock tryLock(URI basePath, String database, long timeoutMillis)
+			throws IOException, InterruptedException {
+		Path file = Paths.get(SQLitePathUtils.getMasterdataLockPath(basePath, database));
+		String key = file.toString();
+		int stripe = (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+		long pollInterval = 10;
+
+		while (true) {
+			long remaining = deadline - System.nanoTime();
+			stripes[stripe].lockInterruptibly();
+			try {
+				Thread holder = held.get(key);
+				if (holder == Thread.currentThread()) {
+					throw new IllegalStateException("Database " + database + " is already locked by this thread");
+				}
+				if (holder != null) {
+					if (remaining <= 0) {
+						LOG.warn("Database {} is locked by thread {} of this process", database, holder.getName());
+						return null;
+					}
+					released[stripe].awaitNanos(remaining);
+					continue;
+				}
+				DatabaseLock lock = tryLockFile(database, key, file, stripe);
+				if (lock != null) {
+					return lock;
+				}
+			} finally {
+				stripes[stripe].unlock();
+			}
+
+			// Held by another process
+			if (remaining <= 0) {
+				LOG.warn("Database {} is locked by {}", database, readOwner(file));
+				return null;
+			}
+			TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(pollInterval)));
+			pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+		}
+	}
+
+	private DatabaseLock tryLockFile(String database, String key, Path file, int stripe) throws IOException {
+		Files.createDirectories(file.getParent());
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			FileLock fileLock;
+			try {
+				fileLock = channel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				// Locked through another lock manager of this process
+				fileLock = null;
+			}
+			if (fileLock == null) {
+				channel.close();
+				return null;
+			}
+
+			String previousOwner = read(channel);
+			if (!previousOwner.isEmpty()) {
+				LOG.warn("Stale lock of database {} recovered, left by {}", database, previousOwner);
+			}
+			channel.truncate(0);
+			channel.write(ByteBuffer.wrap((OWNER + " since " + Instant.now()).getBytes(StandardCharsets.UTF_8)), 0);
+			channel.force(false);
+			held.put(key, Thread.currentThread());
+			return new DatabaseLock(database, key, channel, fileLock, stripe);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void unlock(DatabaseLock lock) {
+		ReentrantLock stripe = stripes[lock.stripe];
+		stripe.lock();
+		try {
+			try {
+				// Cleared so the next holder does not take it for a stale lock
+				lock.channel.truncate(0);
+			} catch (IOException e) {
+				LOG.warn("Unable to clear the lock of database {}", lock.database, e);
+			}
+			try {
+				lock.fileLock.release();
+				lock.channel.close();
+			} catch (IOException e) {
+				LOG.error("Error releasing the lock of database {}", lock.database, e);
+			}
+			held.remove(lock.key);
+			released[lock.stripe].signalAll();
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	private static String readOwner(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			String owner = read(channel);
+			return owner.isEmpty() ? "another process" : owner;
+		} catch (IOException e) {
+			return "another process";
+		}
+	}
+
+	private static String read(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 1024));
+		while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+		}
+		return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Exclusive lock on a database, released when closed.
+	 */
+	public final class DatabaseLock implements AutoCloseable {
+
+		private final String database;
+		private final String key;
+		private final FileChannel channel;
+		private final FileLock fileLock;
+		private final int stripe;
+		private boolean closed;
+
+		private DatabaseLock(String database, String key, FileChannel channel, FileLock fileLock, int stripe) {
+			this.database = database;
+			this.key = key;
+			this.channel = channel;
+			this.fileLock = fileLock;
+			this.stripe = stripe;
+		}
+
+		public String getDatabase() {
+			return database;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				unlock(this);
+			}
+		}
+	}
+}
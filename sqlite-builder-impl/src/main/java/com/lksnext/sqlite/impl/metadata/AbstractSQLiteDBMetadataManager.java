@@ -0,0 +1,87 @@
+package com.lksnext.sqlite.impl.metadata;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.lksnext.sqlite.SQLiteDBCleanupStrategy;
+import com.lksnext.sqlite.config.SQLitePropertyConfig;
+import com.lksnext.sqlite.metadata.SQLiteDBFileInfo;
+import com.lksnext.sqlite.metadata.SQLiteDBMetadata;
+import com.lksnext.sqlite.metadata.SQLiteDBMetadataManager;
+
+/**
+ * How versions are added to the metadata of a database, whatever the store:
+ * the current version becomes the newest previous one, and the previous
+ * versions selected by the cleanup strategies or beyond
+ * <code>maxDBCopyNumber</code> are dropped.
+ */
+public abstract class AbstractSQLiteDBMetadataManager implements SQLiteDBMetadataManager {
+
+	@Autowired
+	protected SQLitePropertyConfig sqliteConfig;
+
+	@Autowired(required = false)
+	private List<SQLiteDBCleanupStrategy> cleanupStrategies;
+
+	@Override
+	public List<SQLiteDBFileInfo> addDBtoMetadata(SQLiteDBMetadata sqliteDBMetadata, String owner, String database,
+			String file, String md5) throws URISyntaxException, IOException {
+		return addDBtoMetadata(sqliteDBMetadata, owner, database, file, md5, null);
+	}
+
+	@Override
+	public List<SQLiteDBFileInfo> addDBtoMetadata(SQLiteDBMetadata sqliteDBMetadata, String owner, String database,
+			String file, String digest, String algorithm) throws URISyntaxException, IOException {
+		
+		SQLiteDBFileInfo current = sqliteDBMetadata.getCurrent();
+		
+		if (current!=null ) {
+			// Its patches are deleted along with the new version
+			current.setPatches(null);
+			sqliteDBMetadata.getPrevious().add(0, current);
+		}
+		
+		current = new SQLiteDBFileInfo();
+		current.setFile(file);
+		current.setMd5(digest);
+		current.setAlgorithm(algorithm);
+		sqliteDBMetadata.setCurrent(current);
+
+		List<SQLiteDBFileInfo> toDelete = new ArrayList<SQLiteDBFileInfo>();
+		if (cleanupStrategies != null) {
+			for (SQLiteDBCleanupStrategy strategy : cleanupStrategies) {
+				List<SQLiteDBFileInfo> toDeleteFromStrategy = strategy.selectDbsToCleanup(sqliteDBMetadata, owner,
+						database);
+				toDelete.addAll(toDeleteFromStrategy);
+			}
+		}
+
+		List<SQLiteDBFileInfo> toDeleteFromMaxFiles = metadataCleanupBasedOnMaxDBs(sqliteDBMetadata);
+		return Stream.of(toDelete, toDeleteFromMaxFiles).flatMap(Collection::stream).collect(Collectors.toList());
+	}
+
+	private List<SQLiteDBFileInfo> metadataCleanupBasedOnMaxDBs(SQLiteDBMetadata sqliteDBMetadata) {
+
+		List<SQLiteDBFileInfo> previous = sqliteDBMetadata.getPrevious();
+		if (previous == null || previous.size() == 0) {
+			return Collections.<SQLiteDBFileInfo>emptyList();
+		}
+
+		if (previous.size() > sqliteConfig.getMaxDBCopyNumber()) {
+			List<SQLiteDBFileInfo> toDelete = previous.subList(sqliteConfig.getMaxDBCopyNumber(), previous.size());
+			sqliteDBMetadata.setPrevious(previous.subList(0, sqliteConfig.getMaxDBCopyNumber()));
+			return toDelete;
+		}
+
+		return Collections.<SQLiteDBFileInfo>emptyList();
+	}
+
+}
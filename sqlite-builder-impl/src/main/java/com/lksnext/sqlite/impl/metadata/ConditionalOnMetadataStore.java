@@ -0,0 +1,22 @@
+package com.lksnext.sqlite.impl.metadata;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.springframework.context.annotation.Conditional;
+
+/**
+ * Registers the annotated component only when it implements the configured
+ * {@link MetadataStore}.
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Conditional(OnMetadataStoreCondition.class)
+public @interface ConditionalOnMetadataStore {
+
+	MetadataStore value();
+}
@@ -0,0 +1,74 @@
+package com.lksnext.sqlite.impl.metadata;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.lksnext.sqlite.metadata.SQLiteDBMetadata;
+
+/**
+ * Imports the <code>metadata.json</code> files of the databases into a
+ * {@link SQLiteDBCatalogMetadataManager}, to move from the JSON store to the
+ * catalog. Databases already in the catalog are kept. A file that cannot be
+ * read fails the whole import: a database left out of the catalog would look
+ * like it has no versions, and its files would be purged as orphaned.
+ */
+public class JsonMetadataImporter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JsonMetadataImporter.class);
+
+	private static final String METADATA_FILE_NAME = "metadata.json";
+
+	private final SQLiteDBCatalogMetadataManager catalog;
+
+	public JsonMetadataImporter(SQLiteDBCatalogMetadataManager catalog) {
+		this.catalog = catalog;
+	}
+
+	/**
+	 * Imports the metadata of every database folder under
+	 * <code>databasePath</code> in a single transaction.
+	 *
+	 * @return the number of databases imported
+	 * @throws IOException if a <code>metadata.json</code> cannot be read, in
+	 *             which case nothing is imported
+	 */
+	public int importFrom(Path databasePath) throws IOException {
+		long importTime = System.currentTimeMillis();
+		Gson gson = new Gson();
+		Map<String, SQLiteDBMetadata> metadata = new LinkedHashMap<String, SQLiteDBMetadata>();
+		if (Files.isDirectory(databasePath)) {
+			try (DirectoryStream<Path> folders = Files.newDirectoryStream(databasePath, Files::isDirectory)) {
+				for (Path folder : folders) {
+					Path file = folder.resolve(METADATA_FILE_NAME);
+					if (!Files.exists(file)) {
+						continue;
+					}
+					SQLiteDBMetadata databaseMetadata;
+					try (JsonReader reader = new JsonReader(Files.newBufferedReader(file))) {
+						databaseMetadata = gson.fromJson(reader, SQLiteDBMetadata.class);
+					} catch (JsonParseException | IOException e) {
+						throw new IOException("Unable to read the metadata " + file, e);
+					}
+					if (databaseMetadata == null) {
+						throw new IOException("The metadata " + file + " is empty");
+					}
+					metadata.put(folder.getFileName().toString(), databaseMetadata);
+				}
+			}
+		}
+		int imported = catalog.importMetadata(metadata);
+		importTime = System.currentTimeMillis() - importTime;
+		LOG.info("Metadata of {} databases imported into the catalog in {} ms", imported, importTime);
+		return imported;
+	}
+}
@@ -0,0 +1,20 @@
+package com.lksnext.sqlite.impl.metadata;
+
+/**
+ * Where the metadata of the databases is kept, set with
+ * <code>sqlite.builder.location.metadata-store</code>.
+ */
+public enum MetadataStore {
+
+	/**
+	 * A <code>metadata.json</code> file in the folder of each database. The
+	 * default.
+	 */
+	JSON,
+
+	/**
+	 * A single SQLite catalog of every database, <code>catalog.sqlite</code>
+	 * in the database path.
+	 */
+	CATALOG
+}
@@ -0,0 +1,27 @@
+package com.lksnext.sqlite.impl.metadata;
+
+import java.util.Map;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches the {@link MetadataStore} of {@link ConditionalOnMetadataStore}
+ * against <code>sqlite.builder.location.metadata-store</code>, bound with the
+ * same relaxed rules as the rest of the configuration.
+ */
+class OnMetadataStoreCondition implements Condition {
+
+	static final String PROPERTY = "sqlite.builder.location.metadata-store";
+
+	@Override
+	public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+		Map<String, Object> attributes = metadata.getAnnotationAttributes(ConditionalOnMetadataStore.class.getName());
+		MetadataStore store = (MetadataStore) attributes.get("value");
+		MetadataStore configured =
+				Binder.get(context.getEnvironment()).bind(PROPERTY, MetadataStore.class).orElse(MetadataStore.JSON);
+		return store == configured;
+	}
+}
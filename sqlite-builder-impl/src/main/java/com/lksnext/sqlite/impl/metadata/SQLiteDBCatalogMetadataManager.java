@@ -0,0 +1,477 @@
+package com.lksnext.sqlite.impl.metadata;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Service;
+
+import com.lksnext.sqlite.PatchCompression;
+import com.lksnext.sqlite.PatchFormat;
+import com.lksnext.sqlite.metadata.SQLiteDBFileInfo;
+import com.lksnext.sqlite.metadata.SQLiteDBMetadata;
+import com.lksnext.sqlite.metadata.SQLitePatchInfo;
+
+/**
+ * Metadata of every database in a single SQLite catalog,
+ * <code>catalog.sqlite</code> in the database path, so questions about all of
+ * them are answered with one indexed query instead of parsing a file per
+ * database.
+ * <p>
+ * The catalog records the databases, their versions with digest, file, size
+ * and the time they were added, and the patches to their current versions.
+ * Every save is a transaction. The existing <code>metadata.json</code> files
+ * are imported into the catalog on first use, in the same transaction that
+ * marks the import as done, so a failed import is retried and no database is
+ * left out of the catalog. Retries are a minute apart; the catalog is not
+ * used meanwhile.
+ */
+@Service
+@ConditionalOnMetadataStore(MetadataStore.CATALOG)
+public class SQLiteDBCatalogMetadataManager extends AbstractSQLiteDBMetadataManager implements DisposableBean {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SQLiteDBCatalogMetadataManager.class);
+
+	public static final String CATALOG_FILE_NAME = "catalog.sqlite";
+
+	private static final String[] SCHEMA = {
+			"CREATE TABLE IF NOT EXISTS databases (name TEXT PRIMARY KEY, updated INTEGER NOT NULL)",
+			"CREATE INDEX IF NOT EXISTS databases_updated ON databases (updated)",
+			"CREATE TABLE IF NOT EXISTS versions (database_name TEXT NOT NULL, position INTEGER NOT NULL, "
+					+ "md5 TEXT, algorithm TEXT, file TEXT, fingerprint TEXT, patch_format TEXT, "
+					+ "patch_compression TEXT, size INTEGER, created INTEGER NOT NULL, "
+					+ "PRIMARY KEY (database_name, position))",
+			"CREATE INDEX IF NOT EXISTS versions_md5 ON versions (database_name, md5)",
+			"CREATE INDEX IF NOT EXISTS versions_created ON versions (created)",
+			"CREATE TABLE IF NOT EXISTS patches (database_name TEXT NOT NULL, md5 TEXT NOT NULL, size INTEGER, "
+					+ "compressed_size INTEGER, encoding TEXT, PRIMARY KEY (database_name, md5))",
+			"CREATE TABLE IF NOT EXISTS properties (name TEXT PRIMARY KEY, value TEXT)" };
+
+	private static final String JSON_IMPORTED_PROPERTY = "json_imported";
+
+	private static final long IMPORT_RETRY_INTERVAL = 60000;
+
+	private static final String VERSION_COLUMNS =
+			"md5, algorithm, file, fingerprint, patch_format, patch_compression";
+
+	private Connection connection;
+
+	private boolean jsonImported;
+
+	private IOException importFailure;
+
+	private long importFailedAt;
+
+	@Override
+	public synchronized SQLiteDBMetadata loadMetadata(String database) throws URISyntaxException, IOException {
+		String name = key(database);
+		try {
+			SQLiteDBMetadata metadata = new SQLiteDBMetadata();
+			try (PreparedStatement stmt = connection().prepareStatement(
+					"SELECT position, " + VERSION_COLUMNS + " FROM versions WHERE database_name = ? ORDER BY position")) {
+				stmt.setString(1, name);
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						SQLiteDBFileInfo info = readVersion(rs, 2);
+						if (rs.getInt(1) == 0) {
+							metadata.setCurrent(info);
+						} else {
+							metadata.getPrevious().add(info);
+						}
+					}
+				}
+			}
+			if (metadata.getCurrent() != null) {
+				List<SQLitePatchInfo> patches = loadPatches(name);
+				metadata.getCurrent().setPatches(patches.isEmpty() ? null : patches);
+			}
+			return metadata;
+		} catch (SQLException e) {
+			throw new IOException("Error loading the metadata of database " + database, e);
+		}
+	}
+
+	@Override
+	public synchronized SQLiteDBFileInfo findPrevious(String database, String md5)
+			throws URISyntaxException, IOException {
+		if (md5 == null) {
+			return null;
+		}
+		try (PreparedStatement stmt = connection().prepareStatement("SELECT " + VERSION_COLUMNS
+				+ " FROM versions WHERE database_name = ? AND md5 = ? AND position > 0 ORDER BY position LIMIT 1")) {
+			stmt.setString(1, key(database));
+			stmt.setString(2, md5);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next() ? readVersion(rs, 1) : null;
+			}
+		} catch (SQLException e) {
+			throw new IOException("Error finding version " + md5 + " of database " + database, e);
+		}
+	}
+
+	@Override
+	public synchronized boolean existsMetadata(String database) throws URISyntaxException {
+		try (PreparedStatement stmt = connection().prepareStatement("SELECT 1 FROM databases WHERE name = ?")) {
+			stmt.setString(1, key(database));
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		} catch (SQLException | IOException e) {
+			LOG.error("Error looking up database {} in the catalog", database, e);
+			return false;
+		}
+	}
+
+	@Override
+	public synchronized void saveMetadata(SQLiteDBMetadata sqliteDBMetadata, String database)
+			throws URISyntaxException, IOException {
+		LOG.info("Start updating Metadata for Database {}", database);
+		long metadataTime = System.currentTimeMillis();
+		Connection con = connection();
+		try {
+			con.setAutoCommit(false);
+			try {
+				save(con, key(database), sqliteDBMetadata, metadataTime);
+				con.commit();
+			} catch (SQLException | RuntimeException e) {
+				con.rollback();
+				throw e;
+			} finally {
+				con.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new IOException("Error saving the metadata of database " + database, e);
+		}
+		metadataTime = System.currentTimeMillis() - metadataTime;
+		LOG.info("Metadata updated for Database {} in {} ms", database, metadataTime);
+	}
+
+	@Override
+	public synchronized void updateMetadata(String database, Predicate<SQLiteDBMetadata> update)
+			throws URISyntaxException, IOException {
+		SQLiteDBMetadata metadata = loadMetadata(database);
+		if (update.test(metadata)) {
+			saveMetadata(metadata, database);
+		}
+	}
+
+	/**
+	 * @return names of the databases whose metadata was saved at or after
+	 *         <code>since</code>, in milliseconds since the epoch, most
+	 *         recent first
+	 */
+	public synchronized List<String> findDatabasesUpdatedSince(long since) throws IOException {
+		try (PreparedStatement stmt = connection()
+				.prepareStatement("SELECT name FROM databases WHERE updated >= ? ORDER BY updated DESC")) {
+			stmt.setLong(1, since);
+			List<String> databases = new ArrayList<String>();
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					databases.add(rs.getString(1));
+				}
+			}
+			return databases;
+		} catch (SQLException e) {
+			throw new IOException("Error finding updated databases", e);
+		}
+	}
+
+	/**
+	 * @return total bytes of the versions of every database, current and
+	 *         previous, as measured when they were added
+	 */
+	public synchronized long getRetainedBytes() throws IOException {
+		try (Statement stmt = connection().createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT COALESCE(SUM(size), 0) FROM versions")) {
+			rs.next();
+			return rs.getLong(1);
+		} catch (SQLException e) {
+			throw new IOException("Error summing the size of the versions", e);
+		}
+	}
+
+	/**
+	 * Imports the metadata of several databases and marks the JSON import as
+	 * done, in a single transaction. Databases already in the catalog are
+	 * kept, since their metadata was saved after the JSON files.
+	 *
+	 * @return the number of databases imported
+	 */
+	synchronized int importMetadata(Map<String, SQLiteDBMetadata> metadata) throws IOException {
+		long now = System.currentTimeMillis();
+		Connection con = open();
+		int imported = 0;
+		try {
+			con.setAutoCommit(false);
+			try {
+				for (Map.Entry<String, SQLiteDBMetadata> entry : metadata.entrySet()) {
+					String name = key(entry.getKey());
+					if (exists(con, name)) {
+						LOG.info("Database {} is already in the catalog, its metadata.json is not imported", name);
+						continue;
+					}
+					save(con, name, entry.getValue(), now);
+					imported++;
+				}
+				try (PreparedStatement stmt =
+						con.prepareStatement("INSERT OR REPLACE INTO properties (name, value) VALUES (?, ?)")) {
+					stmt.setString(1, JSON_IMPORTED_PROPERTY);
+					stmt.setString(2, Long.toString(now));
+					stmt.executeUpdate();
+				}
+				con.commit();
+			} catch (SQLException | RuntimeException e) {
+				con.rollback();
+				throw e;
+			} finally {
+				con.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			throw new IOException("Error importing the metadata of " + metadata.size() + " databases", e);
+		}
+		return imported;
+	}
+
+	private static boolean exists(Connection con, String name) throws SQLException {
+		try (PreparedStatement stmt = con.prepareStatement("SELECT 1 FROM databases WHERE name = ?")) {
+			stmt.setString(1, name);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	private void save(Connection con, String name, SQLiteDBMetadata metadata, long now) throws SQLException {
+		// Versions already recorded keep the time they were added and their size
+		Map<String, long[]> recorded = new HashMap<String, long[]>();
+		try (PreparedStatement stmt =
+				con.prepareStatement("SELECT file, created, size FROM versions WHERE database_name = ?")) {
+			stmt.setString(1, name);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					long size = rs.getLong(3);
+					recorded.put(rs.getString(1), new long[] { rs.getLong(2), rs.wasNull() ? -1 : size });
+				}
+			}
+		}
+
+		try (PreparedStatement stmt = con.prepareStatement(
+				"INSERT OR REPLACE INTO databases (name, updated) VALUES (?, ?)")) {
+			stmt.setString(1, name);
+			stmt.setLong(2, now);
+			stmt.executeUpdate();
+		}
+		for (String table : new String[] { "versions", "patches" }) {
+			try (PreparedStatement stmt = con.prepareStatement("DELETE FROM " + table + " WHERE database_name = ?")) {
+				stmt.setString(1, name);
+				stmt.executeUpdate();
+			}
+		}
+
+		try (PreparedStatement stmt = con.prepareStatement("INSERT INTO versions (database_name, position, "
+				+ VERSION_COLUMNS + ", size, created) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+			List<SQLiteDBFileInfo> versions = new ArrayList<SQLiteDBFileInfo>();
+			versions.add(metadata.getCurrent());
+			if (metadata.getPrevious() != null) {
+				versions.addAll(metadata.getPrevious());
+			}
+			for (int position = 0; position < versions.size(); position++) {
+				SQLiteDBFileInfo info = versions.get(position);
+				if (info == null) {
+					continue;
+				}
+				long[] known = recorded.get(info.getFile());
+				long size = known != null ? known[1] : sizeOf(info.getFile());
+				stmt.setString(1, name);
+				stmt.setInt(2, position);
+				stmt.setString(3, info.getMd5());
+				stmt.setString(4, info.getAlgorithm());
+				stmt.setString(5, info.getFile());
+				stmt.setString(6, info.getFingerprint());
+				stmt.setString(7, info.getPatchFormat() != null ? info.getPatchFormat().name() : null);
+				stmt.setString(8, info.getPatchCompression() != null ? info.getPatchCompression().name() : null);
+				if (size >= 0) {
+					stmt.setLong(9, size);
+				} else {
+					stmt.setNull(9, Types.INTEGER);
+				}
+				stmt.setLong(10, known != null ? known[0] : now);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		}
+
+		if (metadata.getCurrent() != null) {
+			try (PreparedStatement stmt = con.prepareStatement("INSERT OR REPLACE INTO patches "
+					+ "(database_name, md5, size, compressed_size, encoding) VALUES (?, ?, ?, ?, ?)")) {
+				for (SQLitePatchInfo patch : metadata.getCurrent().getPatches()) {
+					stmt.setString(1, name);
+					stmt.setString(2, patch.getMd5());
+					setLong(stmt, 3, patch.getSize());
+					setLong(stmt, 4, patch.getCompressedSize());
+					stmt.setString(5, patch.getEncoding());
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+			}
+		}
+	}
+
+	private List<SQLitePatchInfo> loadPatches(String name) throws SQLException, IOException {
+		List<SQLitePatchInfo> patches = new ArrayList<SQLitePatchInfo>();
+		try (PreparedStatement stmt = connection().prepareStatement(
+				"SELECT md5, size, compressed_size, encoding FROM patches WHERE database_name = ? ORDER BY md5")) {
+			stmt.setString(1, name);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					SQLitePatchInfo patch = new SQLitePatchInfo();
+					patch.setMd5(rs.getString(1));
+					patch.setSize(getLong(rs, 2));
+					patch.setCompressedSize(getLong(rs, 3));
+					patch.setEncoding(rs.getString(4));
+					patches.add(patch);
+				}
+			}
+		}
+		return patches;
+	}
+
+	private static SQLiteDBFileInfo readVersion(ResultSet rs, int column) throws SQLException {
+		SQLiteDBFileInfo info = new SQLiteDBFileInfo();
+		info.setMd5(rs.getString(column));
+		info.setAlgorithm(rs.getString(column + 1));
+		info.setFile(rs.getString(column + 2));
+		info.setFingerprint(rs.getString(column + 3));
+		String patchFormat = rs.getString(column + 4);
+		info.setPatchFormat(patchFormat != null ? PatchFormat.valueOf(patchFormat) : null);
+		String patchCompression = rs.getString(column + 5);
+		info.setPatchCompression(patchCompression != null ? PatchCompression.valueOf(patchCompression) : null);
+		return info;
+	}
+
+	private static Long getLong(ResultSet rs, int column) throws SQLException {
+		long value = rs.getLong(column);
+		return rs.wasNull() ? null : value;
+	}
+
+	private static void setLong(PreparedStatement stmt, int index, Long value) throws SQLException {
+		if (value != null) {
+			stmt.setLong(index, value);
+		} else {
+			stmt.setNull(index, Types.INTEGER);
+		}
+	}
+
+	private static long sizeOf(String file) {
+		try {
+			return file != null ? Files.size(Paths.get(file)) : -1;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private static String key(String database) {
+		return database.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Opens the catalog on first use and imports the
+	 * <code>metadata.json</code> files unless that was already done. Fails
+	 * while the import fails: until then the catalog may miss databases, and
+	 * their retained versions would be taken for orphaned files. A failed
+	 * import is not retried for {@link #IMPORT_RETRY_INTERVAL} ms, so the
+	 * calls meanwhile fail with it instead of reading every file again.
+	 */
+	private Connection connection() throws IOException {
+		Connection con = open();
+		if (!jsonImported) {
+			jsonImported = isJsonImported(con);
+		}
+		if (!jsonImported) {
+			long now = System.currentTimeMillis();
+			if (importFailure != null && now - importFailedAt < IMPORT_RETRY_INTERVAL) {
+				throw new IOException("The metadata.json files could not be imported into the metadata catalog, "
+						+ "the import is retried " + IMPORT_RETRY_INTERVAL + " ms after it failed", importFailure);
+			}
+			try {
+				new JsonMetadataImporter(this).importFrom(Paths.get(sqliteConfig.getDatabasePath()));
+			} catch (IOException e) {
+				importFailure = e;
+				importFailedAt = now;
+				LOG.error("Unable to import the metadata.json files into the metadata catalog, retrying in {} ms",
+						IMPORT_RETRY_INTERVAL, e);
+				throw e;
+			}
+			jsonImported = true;
+			importFailure = null;
+		}
+		return con;
+	}
+
+	private static boolean isJsonImported(Connection con) throws IOException {
+		try (PreparedStatement stmt = con.prepareStatement("SELECT 1 FROM properties WHERE name = ?")) {
+			stmt.setString(1, JSON_IMPORTED_PROPERTY);
+			try (ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		} catch (SQLException e) {
+			throw new IOException("Error reading the metadata catalog", e);
+		}
+	}
+
+	/**
+	 * Opens the catalog on first use, creating it if it does not exist.
+	 */
+	private Connection open() throws IOException {
+		if (connection != null) {
+			return connection;
+		}
+		Path catalog = Paths.get(sqliteConfig.getDatabasePath()).resolve(CATALOG_FILE_NAME);
+		boolean created = !Files.exists(catalog);
+		try {
+			Files.createDirectories(catalog.getParent());
+			Class.forName("org.sqlite.JDBC");
+			Connection con = DriverManager.getConnection("jdbc:sqlite:" + catalog);
+			try (Statement stmt = con.createStatement()) {
+				stmt.execute("PRAGMA journal_mode=WAL");
+				stmt.execute("PRAGMA synchronous=NORMAL");
+				for (String sql : SCHEMA) {
+					stmt.execute(sql);
+				}
+			}
+			connection = con;
+		} catch (ClassNotFoundException | SQLException e) {
+			throw new IOException("Error opening the metadata catalog " + catalog, e);
+		}
+		if (created) {
+			LOG.info("Metadata catalog {} created", catalog);
+		}
+		return connection;
+	}
+
+	@Override
+	public synchronized void destroy() throws SQLException {
+		if (connection != null) {
+			connection.close();
+			connection = null;
+		}
+	}
+}
@@ -1,18 +1,22 @@
 package com.lksnext.sqlite.impl.metadata;
 
 import java.io.BufferedWriter;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,41 +26,103 @@ import org.springframework.stereotype.Service;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.stream.JsonReader;
-import com.lksnext.sqlite.SQLiteDBCleanupStrategy;
-import com.lksnext.sqlite.config.SQLitePropertyConfig;
 import com.lksnext.sqlite.file.FileManager;
 import com.lksnext.sqlite.impl.util.SQLitePathUtils;
 import com.lksnext.sqlite.metadata.SQLiteDBFileInfo;
 import com.lksnext.sqlite.metadata.SQLiteDBMetadata;
-import com.lksnext.sqlite.metadata.SQLiteDBMetadataManager;
 
+/**
+ * Metadata stored as <code>metadata.json</code> in the folder of each
+ * database.
+ * <p>
+ * The parsed metadata of every database is cached along with an index of its
+ * previous versions by digest, and reparsed when the file changes: its size,
+ * modification time or identity, which changes on every save as the file is
+ * replaced. Callers get copies, so they can change them freely. Loads that
+ * change and save the metadata check the file under the lock of the database,
+ * whatever the check interval.
+ */
 @Service
-public class SQLiteDBMetadataManagerImpl implements SQLiteDBMetadataManager {
+@ConditionalOnMetadataStore(MetadataStore.JSON)
+public class SQLiteDBMetadataManagerImpl extends AbstractSQLiteDBMetadataManager {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(SQLiteDBMetadataManagerImpl.class);
 
+	private static final Gson GSON = new GsonBuilder().create();
+
 	@Autowired
 	private FileManager fileManager;
 
-	@Autowired
-	private SQLitePropertyConfig sqliteConfig;
+	private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
 
-	@Autowired(required = false)
-	private List<SQLiteDBCleanupStrategy> cleanupStrategies;
+	private final ConcurrentMap<String, CachedMetadata> cache = new ConcurrentHashMap<String, CachedMetadata>();
 
 	@Override
 	public SQLiteDBMetadata loadMetadata(String database) throws URISyntaxException, IOException {
-		Gson gson = new Gson();
+		return copy(getCached(database, false));
+	}
+
+	@Override
+	public SQLiteDBMetadata reloadMetadata(String database) throws URISyntaxException, IOException {
+		synchronized (lock(database)) {
+			return copy(getCached(database, true));
+		}
+	}
+
+	private static SQLiteDBMetadata copy(CachedMetadata cached) {
+		return cached != null ? new SQLiteDBMetadata(cached.metadata) : new SQLiteDBMetadata();
+	}
+
+	@Override
+	public SQLiteDBFileInfo findPrevious(String database, String md5) throws URISyntaxException, IOException {
+		CachedMetadata cached = md5 != null ? getCached(database, false) : null;
+		SQLiteDBFileInfo previous = cached != null ? cached.previousByMd5.get(md5) : null;
+		return previous != null ? new SQLiteDBFileInfo(previous) : null;
+	}
+
+	/**
+	 * @param recheck whether to check the file even if it was checked less
+	 *            than <code>metadataCheckInterval</code> ago
+	 * @return the cached metadata of the database, parsed again if the file
+	 *         changed, or <code>null</code> if there is no metadata file
+	 */
+	private CachedMetadata getCached(String database, boolean recheck) throws URISyntaxException, IOException {
+		String key = key(database);
+		CachedMetadata cached = cache.get(key);
+		long now = System.currentTimeMillis();
+		if (cached != null && !recheck && now - cached.checkedAt < sqliteConfig.getMetadataCheckInterval()) {
+			return cached;
+		}
+
 		URI dbsBaseDir = sqliteConfig.getDatabasePath();
-		URI metaDataPath = SQLitePathUtils.getMasterdataMetadataPath(dbsBaseDir, database);
-		boolean metadataFileExits = fileManager.fileExists(metaDataPath.toString());
-		if (metadataFileExits) {
-			try (JsonReader reader = new JsonReader(new FileReader(metaDataPath.getPath()))) {
-				return gson.fromJson(reader, SQLiteDBMetadata.class);
+		Path metaDataPath = Paths.get(SQLitePathUtils.getMasterdataMetadataPath(dbsBaseDir, database));
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(metaDataPath, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			if (cached != null) {
+				cache.remove(key, cached);
 			}
-		} else {
-			return new SQLiteDBMetadata();
+			return null;
+		}
+		if (cached != null && cached.isSameFile(attributes)) {
+			cached.checkedAt = now;
+			return cached;
+		}
+
+		SQLiteDBMetadata metadata;
+		try (JsonReader reader = new JsonReader(Files.newBufferedReader(metaDataPath))) {
+			metadata = GSON.fromJson(reader, SQLiteDBMetadata.class);
 		}
+		CachedMetadata parsed = new CachedMetadata(metadata != null ? metadata : new SQLiteDBMetadata(), attributes,
+				now);
+		// Only over the entry it replaces, since a save may have cached a newer version meanwhile
+		boolean installed = cached != null ? cache.replace(key, cached, parsed) : cache.putIfAbsent(key, parsed) == null;
+		if (!installed) {
+			CachedMetadata newer = cache.get(key);
+			return newer != null ? newer : parsed;
+		}
+		return parsed;
 	}
 
 	@Override
@@ -73,56 +139,71 @@ public class SQLiteDBMetadataManagerImpl implements SQLiteDBMetadataManager {
 		long metadataTime = System.currentTimeMillis();
 		URI dbsBaseDir = sqliteConfig.getDatabasePath();
 		URI metadataPath = SQLitePathUtils.getMasterdataMetadataPath(dbsBaseDir, database);
-		try(BufferedWriter writer = Files.newBufferedWriter(Paths.get(metadataPath))) {
-			Gson gson = new GsonBuilder().create();
-			gson.toJson(sqliteDBMetadata, writer);
+		Path file = Paths.get(metadataPath);
+		// Renamed when complete, so concurrent readers never see a partial file
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		synchronized (lock(database)) {
+			try(BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+				GSON.toJson(sqliteDBMetadata, writer);
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			cache.put(key(database), new CachedMetadata(new SQLiteDBMetadata(sqliteDBMetadata),
+					Files.readAttributes(file, BasicFileAttributes.class), System.currentTimeMillis()));
 		}
 		metadataTime = System.currentTimeMillis() - metadataTime;
         LOG.info("Metadata updated for Database {} in {} ms", database, metadataTime);
 	}
 
 	@Override
-	public List<SQLiteDBFileInfo> addDBtoMetadata(SQLiteDBMetadata sqliteDBMetadata, String owner, String database,
-			String file, String md5) throws URISyntaxException, IOException {
-		
-		SQLiteDBFileInfo current = sqliteDBMetadata.getCurrent();
-		
-		if (current!=null ) {
-			sqliteDBMetadata.getPrevious().add(0, current);
-		}
-		
-		current = new SQLiteDBFileInfo();
-		current.setFile(file);
-		current.setMd5(md5);
-		sqliteDBMetadata.setCurrent(current);
-
-		List<SQLiteDBFileInfo> toDelete = new ArrayList<SQLiteDBFileInfo>();
-		if (cleanupStrategies != null) {
-			for (SQLiteDBCleanupStrategy strategy : cleanupStrategies) {
-				List<SQLiteDBFileInfo> toDeleteFromStrategy = strategy.selectDbsToCleanup(sqliteDBMetadata, owner,
-						database);
-				toDelete.addAll(toDeleteFromStrategy);
+	public void updateMetadata(String database, Predicate<SQLiteDBMetadata> update)
+			throws URISyntaxException, IOException {
+		synchronized (lock(database)) {
+			SQLiteDBMetadata metadata = reloadMetadata(database);
+			if (update.test(metadata)) {
+				saveMetadata(metadata, database);
 			}
 		}
+	}
 
-		List<SQLiteDBFileInfo> toDeleteFromMaxFiles = metadataCleanupBasedOnMaxDBs(sqliteDBMetadata);
-		return Stream.of(toDelete, toDeleteFromMaxFiles).flatMap(Collection::stream).collect(Collectors.toList());
+	private Object lock(String database) {
+		return locks.computeIfAbsent(key(database), key -> new Object());
 	}
 
-	private List<SQLiteDBFileInfo> metadataCleanupBasedOnMaxDBs(SQLiteDBMetadata sqliteDBMetadata) {
+	private static String key(String database) {
+		return database.toLowerCase(Locale.ROOT);
+	}
 
-		List<SQLiteDBFileInfo> previous = sqliteDBMetadata.getPrevious();
-		if (previous == null || previous.size() == 0) {
-			return Collections.<SQLiteDBFileInfo>emptyList();
+	/**
+	 * Parsed metadata of a database, never changed once cached, and the state
+	 * of the file it was parsed from.
+	 */
+	private static final class CachedMetadata {
+
+		private final SQLiteDBMetadata metadata;
+		private final Map<String, SQLiteDBFileInfo> previousByMd5 = new HashMap<String, SQLiteDBFileInfo>();
+		private final long size;
+		private final long lastModified;
+		private final Object fileKey;
+		private volatile long checkedAt;
+
+		private CachedMetadata(SQLiteDBMetadata metadata, BasicFileAttributes attributes, long checkedAt) {
+			this.metadata = metadata;
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			this.fileKey = attributes.fileKey();
+			this.checkedAt = checkedAt;
+			if (metadata.getPrevious() != null) {
+				for (SQLiteDBFileInfo previous : metadata.getPrevious()) {
+					if (previous.getMd5() != null) {
+						previousByMd5.putIfAbsent(previous.getMd5(), previous);
+					}
+				}
+			}
 		}
 
-		if (previous.size() > sqliteConfig.getMaxDBCopyNumber()) {
-			List<SQLiteDBFileInfo> toDelete = previous.subList(sqliteConfig.getMaxDBCopyNumber(), previous.size());
-			sqliteDBMetadata.setPrevious(previous.subList(0, sqliteConfig.getMaxDBCopyNumber()));
-			return toDelete;
+		private boolean isSameFile(BasicFileAttributes attributes) {
+			return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis()
+					&& Objects.equals(fileKey, attributes.fileKey());
 		}
-
-		return Collections.<SQLiteDBFileInfo>emptyList();
 	}
-
 }
@@ -0,0 +1,22 @@
+package com.lksnext.sqlite.impl.metrics;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.springframework.context.annotation.Conditional;
+
+/**
+ * Registers the annotated component only when it implements the configured
+ * {@link MetricsRegistry}.
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Conditional(OnMetricsRegistryCondition.class)
+public @interface ConditionalOnMetricsRegistry {
+
+	MetricsRegistry value();
+}
@@ -0,0 +1,177 @@
+package com.lksnext.sqlite.impl.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+import com.lksnext.sqlite.metrics.SQLiteDBMetrics;
+
+/**
+ * Keeps the metrics in memory since the application started, for
+ * applications without a metrics registry. Every metric keeps the number of
+ * recordings and their total and maximum; times are kept in milliseconds.
+ */
+@Component
+@ConditionalOnMetricsRegistry(MetricsRegistry.MEMORY)
+public class InMemorySQLiteDBMetrics implements SQLiteDBMetrics {
+
+	private final ConcurrentMap<MeterId, Meter> meters = new ConcurrentHashMap<MeterId, Meter>();
+
+	@Override
+	public void increment(String name, long amount, String... tags) {
+		meter(name, tags).record(amount);
+	}
+
+	@Override
+	public void recordTime(String name, long duration, TimeUnit unit, String... tags) {
+		meter(name, tags).record(unit.toNanos(duration) / 1e6);
+	}
+
+	@Override
+	public void recordValue(String name, double value, String... tags) {
+		meter(name, tags).record(value);
+	}
+
+	/**
+	 * @return the metric with the name and exactly the tags given, or
+	 *         <code>null</code> if it was never recorded
+	 */
+	public Meter getMeter(String name, String... tags) {
+		return meters.get(new MeterId(name, tags));
+	}
+
+	/**
+	 * @return every metric recorded with the name, whatever its tags
+	 */
+	public List<Meter> getMeters(String name) {
+		List<Meter> found = new ArrayList<Meter>();
+		for (Meter meter : meters.values()) {
+			if (meter.getName().equals(name)) {
+				found.add(meter);
+			}
+		}
+		return found;
+	}
+
+	public List<Meter> getMeters() {
+		return new ArrayList<Meter>(meters.values());
+	}
+
+	public void clear() {
+		meters.clear();
+	}
+
+	private Meter meter(String name, String... tags) {
+		MeterId id = new MeterId(name, tags);
+		Meter meter = meters.get(id);
+		if (meter == null) {
+			meter = meters.computeIfAbsent(id, Meter::new);
+		}
+		return meter;
+	}
+
+	private static final class MeterId {
+
+		private final String name;
+
+		private final SortedMap<String, String> tags;
+
+		private MeterId(String name, String... tags) {
+			if (tags.length % 2 != 0) {
+				throw new IllegalArgumentException("Tags of " + name + " must be key and value pairs");
+			}
+			SortedMap<String, String> sorted = new TreeMap<String, String>();
+			for (int i = 0; i < tags.length; i += 2) {
+				sorted.put(tags[i], tags[i + 1]);
+			}
+			this.name = name;
+			this.tags = Collections.unmodifiableSortedMap(sorted);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MeterId)) {
+				return false;
+			}
+			MeterId other = (MeterId) obj;
+			return name.equals(other.name) && tags.equals(other.tags);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, tags);
+		}
+	}
+
+	/**
+	 * A metric and its tags.
+	 */
+	public static final class Meter {
+
+		private final MeterId id;
+
+		private final LongAdder count = new LongAdder();
+
+		private final DoubleAdder total = new DoubleAdder();
+
+		private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+		private Meter(MeterId id) {
+			this.id = id;
+		}
+
+		private void record(double value) {
+			count.increment();
+			total.add(value);
+			max.accumulate(value);
+		}
+
+		public String getName() {
+			return id.name;
+		}
+
+		public Map<String, String> getTags() {
+			return id.tags;
+		}
+
+		/**
+		 * @return number of recordings
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * @return sum of the values recorded, the value of a counter
+		 */
+		public double getTotal() {
+			return total.sum();
+		}
+
+		public double getMax() {
+			return count.sum() > 0 ? max.get() : 0;
+		}
+
+		public double getMean() {
+			long recordings = count.sum();
+			return recordings > 0 ? total.sum() / recordings : 0;
+		}
+
+		@Override
+		public String toString() {
+			return id.name + id.tags + " count=" + getCount() + " total=" + getTotal() + " max=" + getMax();
+		}
+	}
+}
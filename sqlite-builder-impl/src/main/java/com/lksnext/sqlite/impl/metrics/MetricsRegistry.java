@@ -0,0 +1,21 @@
+package com.lksnext.sqlite.impl.metrics;
+
+/**
+ * Where the metrics of the pipeline are recorded, set with
+ * <code>sqlite.builder.location.metrics-registry</code>.
+ */
+public enum MetricsRegistry {
+
+	/**
+	 * {@link InMemorySQLiteDBMetrics}, kept in memory and read through the
+	 * bean. The default.
+	 */
+	MEMORY,
+
+	/**
+	 * {@link MicrometerSQLiteDBMetrics}, recorded into the Micrometer
+	 * <code>MeterRegistry</code> bean of the application, which must have
+	 * <code>micrometer-core</code> in its classpath.
+	 */
+	MICROMETER
+}
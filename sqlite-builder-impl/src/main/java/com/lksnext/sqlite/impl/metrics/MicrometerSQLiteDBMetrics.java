@@ -0,0 +1,38 @@
+package com.lksnext.sqlite.impl.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.lksnext.sqlite.metrics.SQLiteDBMetrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Records the metrics as Micrometer counters, timers and distribution
+ * summaries, so they are published by the registry of the application.
+ */
+@Component
+@ConditionalOnMetricsRegistry(MetricsRegistry.MICROMETER)
+public class MicrometerSQLiteDBMetrics implements SQLiteDBMetrics {
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Override
+	public void increment(String name, long amount, String... tags) {
+		registry.counter(name, tags).increment(amount);
+	}
+
+	@Override
+	public void recordTime(String name, long duration, TimeUnit unit, String... tags) {
+		registry.timer(name, tags).record(duration, unit);
+	}
+
+	@Override
+	public void recordValue(String name, double value, String... tags) {
+		registry.summary(name, tags).record(value);
+	}
+
+}
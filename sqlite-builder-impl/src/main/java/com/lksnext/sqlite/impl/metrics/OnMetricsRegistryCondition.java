@@ -0,0 +1,27 @@
+package com.lksnext.sqlite.impl.metrics;
+
+import java.util.Map;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+/**
+ * Matches the {@link MetricsRegistry} of {@link ConditionalOnMetricsRegistry}
+ * against <code>sqlite.builder.location.metrics-registry</code>.
+ */
+class OnMetricsRegistryCondition implements Condition {
+
+	static final String PROPERTY = "sqlite.builder.location.metrics-registry";
+
+	@Override
+	public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+		Map<String, Object> attributes = metadata
+				.getAnnotationAttributes(ConditionalOnMetricsRegistry.class.getName());
+		MetricsRegistry registry = (MetricsRegistry) attributes.get("value");
+		MetricsRegistry configured = Binder.get(context.getEnvironment()).bind(PROPERTY, MetricsRegistry.class)
+				.orElse(MetricsRegistry.MEMORY);
+		return registry == configured;
+	}
+}
@@ -0,0 +1,65 @@
+package com.lksnext.sqlite.impl.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.lksnext.sqlite.metrics.SQLiteDBMetrics;
+
+/**
+ * Records the metrics of the pipeline into the {@link SQLiteDBMetrics} bean,
+ * tagged with the database and the definition it was last built from, so the
+ * persist and patch steps, which only know the database, are tagged like its
+ * build.
+ */
+@Component
+public class PipelineMetrics {
+
+	@Autowired
+	private SQLiteDBMetrics metrics;
+
+	private final ConcurrentMap<String, String> definitions = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Tags the metrics of the database with the definition it is built from.
+	 */
+	public void registerDatabase(String database, String definition) {
+		definitions.put(database, definition);
+	}
+
+	public void recordTime(String name, String database, long nanos) {
+		metrics.recordTime(name, nanos, TimeUnit.NANOSECONDS, tags(database));
+	}
+
+	public void recordValue(String name, String database, double value) {
+		metrics.recordValue(name, value, tags(database));
+	}
+
+	public void recordTableTime(String name, String database, String table, long nanos) {
+		metrics.recordTime(name, nanos, TimeUnit.NANOSECONDS, tags(database, table));
+	}
+
+	public void recordTableValue(String name, String database, String table, double value) {
+		metrics.recordValue(name, value, tags(database, table));
+	}
+
+	public void incrementTable(String name, String database, String table, long amount) {
+		metrics.increment(name, amount, tags(database, table));
+	}
+
+	private String definition(String database) {
+		return definitions.getOrDefault(database, SQLiteDBMetrics.UNKNOWN);
+	}
+
+	private String[] tags(String database) {
+		return new String[] { SQLiteDBMetrics.DEFINITION, definition(database), SQLiteDBMetrics.DATABASE, database };
+	}
+
+	private String[] tags(String database, String table) {
+		return new String[] { SQLiteDBMetrics.DEFINITION, definition(database), SQLiteDBMetrics.DATABASE, database,
+				SQLiteDBMetrics.TABLE, table };
+	}
+}
@@ -0,0 +1,181 @@
+package com.lksnext.sqlite.impl.patch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lksnext.sqlite.PatchFormat;
+
+/**
+ * Writes patches that hold the pages of a SQLite file that changed.
+ * <p>
+ * SQLite files are arrays of pages of a fixed size, so two versions are
+ * compared page by page, at the same offsets, and only the pages that differ
+ * or are new are written. The patch is laid out as:
+ *
+ * <pre>
+ * magic         4 bytes  "SQPD"
+ * version       1 byte   1
+ * page size     int32
+ * source pages  int32    pages of the previous file
+ * target pages  int32    pages of the new file
+ * pages         int32 page number, from 0, and the page bytes, ascending
+ * end           int32    -1
+ * checksum      int32    CRC-32 of the new file
+ * </pre>
+ *
+ * All integers are big-endian. Files that are not SQLite databases, or whose
+ * page size changed, are written as VCDIFF patches instead.
+ */
+public class PagePatchWriter extends PatchWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PagePatchWriter.class);
+
+	static final byte[] MAGIC = { 'S', 'Q', 'P', 'D' };
+
+	static final int VERSION = 1;
+
+	static final int END = -1;
+
+	private static final byte[] SQLITE_HEADER = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int PAGE_SIZE_OFFSET = 16;
+
+	private final int windowSize;
+
+	private final VCDiffPatchWriter fallback;
+
+	/**
+	 * @param windowSize bytes of the new file compared per window, rounded to
+	 *            whole pages
+	 * @param fallback writer of the patches between files that cannot be
+	 *            compared page by page
+	 */
+	public PagePatchWriter(int windowSize, VCDiffPatchWriter fallback) {
+		if (windowSize <= 0) {
+			throw new IllegalArgumentException("Invalid patch window size " + windowSize);
+		}
+		this.windowSize = windowSize;
+		this.fallback = fallback;
+	}
+
+	@Override
+	public PatchFormat getFormat() {
+		return PatchFormat.PAGES;
+	}
+
+	@Override
+	int windowSize(FileChannel target) throws IOException {
+		int pageSize = pageSize(target);
+		if (pageSize <= 0) {
+			return fallback.windowSize(target);
+		}
+		return Math.max(1, windowSize / pageSize) * pageSize;
+	}
+
+	@Override
+	PatchEncoder newEncoder(FileChannel source, FileChannel target, OutputStream out) throws IOException {
+		int pageSize = pageSize(target);
+		if (pageSize <= 0 || pageSize != pageSize(source)) {
+			LOG.warn("Files cannot be compared page by page, page sizes {} and {}; writing a VCDIFF patch",
+					pageSize(source), pageSize);
+			return fallback.newEncoder(source, target, out);
+		}
+		return new PageEncoder(source, pageSize, target.size(), out);
+	}
+
+	/**
+	 * @return page size of a SQLite file, or -1 if it is not a SQLite file or
+	 *         its size is not a whole number of pages
+	 */
+	static int pageSize(FileChannel file) throws IOException {
+		long size = file.size();
+		if (size < 100) {
+			return -1;
+		}
+		byte[] header = new byte[PAGE_SIZE_OFFSET + 2];
+		read(file, 0, header, header.length);
+		if (!Arrays.equals(Arrays.copyOf(header, SQLITE_HEADER.length), SQLITE_HEADER)) {
+			return -1;
+		}
+		int pageSize = ((header[PAGE_SIZE_OFFSET] & 0xFF) << 8) | (header[PAGE_SIZE_OFFSET + 1] & 0xFF);
+		if (pageSize == 1) {
+			pageSize = 65536;
+		}
+		if (pageSize < 512 || Integer.bitCount(pageSize) != 1 || size % pageSize != 0
+				|| size / pageSize > Integer.MAX_VALUE) {
+			return -1;
+		}
+		return pageSize;
+	}
+
+	/**
+	 * Compares every page of a window with the page at the same offset of the
+	 * previous file.
+	 */
+	private static final class PageEncoder implements PatchEncoder {
+
+		private final FileChannel source;
+		private final long sourceSize;
+		private final int pageSize;
+		private final long targetSize;
+		private final OutputStream out;
+		private final CRC32 checksum = new CRC32();
+		private byte[] previous;
+		private boolean headerWritten;
+
+		private PageEncoder(FileChannel source, int pageSize, long targetSize, OutputStream out) throws IOException {
+			this.source = source;
+			this.sourceSize = source.size();
+			this.pageSize = pageSize;
+			this.targetSize = targetSize;
+			this.out = out;
+		}
+
+		@Override
+		public void encode(byte[] window, int length, long position) throws IOException {
+			if (!headerWritten) {
+				ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 13);
+				header.put(MAGIC).put((byte) VERSION).putInt(pageSize).putInt((int) (sourceSize / pageSize))
+						.putInt((int) (targetSize / pageSize));
+				out.write(header.array());
+				headerWritten = true;
+			}
+			checksum.update(window, 0, length);
+
+			int common = (int) Math.max(0, Math.min(length, sourceSize - position));
+			if (previous == null || previous.length < common) {
+				previous = new byte[window.length];
+			}
+			read(source, position, previous, common);
+
+			for (int offset = 0; offset < length; offset += pageSize) {
+				if (offset >= common || !ByteBuffer.wrap(window, offset, pageSize)
+						.equals(ByteBuffer.wrap(previous, offset, pageSize))) {
+					writeInt((int) ((position + offset) / pageSize));
+					out.write(window, offset, pageSize);
+				}
+			}
+		}
+
+		@Override
+		public void finish() throws IOException {
+			writeInt(END);
+			writeInt((int) checksum.getValue());
+		}
+
+		private void writeInt(int value) throws IOException {
+			out.write(value >>> 24);
+			out.write(value >>> 16);
+			out.write(value >>> 8);
+			out.write(value);
+		}
+	}
+}
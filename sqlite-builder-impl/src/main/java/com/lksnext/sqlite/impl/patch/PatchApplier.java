@@ -0,0 +1,116 @@
+package com.lksnext.sqlite.impl.patch;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import com.davidehrmann.vcdiff.VCDiffDecoderBuilder;
+import com.lksnext.sqlite.PatchFormat;
+
+/**
+ * Applies patches written by {@link PatchWriter}s, telling their format from
+ * their first bytes.
+ */
+public final class PatchApplier {
+
+	private static final byte[] VCDIFF_MAGIC = { (byte) 0xD6, (byte) 0xC3, (byte) 0xC4 };
+
+	private PatchApplier() {
+	}
+
+	/**
+	 * @return format of the patch file
+	 * @throws IOException if it is not a known patch format
+	 */
+	public static PatchFormat getFormat(Path patch) throws IOException {
+		byte[] magic = new byte[PagePatchWriter.MAGIC.length];
+		try (InputStream in = Files.newInputStream(patch)) {
+			int read = 0;
+			int n;
+			while (read < magic.length && (n = in.read(magic, read, magic.length - read)) >= 0) {
+				read += n;
+			}
+		}
+		if (Arrays.equals(magic, PagePatchWriter.MAGIC)) {
+			return PatchFormat.PAGES;
+		}
+		if (Arrays.equals(Arrays.copyOf(magic, VCDIFF_MAGIC.length), VCDIFF_MAGIC)) {
+			return PatchFormat.VCDIFF;
+		}
+		throw new IOException("Unknown patch format of " + patch);
+	}
+
+	/**
+	 * Writes the result of applying the patch to the previous file.
+	 */
+	public static void apply(Path previous, Path patch, OutputStream out) throws IOException {
+		if (getFormat(patch) == PatchFormat.PAGES) {
+			try (InputStream in = Files.newInputStream(patch)) {
+				applyPages(previous, in, out);
+			}
+			return;
+		}
+		try (FileChannel source = FileChannel.open(previous, StandardOpenOption.READ);
+				FileChannel delta = FileChannel.open(patch, StandardOpenOption.READ)) {
+			MappedByteBuffer dictionary = source.map(MapMode.READ_ONLY, 0, source.size());
+			MappedByteBuffer encoded = delta.map(MapMode.READ_ONLY, 0, delta.size());
+			VCDiffDecoderBuilder.builder().withMaxTargetFileSize(Long.MAX_VALUE).buildSimple().decode(dictionary,
+					encoded, out);
+		}
+	}
+
+	/**
+	 * Applies a page patch as it is read: the new file is written page by
+	 * page, from the patch when the page changed and from the previous file
+	 * otherwise. The result is checked against the checksum of the patch.
+	 */
+	public static void applyPages(Path previous, InputStream patch, OutputStream out) throws IOException {
+		DataInputStream in = new DataInputStream(patch);
+		byte[] magic = new byte[PagePatchWriter.MAGIC.length];
+		in.readFully(magic);
+		int version = in.readUnsignedByte();
+		if (!Arrays.equals(magic, PagePatchWriter.MAGIC) || version != PagePatchWriter.VERSION) {
+			throw new IOException("Not a page patch of version " + PagePatchWriter.VERSION);
+		}
+		int pageSize = in.readInt();
+		int sourcePages = in.readInt();
+		int targetPages = in.readInt();
+
+		try (FileChannel source = FileChannel.open(previous, StandardOpenOption.READ)) {
+			if (source.size() != (long) sourcePages * pageSize) {
+				throw new IOException("The patch is not for " + previous + ", expected " + sourcePages + " pages of "
+						+ pageSize + " bytes");
+			}
+			CRC32 checksum = new CRC32();
+			byte[] page = new byte[pageSize];
+			int nextPage = in.readInt();
+			for (int pageNumber = 0; pageNumber < targetPages; pageNumber++) {
+				if (pageNumber == nextPage) {
+					in.readFully(page);
+					nextPage = in.readInt();
+				} else if (pageNumber < sourcePages) {
+					PatchWriter.read(source, (long) pageNumber * pageSize, page, pageSize);
+				} else {
+					throw new IOException("Page " + pageNumber + " is missing from the patch");
+				}
+				checksum.update(page);
+				out.write(page);
+			}
+			if (nextPage != PagePatchWriter.END) {
+				throw new IOException("Unexpected page " + nextPage + " in the patch");
+			}
+			if (in.readInt() != (int) checksum.getValue()) {
+				throw new IOException("Checksum mismatch applying the patch to " + previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package com.lksnext.sqlite.impl.patch;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Patches from several previous versions of a file to its current version,
+ * written together on an executor.
+ * <p>
+ * The current file is read once, window by window. Every window is encoded
+ * against each previous version in parallel, and the next window is read when
+ * all of them are done, so no thread blocks waiting for another one. A patch
+ * is written to a temporary file that is renamed when complete; a patch that
+ * fails is dropped without affecting the others.
+ */
+public class PatchBatch {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PatchBatch.class);
+
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	private final PatchWriter writer;
+
+	private final Path current;
+
+	private final Executor executor;
+
+	private final List<Patch> patches = new ArrayList<Patch>();
+
+	private final CompletableFuture<Integer> done = new CompletableFuture<Integer>();
+
+	private volatile boolean cancelled;
+
+	private FileChannel target;
+
+	private long targetSize;
+
+	private byte[] window;
+
+	private long startTime;
+
+	public PatchBatch(PatchWriter writer, Path current, Executor executor) {
+		this.writer = writer;
+		this.current = current;
+		this.executor = executor;
+	}
+
+	/**
+	 * Adds the patch from a previous version, written to
+	 * <code>patchFile</code>.
+	 */
+	public PatchBatch add(String name, Path previous, Path patchFile) {
+		patches.add(new Patch(name, previous, patchFile));
+		return this;
+	}
+
+	/**
+	 * Starts writing the patches.
+	 *
+	 * @return completes with the number of patches written, when all of them
+	 *         are written or dropped
+	 */
+	public CompletableFuture<Integer> start() {
+		startTime = System.currentTimeMillis();
+		try {
+			target = FileChannel.open(current, StandardOpenOption.READ);
+			targetSize = target.size();
+			window = new byte[(int) Math.min(writer.windowSize(target), targetSize)];
+			for (Patch patch : patches) {
+				patch.open();
+			}
+			executor.execute(() -> encodeWindow(0));
+		} catch (IOException | RuntimeException e) {
+			finish(e);
+		}
+		return done;
+	}
+
+	/**
+	 * Stops writing the patches; the ones not complete yet are dropped.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public CompletableFuture<Integer> getResult() {
+		return done;
+	}
+
+	private void encodeWindow(long position) {
+		try {
+			if (cancelled) {
+				finish(null);
+				return;
+			}
+			int length = (int) Math.min(window.length, targetSize - position);
+			PatchWriter.read(target, position, window, length);
+
+			List<CompletableFuture<Void>> encodings = new ArrayList<CompletableFuture<Void>>();
+			for (Patch patch : patches) {
+				if (patch.isAlive()) {
+					encodings.add(CompletableFuture.runAsync(() -> patch.encode(window, length, position), executor));
+				}
+			}
+			long next = position + length;
+			CompletableFuture.allOf(encodings.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> {
+				if (next < targetSize && hasAlivePatches()) {
+					executeNext(() -> encodeWindow(next));
+				} else {
+					finish(null);
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			finish(e);
+		}
+	}
+
+	private void executeNext(Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			finish(e);
+		}
+	}
+
+	private boolean hasAlivePatches() {
+		for (Patch patch : patches) {
+			if (patch.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the files, renames the complete patches and deletes the rest.
+	 */
+	private void finish(Throwable failure) {
+		closeQuietly(target);
+		int written = 0;
+		for (Patch patch : patches) {
+			if (patch.complete(failure == null && !cancelled)) {
+				written++;
+			}
+		}
+		if (failure != null) {
+			LOG.error("Error generating patches to {}", current.getFileName(), failure);
+		}
+		LOG.info("{} of {} patches to {} written in {} ms{}", written, patches.size(), current.getFileName(),
+				System.currentTimeMillis() - startTime, cancelled ? ", cancelled" : "");
+		done.complete(written);
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (Exception e) {
+				LOG.debug("Unable to close patch file", e);
+			}
+		}
+	}
+
+	private final class Patch {
+
+		private final String name;
+		private final Path previous;
+		private final Path patchFile;
+		private final Path tempFile;
+
+		private FileChannel source;
+		private OutputStream out;
+		private PatchEncoder encoder;
+		private volatile boolean failed;
+
+		private Patch(String name, Path previous, Path patchFile) {
+			this.name = name;
+			this.previous = previous;
+			this.patchFile = patchFile;
+			this.tempFile = Paths.get(patchFile.toString() + TEMP_SUFFIX);
+		}
+
+		private void open() {
+			try {
+				source = FileChannel.open(previous, StandardOpenOption.READ);
+				out = new BufferedOutputStream(Files.newOutputStream(tempFile));
+				encoder = writer.newEncoder(source, target, out);
+			} catch (IOException | RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		private boolean isAlive() {
+			return !failed;
+		}
+
+		private void encode(byte[] window, int length, long position) {
+			try {
+				encoder.encode(window, length, position);
+			} catch (IOException | RuntimeException e) {
+				fail(e);
+			}
+		}
+
+		private void fail(Exception e) {
+			failed = true;
+			LOG.error("Error generating patch {} to {}", name, current.getFileName(), e);
+		}
+
+		/**
+		 * @return whether the patch was written
+		 */
+		private boolean complete(boolean keep) {
+			closeQuietly(source);
+			try {
+				if (keep && !failed) {
+					encoder.finish();
+				}
+				if (out != null) {
+					out.close();
+				}
+				if (keep && !failed) {
+					Files.move(tempFile, patchFile, StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					return true;
+				}
+			} catch (IOException e) {
+				fail(e);
+			}
+			try {
+				Files.deleteIfExists(tempFile);
+			} catch (IOException e) {
+				LOG.debug("Unable to delete {}", tempFile, e);
+			}
+			return false;
+		}
+	}
+}
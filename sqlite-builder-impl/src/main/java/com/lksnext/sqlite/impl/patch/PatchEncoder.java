@@ -0,0 +1,21 @@
+package com.lksnext.sqlite.impl.patch;
+
+import java.io.IOException;
+
+/**
+ * Encodes the windows of a new file, in order, into the patch from one
+ * previous file.
+ */
+interface PatchEncoder {
+
+	/**
+	 * Encodes the window of the new file that starts at
+	 * <code>position</code>. A single empty window encodes an empty file.
+	 */
+	void encode(byte[] window, int length, long position) throws IOException;
+
+	/**
+	 * Writes what follows the last window.
+	 */
+	void finish() throws IOException;
+}
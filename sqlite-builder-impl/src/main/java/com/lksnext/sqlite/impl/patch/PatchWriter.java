@@ -0,0 +1,58 @@
+package com.lksnext.sqlite.impl.patch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.lksnext.sqlite.PatchFormat;
+
+/**
+ * Writes patches between two versions of a file, reading the new version in
+ * windows so heap usage does not depend on the size of the files.
+ */
+public abstract class PatchWriter {
+
+	public abstract PatchFormat getFormat();
+
+	/**
+	 * @return bytes of the new file read per window
+	 */
+	abstract int windowSize(FileChannel target) throws IOException;
+
+	abstract PatchEncoder newEncoder(FileChannel source, FileChannel target, OutputStream out) throws IOException;
+
+	/**
+	 * Writes the patch that turns <code>previous</code> into
+	 * <code>current</code>.
+	 */
+	public void write(Path previous, Path current, OutputStream out) throws IOException {
+		try (FileChannel source = FileChannel.open(previous, StandardOpenOption.READ);
+				FileChannel target = FileChannel.open(current, StandardOpenOption.READ)) {
+			PatchEncoder encoder = newEncoder(source, target, out);
+			long targetSize = target.size();
+			byte[] window = new byte[(int) Math.min(windowSize(target), targetSize)];
+			long position = 0;
+			do {
+				int length = (int) Math.min(window.length, targetSize - position);
+				read(target, position, window, length);
+				encoder.encode(window, length, position);
+				position += length;
+			} while (position < targetSize);
+			encoder.finish();
+		}
+	}
+
+	static void read(FileChannel channel, long position, byte[] buffer, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, position + bytes.position()) < 0) {
+				throw new EOFException("File ended at " + (position + bytes.position()) + " while reading " + length
+						+ " bytes from " + position);
+			}
+		}
+	}
+}
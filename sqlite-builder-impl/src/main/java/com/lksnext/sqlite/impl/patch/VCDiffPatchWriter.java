@@ -0,0 +1,58 @@
+package com.lksnext.sqlite.impl.patch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import com.lksnext.sqlite.PatchFormat;
+
+/**
+ * Writes VCDIFF (RFC 3284) patches between two files with bounded heap usage.
+ * <p>
+ * The encoder only takes its dictionary as a byte array, so instead of loading
+ * the whole previous file, the new file is encoded in windows and every window
+ * gets its own dictionary: the region of the previous file around the same
+ * offset, widened by a margin on both sides. The encoder writes the source
+ * segment of every window relative to that region; the position is moved to
+ * the offset of the region in the previous file, so the result is a standard
+ * patch that decodes against the whole previous file.
+ * <p>
+ * Heap usage is about the window size plus the dictionary region, whatever the
+ * size of the files. Content that moved further than the margin is not found
+ * and is sent as literal data.
+ */
+public class VCDiffPatchWriter extends PatchWriter {
+
+	private final int windowSize;
+
+	private final int dictionaryMargin;
+
+	/**
+	 * @param windowSize bytes of the new file encoded per window
+	 * @param dictionaryMargin bytes of the previous file added to each side of
+	 *            the region used as dictionary of a window
+	 */
+	public VCDiffPatchWriter(int windowSize, int dictionaryMargin) {
+		if (windowSize <= 0 || dictionaryMargin < 0) {
+			throw new IllegalArgumentException(
+					"Invalid patch window size " + windowSize + " or dictionary margin " + dictionaryMargin);
+		}
+		this.windowSize = windowSize;
+		this.dictionaryMargin = dictionaryMargin;
+	}
+
+	@Override
+	public PatchFormat getFormat() {
+		return PatchFormat.VCDIFF;
+	}
+
+	@Override
+	int windowSize(FileChannel target) {
+		return windowSize;
+	}
+
+	@Override
+	PatchEncoder newEncoder(FileChannel source, FileChannel target, OutputStream out) throws IOException {
+		return new VCDiffWindowEncoder(source, windowSize, dictionaryMargin, out);
+	}
+}
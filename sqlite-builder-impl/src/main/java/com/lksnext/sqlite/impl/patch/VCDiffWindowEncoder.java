@@ -0,0 +1,165 @@
+package com.lksnext.sqlite.impl.patch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import com.davidehrmann.vcdiff.VCDiffEncoderBuilder;
+import com.davidehrmann.vcdiff.VCDiffStreamingEncoder;
+
+/**
+ * Encodes the windows of a new file against one previous file, in order, into
+ * a VCDIFF patch. See {@link VCDiffPatchWriter} for the layout.
+ */
+final class VCDiffWindowEncoder implements PatchEncoder {
+
+	private static final byte[] MAGIC = { (byte) 0xD6, (byte) 0xC3, (byte) 0xC4 };
+
+	private static final int VCD_DECOMPRESS = 0x01;
+	private static final int VCD_CODETABLE = 0x02;
+
+	private static final int VCD_SOURCE = 0x01;
+	private static final int VCD_TARGET = 0x02;
+
+	private final FileChannel source;
+
+	private final long sourceSize;
+
+	private final int dictionaryMargin;
+
+	private final byte[] dictionary;
+
+	private final ByteArrayOutputStream delta;
+
+	private final OutputStream out;
+
+	private boolean headerWritten;
+
+	VCDiffWindowEncoder(FileChannel source, int windowSize, int dictionaryMargin, OutputStream out) throws IOException {
+		this.source = source;
+		this.sourceSize = source.size();
+		if (sourceSize > Integer.MAX_VALUE) {
+			throw new IOException("VCDIFF source positions are limited to 2 GB, the previous file has " + sourceSize
+					+ " bytes");
+		}
+		this.dictionaryMargin = dictionaryMargin;
+		this.dictionary = new byte[(int) Math.min(sourceSize, (long) windowSize + 2L * dictionaryMargin)];
+		this.delta = new ByteArrayOutputStream(windowSize / 4 + 64);
+		this.out = out;
+	}
+
+	@Override
+	public void encode(byte[] window, int length, long position) throws IOException {
+		long dictionaryStart = Math.max(0, Math.min(position - dictionaryMargin, sourceSize - dictionary.length));
+		PatchWriter.read(source, dictionaryStart, dictionary, dictionary.length);
+
+		delta.reset();
+		VCDiffStreamingEncoder<OutputStream> encoder = VCDiffEncoderBuilder.builder().withDictionary(dictionary)
+				.buildStreaming();
+		encoder.startEncoding(delta);
+		if (length > 0) {
+			encoder.encodeChunk(window, 0, length, delta);
+		}
+		encoder.finishEncoding(delta);
+
+		relocate(delta.toByteArray(), dictionaryStart);
+		headerWritten = true;
+	}
+
+	@Override
+	public void finish() {
+		// Every window is complete once encoded
+	}
+
+	/**
+	 * Copies the encoded delta to the output, moving the source segment of
+	 * every window by the offset of the dictionary. The file header is only
+	 * written for the first window.
+	 */
+	private void relocate(byte[] delta, long dictionaryStart) throws IOException {
+		Cursor cursor = new Cursor(delta);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (cursor.next() != (MAGIC[i] & 0xFF)) {
+				throw new IOException("Unexpected VCDIFF header written by the encoder");
+			}
+		}
+		cursor.next(); // version
+		int headerIndicator = cursor.next();
+		if ((headerIndicator & VCD_DECOMPRESS) != 0) {
+			cursor.next();
+		}
+		if ((headerIndicator & VCD_CODETABLE) != 0) {
+			cursor.skip(cursor.varint());
+		}
+		if (!headerWritten) {
+			out.write(delta, 0, cursor.position);
+		}
+
+		while (cursor.position < delta.length) {
+			int windowIndicator = cursor.next();
+			out.write(windowIndicator);
+			if ((windowIndicator & (VCD_SOURCE | VCD_TARGET)) != 0) {
+				long segmentLength = cursor.varint();
+				long segmentPosition = cursor.varint();
+				if ((windowIndicator & VCD_SOURCE) != 0) {
+					segmentPosition += dictionaryStart;
+				}
+				writeVarint(out, segmentLength);
+				writeVarint(out, segmentPosition);
+			}
+			int start = cursor.position;
+			cursor.skip(cursor.varint());
+			out.write(delta, start, cursor.position - start);
+		}
+	}
+
+	/**
+	 * Writes a VCDIFF integer: base 128, most significant digit first, with the
+	 * high bit set on every byte but the last.
+	 */
+	private static void writeVarint(OutputStream out, long value) throws IOException {
+		int shift = 0;
+		while (shift < 63 && (value >>> (shift + 7)) != 0) {
+			shift += 7;
+		}
+		for (; shift > 0; shift -= 7) {
+			out.write((int) ((value >>> shift) & 0x7F) | 0x80);
+		}
+		out.write((int) (value & 0x7F));
+	}
+
+	private static final class Cursor {
+
+		private final byte[] bytes;
+		private int position;
+
+		private Cursor(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		private int next() throws IOException {
+			if (position >= bytes.length) {
+				throw new IOException("Truncated VCDIFF delta written by the encoder");
+			}
+			return bytes[position++] & 0xFF;
+		}
+
+		private long varint() throws IOException {
+			long value = 0;
+			int b;
+			do {
+				b = next();
+				value = (value << 7) | (b & 0x7F);
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		private void skip(long length) throws IOException {
+			if (length > bytes.length - position) {
+				throw new IOException("Truncated VCDIFF delta written by the encoder");
+			}
+			position += (int) length;
+		}
+	}
+}
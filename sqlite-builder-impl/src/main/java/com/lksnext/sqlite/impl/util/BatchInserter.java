@@ -0,0 +1,162 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.jooq.exception.DataAccessException;
+
+/**
+ * Inserts rows into a SQLite table through a single prepared statement,
+ * sending them to SQLite in batches of a fixed size.
+ * <p>
+ * Values are bound the same way jOOQ binds them for the SQLite dialect, so the
+ * stored values do not depend on the insert path: dates and timestamps are
+ * stored as their text representation.
+ * <p>
+ * Insert errors, such as duplicate keys, are thrown as jOOQ
+ * {@link DataAccessException}s, like the errors of the jOOQ inserts this class
+ * replaces, so a failed database does not abort the rest of a run.
+ */
+public class BatchInserter implements AutoCloseable {
+
+	private static final int NUMBER_BYTES = 8;
+
+	private final String sql;
+
+	private final PreparedStatement statement;
+
+	private final int columnCount;
+
+	private final int batchSize;
+
+	private int pending;
+
+	private long rows;
+
+	private long bytes;
+
+	private final TableFingerprint fingerprint = new TableFingerprint();
+
+	public BatchInserter(Connection connection, String tableName, String[] columns, int batchSize)
+			throws SQLException {
+		this.sql = insertSQL(tableName, columns);
+		this.statement = connection.prepareStatement(sql);
+		this.columnCount = columns.length;
+		this.batchSize = batchSize;
+	}
+
+	static String insertSQL(String tableName, String[] columns) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(quote(tableName)).append(" (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append(quote(columns[i]));
+		}
+		sql.append(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i > 0 ? ", ?" : "?");
+		}
+		return sql.append(')').toString();
+	}
+
+	static String quote(String identifier) {
+		return '"' + identifier.replace("\"", "\"\"") + '"';
+	}
+
+	public void addRow(Object[] values) {
+		try {
+			for (int i = 0; i < columnCount; i++) {
+				bind(i + 1, values[i]);
+			}
+			statement.addBatch();
+		} catch (SQLException e) {
+			throw translate(e);
+		}
+		fingerprint.add(values);
+		rows++;
+		if (++pending >= batchSize) {
+			flush();
+		}
+	}
+
+	private void bind(int index, Object value) throws SQLException {
+		if (value == null) {
+			statement.setNull(index, Types.NULL);
+			return;
+		}
+		if (value instanceof String) {
+			bytes += ((String) value).length();
+		} else if (value instanceof byte[]) {
+			bytes += ((byte[]) value).length;
+		} else {
+			bytes += NUMBER_BYTES;
+		}
+
+		if (value instanceof String) {
+			statement.setString(index, (String) value);
+		} else if (value instanceof Long) {
+			statement.setLong(index, ((Long) value).longValue());
+		} else if (value instanceof Double) {
+			statement.setDouble(index, ((Double) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			statement.setBoolean(index, ((Boolean) value).booleanValue());
+		} else if (value instanceof BigDecimal) {
+			statement.setBigDecimal(index, (BigDecimal) value);
+		} else if (value instanceof java.util.Date) {
+			statement.setString(index, value.toString());
+		} else {
+			statement.setObject(index, value);
+		}
+	}
+
+	public void flush() {
+		if (pending > 0) {
+			try {
+				statement.executeBatch();
+			} catch (SQLException e) {
+				throw translate(e);
+			}
+			pending = 0;
+		}
+	}
+
+	private DataAccessException translate(SQLException e) {
+		return new DataAccessException("SQL [" + sql + "]; " + e.getMessage(), e);
+	}
+
+	/**
+	 * @return number of rows added to this inserter
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return approximate bytes of the values added to this inserter, as
+	 *         stored by SQLite: the length of text and blobs, eight bytes for
+	 *         any other value
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return fingerprint of the rows added to this inserter
+	 */
+	public TableFingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Closes the statement. Rows added since the last {@link #flush()} are
+	 * discarded.
+	 */
+	@Override
+	public void close() throws SQLException {
+		statement.close();
+	}
+}
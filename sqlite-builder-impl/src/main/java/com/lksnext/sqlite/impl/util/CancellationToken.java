@@ -0,0 +1,87 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancellation of a build. Source queries register their statement while they
+ * run, so cancelling stops them instead of waiting for them to end, and the
+ * build checks the token between its steps.
+ */
+public class CancellationToken {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CancellationToken.class);
+
+	private final Set<Statement> statements = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>());
+
+	private final Set<Runnable> listeners = Collections.newSetFromMap(new ConcurrentHashMap<Runnable, Boolean>());
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Cancels the build and its running source queries, and notifies the
+	 * listeners. Queries registered afterwards are cancelled as they register.
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (Statement statement : statements) {
+			cancel(statement);
+		}
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws CancellationException if the build has been cancelled
+	 */
+	public void throwIfCancelled() {
+		if (cancelled) {
+			throw new CancellationException("Database build cancelled");
+		}
+	}
+
+	public void register(Statement statement) {
+		statements.add(statement);
+		if (cancelled) {
+			cancel(statement);
+		}
+	}
+
+	public void unregister(Statement statement) {
+		statements.remove(statement);
+	}
+
+	/**
+	 * Runs <code>listener</code> when the build is cancelled, at once if it
+	 * already is. It may run more than once.
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+		if (cancelled) {
+			listener.run();
+		}
+	}
+
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	private static void cancel(Statement statement) {
+		try {
+			statement.cancel();
+		} catch (Exception e) {
+			LOG.debug("Unable to cancel source query", e);
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jooq.DataType;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * Describes how the columns of a source {@link ResultSet} are imported into
+ * SQLite. The plan is compiled once per result set from its metadata: column
+ * names, <code>#type#</code> forced types, SQLite types and the getter used to
+ * read each column are resolved up front, so reading a row only calls the
+ * typed getters of the result set.
+ * <p>
+ * A plan keeps per-column state and must be used by one thread at a time.
+ */
+public final class ColumnPlan {
+
+	static final String SQLITE_PK_COLUMN = "id";
+	private static final String SQLITE_ALT_PK_COLUMN = "_id";
+	private static final Pattern COLUMN_NAME_PATTERN = Pattern.compile("^(\\w+)(?:\\#(\\w+)\\#)?$");
+
+	private final String[] columnNames;
+
+	private final DataType<?>[] dataTypes;
+
+	private final ColumnReader[] readers;
+
+	private final boolean pkDefined;
+
+	private ColumnPlan(String[] columnNames, DataType<?>[] dataTypes, ColumnReader[] readers, boolean pkDefined) {
+		this.columnNames = columnNames;
+		this.dataTypes = dataTypes;
+		this.readers = readers;
+		this.pkDefined = pkDefined;
+	}
+
+	public static ColumnPlan compile(ResultSetMetaData metaData) throws SQLException {
+		int columnCount = metaData.getColumnCount();
+		String[] columnNames = new String[columnCount];
+		DataType<?>[] dataTypes = new DataType<?>[columnCount];
+		ColumnReader[] readers = new ColumnReader[columnCount];
+		boolean pkDefined = false;
+
+		for (int i = 0; i < columnCount; i++) {
+			int index = i + 1;
+			String rawColumnName = metaData.getColumnLabel(index).toLowerCase();
+			String columnName = rawColumnName;
+			Integer forcedType = null;
+
+			if (columnName.equals(SQLITE_ALT_PK_COLUMN) || columnName.equals(SQLITE_PK_COLUMN)) {
+				columnName = SQLITE_PK_COLUMN;
+				pkDefined = true;
+			} else {
+				Matcher matcher = COLUMN_NAME_PATTERN.matcher(rawColumnName);
+				if (matcher.matches()) {
+					columnName = matcher.group(1);
+					String forcedTypeName = matcher.group(2);
+					if (forcedTypeName != null) {
+						forcedType = translateForcedType(forcedTypeName);
+					}
+				}
+			}
+
+			int sqlType = forcedType != null ? forcedType.intValue() : metaData.getColumnType(index);
+			columnNames[i] = columnName;
+
+			switch (sqlType) {
+			case (Types.BIT):
+			case (Types.CHAR):
+			case (Types.VARCHAR):
+			case (Types.NVARCHAR):
+				dataTypes[i] = SQLDataType.CLOB;
+				readers[i] = new StringReader(index);
+				break;
+			case (Types.DECIMAL):
+			case (Types.NUMERIC):
+			case (Types.FLOAT):
+				if (metaData.getScale(index) == 0) {
+					dataTypes[i] = SQLDataType.INTEGER;
+					readers[i] = new LongReader(index);
+				} else {
+					dataTypes[i] = SQLDataType.REAL;
+					readers[i] = new BigDecimalReader(index);
+				}
+				break;
+			case (Types.DOUBLE):
+				dataTypes[i] = SQLDataType.REAL;
+				readers[i] = new DoubleReader(index);
+				break;
+			case (Types.INTEGER):
+				dataTypes[i] = SQLDataType.INTEGER;
+				readers[i] = new LongReader(index);
+				break;
+			case (Types.TIMESTAMP):
+			case (Types.DATE):
+				// Resolved from the first value, see getDataType
+				dataTypes[i] = null;
+				if (forcedType == null) {
+					readers[i] = new DateOrTimestampReader(index);
+				} else if (forcedType.intValue() == Types.TIMESTAMP) {
+					readers[i] = new TimestampReader(index);
+				} else {
+					readers[i] = new DateReader(index);
+				}
+				break;
+			default:
+				// Types without a SQLite mapping are imported as empty text columns
+				dataTypes[i] = SQLDataType.CLOB;
+				readers[i] = NullReader.INSTANCE;
+				break;
+			}
+		}
+
+		return new ColumnPlan(columnNames, dataTypes, readers, pkDefined);
+	}
+
+	private static Integer translateForcedType(String typeName) {
+		Class<Types> typesClass = Types.class;
+		try {
+			Field field = typesClass.getField(typeName.toUpperCase());
+			return field.getInt(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	public int size() {
+		return columnNames.length;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames.clone();
+	}
+
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	/**
+	 * @return whether the result set has an <code>id</code> or <code>_id</code>
+	 *         column to be used as primary key
+	 */
+	public boolean isPkDefined() {
+		return pkDefined;
+	}
+
+	public boolean isPkColumn(int column) {
+		return SQLITE_PK_COLUMN.equals(columnNames[column]);
+	}
+
+	/**
+	 * Returns the SQLite type of a column. Dates are stored as
+	 * {@link SQLDataType#DATE} or {@link SQLDataType#TIMESTAMP} depending on the
+	 * value read for the first row.
+	 *
+	 * @param column     index of the column, starting at 0
+	 * @param firstValue value of the column in the first row
+	 */
+	public DataType<?> getDataType(int column, Object firstValue) {
+		DataType<?> dataType = dataTypes[column];
+		if (dataType != null) {
+			return dataType;
+		}
+		return firstValue instanceof java.sql.Date ? SQLDataType.DATE : SQLDataType.TIMESTAMP;
+	}
+
+	/**
+	 * Reads the current row of the result set into <code>row</code>.
+	 */
+	public void read(ResultSet resultSet, Object[] row) throws SQLException {
+		for (int i = 0; i < readers.length; i++) {
+			row[i] = readers[i].read(resultSet);
+		}
+	}
+
+	private interface ColumnReader {
+		Object read(ResultSet resultSet) throws SQLException;
+	}
+
+	private static final class NullReader implements ColumnReader {
+		private static final NullReader INSTANCE = new NullReader();
+
+		@Override
+		public Object read(ResultSet resultSet) {
+			return null;
+		}
+	}
+
+	private static final class StringReader implements ColumnReader {
+		private final int index;
+
+		private StringReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object read(ResultSet resultSet) throws SQLException {
+			return resultSet.getString(index);
+		}
+	}
+
+	private static final class LongReader implements ColumnReader {
+		private final int index;
+
+		private LongReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object read(ResultSet resultSet) throws SQLException {
+			return resultSet.getLong(index);
+		}
+	}
+
+	private static final class DoubleReader implements ColumnReader {
+		private final int index;
+
+		private DoubleReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object read(ResultSet resultSet) throws SQLException {
+			return resultSet.getDouble(index);
+		}
+	}
+
+	private static final class BigDecimalReader implements ColumnReader {
+		private final int index;
+
+		private BigDecimalReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object read(ResultSet resultSet) throws SQLException {
+			return resultSet.getBigDecimal(index);
+		}
+	}
+
+	private static final class DateReader implements ColumnReader {
+		private final int index;
+
+		private DateReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object read(ResultSet resultSet) throws SQLException {
+			return resultSet.getDate(index);
+		}
+	}
+
+	private static final class TimestampReader implements ColumnReader {
+		private final int index;
+
+		private TimestampReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object read(ResultSet resultSet) throws SQLException {
+			return resultSet.getTimestamp(index);
+		}
+	}
+
+	/**
+	 * Reads a date, or a timestamp when the value has a time part.
+	 */
+	private static final class DateOrTimestampReader implements ColumnReader {
+		private final int index;
+		private final Calendar calendar = Calendar.getInstance();
+
+		private DateOrTimestampReader(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Object read(ResultSet resultSet) throws SQLException {
+			java.sql.Date date = resultSet.getDate(index);
+			if (date == null) {
+				return null;
+			}
+			calendar.setTime(date);
+			if (calendar.get(Calendar.HOUR_OF_DAY) == 0 && calendar.get(Calendar.MINUTE) == 0
+					&& calendar.get(Calendar.SECOND) == 0) {
+				return date;
+			}
+			return resultSet.getTimestamp(index);
+		}
+	}
+}
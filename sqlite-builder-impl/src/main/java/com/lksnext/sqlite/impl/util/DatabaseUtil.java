@@ -22,14 +22,23 @@ public class DatabaseUtil {
 
 	public static GenericTable executeQuery(DSLContext create, DataSource ds, String query, String tableName)
 			throws SQLException {
+		return executeQuery(create, ds, query, tableName, ImportOptions.defaults());
+	}
+
+	public static GenericTable executeQuery(DSLContext create, DataSource ds, String query, String tableName,
+			ImportOptions options) throws SQLException {
 		
 		Connection con = DataSourceUtils.getConnection(ds);
-		try (Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
-				ResultSet rs = stmt.executeQuery(query);) {
-			rs.setFetchSize(10000);
-			
-			return ResultSetImporter.convertResultSetSQLite(create, rs, tableName);
-
+		try (Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			options.getCancellation().register(stmt);
+			long queryStart = System.nanoTime();
+			try (ResultSet rs = stmt.executeQuery(query)) {
+				rs.setFetchSize(10000);
+
+				return ResultSetImporter.convertResultSetSQLite(create, rs, tableName, options, queryStart);
+			} finally {
+				options.getCancellation().unregister(stmt);
+			}
 		} finally {
 			DataSourceUtils.releaseConnection(con, ds);
 		}
@@ -66,6 +75,11 @@ public class DatabaseUtil {
 
 	public static GenericTable executeQuery(DSLContext create, DataSource ds, String query, String tableName,
 			Map<String, String> params) throws SQLException {
+		return executeQuery(create, ds, NamedQuery.parse(query), tableName, params, ImportOptions.defaults());
+	}
+
+	public static GenericTable executeQuery(DSLContext create, DataSource ds, NamedQuery query, String tableName,
+			Map<String, String> params, ImportOptions options) throws SQLException {
 
 		ResultSet rs = null;
 		Connection con = DataSourceUtils.getConnection(ds);
@@ -77,10 +91,16 @@ public class DatabaseUtil {
 				stmt.setString(p.getKey(), p.getValue());
 			}
 
-			rs = stmt.executeQuery();
-			rs.setFetchSize(10000);
+			options.getCancellation().register(stmt.getStatement());
+			try {
+				long queryStart = System.nanoTime();
+				rs = stmt.executeQuery();
+				rs.setFetchSize(10000);
 
-			return ResultSetImporter.convertResultSetSQLite(create, rs, tableName);
+				return ResultSetImporter.convertResultSetSQLite(create, rs, tableName, options, queryStart);
+			} finally {
+				options.getCancellation().unregister(stmt.getStatement());
+			}
 		} catch (DataAccessException e) {
 			LOG.error("Error importing table {}", tableName, e);
 			LOG.error("Query: {}", query);
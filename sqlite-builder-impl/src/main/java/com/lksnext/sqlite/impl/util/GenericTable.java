@@ -10,6 +10,12 @@ public class GenericTable extends TableImpl<Record> {
 
     private static final long serialVersionUID = -4571092839737556261L;
 
+    private transient TableFingerprint fingerprint;
+
+    private long bytes;
+
+    private long firstRowTime = -1;
+
     public GenericTable(Name name) {
         super(name);
     }
@@ -18,4 +24,44 @@ public class GenericTable extends TableImpl<Record> {
         createField(DSL.name(fieldName), type);
     }
 
+    /**
+     * @return fingerprint of the imported rows, or <code>null</code> when the
+     *         import found no rows and created no table
+     */
+    public TableFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(TableFingerprint fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public long getRowCount() {
+        return fingerprint != null ? fingerprint.getRows() : 0L;
+    }
+
+    /**
+     * @return approximate bytes of the imported values, see
+     *         {@link BatchInserter#getBytes()}
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return nanoseconds from the execution of the source query to its first
+     *         row, or <code>-1</code> if it returned no rows
+     */
+    public long getFirstRowTime() {
+        return firstRowTime;
+    }
+
+    public void setFirstRowTime(long firstRowTime) {
+        this.firstRowTime = firstRowTime;
+    }
+
 }
@@ -0,0 +1,99 @@
+package com.lksnext.sqlite.impl.util;
+
+/**
+ * Settings that tune how a source query is imported into a SQLite table.
+ */
+public class ImportOptions {
+
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	public static final int DEFAULT_PIPELINE_CAPACITY = 4;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private boolean pipelined;
+
+	private int pipelineCapacity = DEFAULT_PIPELINE_CAPACITY;
+
+	private boolean bulkLoad;
+
+	private CancellationToken cancellation = new CancellationToken();
+
+	public static ImportOptions defaults() {
+		return new ImportOptions();
+	}
+
+	/**
+	 * @return a copy of these options with another cancellation token
+	 */
+	public ImportOptions withCancellation(CancellationToken cancellation) {
+		ImportOptions options = new ImportOptions();
+		options.batchSize = batchSize;
+		options.pipelined = pipelined;
+		options.pipelineCapacity = pipelineCapacity;
+		options.bulkLoad = bulkLoad;
+		options.cancellation = cancellation;
+		return options;
+	}
+
+	/**
+	 * @return number of rows bound to the insert statement before the batch is
+	 *         sent to SQLite
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+	}
+
+	/**
+	 * @return whether the source rows are fetched on a separate thread while
+	 *         the previous ones are written into SQLite
+	 */
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * @return number of fetched batches that can wait to be written before the
+	 *         fetch thread blocks
+	 */
+	public int getPipelineCapacity() {
+		return pipelineCapacity;
+	}
+
+	public void setPipelineCapacity(int pipelineCapacity) {
+		this.pipelineCapacity = pipelineCapacity > 0 ? pipelineCapacity : DEFAULT_PIPELINE_CAPACITY;
+	}
+
+	/**
+	 * @return whether rows are loaded into an unkeyed staging table and then
+	 *         copied, sorted by primary key, into the final table
+	 */
+	public boolean isBulkLoad() {
+		return bulkLoad;
+	}
+
+	public void setBulkLoad(boolean bulkLoad) {
+		this.bulkLoad = bulkLoad;
+	}
+
+	/**
+	 * @return token the source queries register with, to be cancelled with
+	 *         the build
+	 */
+	public CancellationToken getCancellation() {
+		return cancellation;
+	}
+
+	public void setCancellation(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+
+}
@@ -104,6 +104,26 @@ public class NamedParameterStatement implements AutoCloseable {
 		statement = connection.prepareStatement(sqlCode, resultSetType, resultSetConcurrency);
 	}
 
+	/**
+	 * Creates a NamedParameterStatement from an already parsed query.
+	 *
+	 * @param connection the database connection
+	 * @param query      the parsed query
+	 * @throws SQLException if the statement could not be created
+	 */
+	public NamedParameterStatement(Connection connection, NamedQuery query) throws SQLException {
+		indexMap = query.getIndexMap();
+		sqlCode = query.getSqlCode();
+		statement = connection.prepareStatement(sqlCode);
+	}
+
+	public NamedParameterStatement(Connection connection, NamedQuery query, int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		indexMap = query.getIndexMap();
+		sqlCode = query.getSqlCode();
+		statement = connection.prepareStatement(sqlCode, resultSetType, resultSetConcurrency);
+	}
+
 	/**
 	 * Parses a query with named parameters. The parameter-index mappings are put
 	 * into the map, and the parsed query is returned. DO NOT CALL FROM CLIENT CODE.
@@ -0,0 +1,60 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A query with named parameters parsed once into the JDBC form used by
+ * {@link NamedParameterStatement}. Instances are immutable and can be shared
+ * between threads and statements.
+ */
+public final class NamedQuery {
+
+	private final String query;
+
+	private final String sqlCode;
+
+	private final Map<String, int[]> indexMap;
+
+	private NamedQuery(String query, String sqlCode, Map<String, int[]> indexMap) {
+		this.query = query;
+		this.sqlCode = sqlCode;
+		this.indexMap = Collections.unmodifiableMap(indexMap);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static NamedQuery parse(String query) {
+		Map indexMap = new HashMap();
+		String sqlCode = NamedParameterStatement.parse(query, indexMap);
+		return new NamedQuery(query, sqlCode, indexMap);
+	}
+
+	/**
+	 * @return the query as written, with the named parameters
+	 */
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * @return the query with the named parameters replaced by question marks
+	 */
+	public String getSqlCode() {
+		return sqlCode;
+	}
+
+	public Set<String> getParameterNames() {
+		return indexMap.keySet();
+	}
+
+	Map<String, int[]> getIndexMap() {
+		return indexMap;
+	}
+
+	@Override
+	public String toString() {
+		return query;
+	}
+}
@@ -0,0 +1,287 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip archive with a single file, deflating it in blocks on an
+ * executor.
+ * <p>
+ * Blocks are deflated independently, each one primed with the last 32 KB of
+ * the block before it as dictionary, and all but the last one end with a sync
+ * flush, so the compressed blocks concatenate into one deflate stream that any
+ * unzip tool reads. The ratio is within a fraction of a percent of deflating
+ * the whole file at once. The CRC is computed on the reading thread while the
+ * blocks are deflated.
+ * <p>
+ * The sizes and CRC are written to the local header once known, instead of
+ * using a data descriptor, and ZIP64 records are used for files that may not
+ * fit the 32 bit fields.
+ */
+public class ParallelZipWriter {
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_LOCATOR = 0x07064b50;
+	private static final short ZIP64_EXTRA = 0x0001;
+
+	private static final short VERSION_DEFLATE = 20;
+	private static final short VERSION_ZIP64 = 45;
+	private static final short METHOD_DEFLATED = 8;
+
+	private static final long MAX_32 = 0xFFFFFFFFL;
+
+	private final int blockSize;
+
+	private final int level;
+
+	private final int maxPendingBlocks;
+
+	private final Executor executor;
+
+	/**
+	 * @param blockSize bytes of the file deflated per task
+	 * @param level deflate level, 0 to 9 or -1 for the default one
+	 * @param maxPendingBlocks blocks read and not written yet, which bounds the
+	 *            memory used
+	 */
+	public ParallelZipWriter(int blockSize, int level, int maxPendingBlocks, Executor executor) {
+		if (blockSize < DICTIONARY_SIZE || maxPendingBlocks < 1) {
+			throw new IllegalArgumentException(
+					"Invalid zip block size " + blockSize + " or pending blocks " + maxPendingBlocks);
+		}
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid zip compression level " + level);
+		}
+		this.blockSize = blockSize;
+		this.level = level;
+		this.maxPendingBlocks = maxPendingBlocks;
+		this.executor = executor;
+	}
+
+	/**
+	 * Writes <code>zip</code> with the content of <code>file</code> as its
+	 * only entry.
+	 *
+	 * @return the size of the archive
+	 */
+	public long write(Path file, String entryName, Path zip) throws IOException {
+		byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(zip, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = in.size();
+			// Stored blocks add 5 bytes every 64 KB, and each sync flush 5 more
+			boolean zip64 = size + (size >> 3) + 1024 >= MAX_32;
+			int time = dosTime(System.currentTimeMillis());
+
+			writeFully(out, localHeader(name, time, zip64, 0, 0, 0));
+			long dataStart = out.position();
+			CRC32 crc = new CRC32();
+			deflate(in, size, out, crc);
+			long compressedSize = out.position() - dataStart;
+
+			long centralStart = out.position();
+			writeFully(out, centralHeader(name, time, zip64, crc.getValue(), compressedSize, size));
+			long centralSize = out.position() - centralStart;
+			writeFully(out, endOfCentralDirectory(zip64, centralStart, centralSize));
+			long zipSize = out.position();
+
+			out.write(localHeader(name, time, zip64, crc.getValue(), compressedSize, size), 0);
+			return zipSize;
+		}
+	}
+
+	private void deflate(FileChannel in, long size, FileChannel out, CRC32 crc) throws IOException {
+		Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<CompletableFuture<byte[]>>();
+		byte[] dictionary = null;
+		long position = 0;
+		try {
+			do {
+				int length = (int) Math.min(blockSize, size - position);
+				byte[] block = new byte[length];
+				readFully(in, position, block);
+				crc.update(block);
+				position += length;
+
+				byte[] blockDictionary = dictionary;
+				boolean last = position >= size;
+				pending.add(CompletableFuture.supplyAsync(() -> deflateBlock(block, blockDictionary, last), executor));
+				dictionary = length >= DICTIONARY_SIZE ? Arrays.copyOfRange(block, length - DICTIONARY_SIZE, length)
+						: null;
+
+				while (pending.size() >= maxPendingBlocks || (last && !pending.isEmpty())) {
+					writeFully(out, ByteBuffer.wrap(pending.poll().get()));
+				}
+			} while (position < size);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while deflating " + size + " bytes");
+		} catch (ExecutionException e) {
+			throw new IOException("Error deflating block", e.getCause());
+		} finally {
+			pending.forEach(block -> block.cancel(false));
+		}
+	}
+
+	private byte[] deflateBlock(byte[] block, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(block);
+			if (last) {
+				deflater.finish();
+			}
+			int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+			byte[] buffer = new byte[block.length + (block.length >> 4) + 64];
+			int length = 0;
+			while (true) {
+				length += deflater.deflate(buffer, length, buffer.length - length, flush);
+				boolean done = last ? deflater.finished() : length < buffer.length;
+				if (done) {
+					return Arrays.copyOf(buffer, length);
+				}
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static ByteBuffer localHeader(byte[] name, int time, boolean zip64, long crc, long compressedSize,
+			long size) {
+		ByteBuffer header = buffer(30 + name.length + (zip64 ? 20 : 0));
+		header.putInt(LOCAL_HEADER);
+		header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFLATE);
+		header.putShort((short) 0);
+		header.putShort(METHOD_DEFLATED);
+		header.putInt(time);
+		header.putInt((int) crc);
+		header.putInt((int) (zip64 ? MAX_32 : compressedSize));
+		header.putInt((int) (zip64 ? MAX_32 : size));
+		header.putShort((short) name.length);
+		header.putShort((short) (zip64 ? 20 : 0));
+		header.put(name);
+		if (zip64) {
+			header.putShort(ZIP64_EXTRA);
+			header.putShort((short) 16);
+			header.putLong(size);
+			header.putLong(compressedSize);
+		}
+		header.flip();
+		return header;
+	}
+
+	private static ByteBuffer centralHeader(byte[] name, int time, boolean zip64, long crc, long compressedSize,
+			long size) {
+		ByteBuffer header = buffer(46 + name.length + (zip64 ? 20 : 0));
+		header.putInt(CENTRAL_HEADER);
+		header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFLATE);
+		header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFLATE);
+		header.putShort((short) 0);
+		header.putShort(METHOD_DEFLATED);
+		header.putInt(time);
+		header.putInt((int) crc);
+		header.putInt((int) (zip64 ? MAX_32 : compressedSize));
+		header.putInt((int) (zip64 ? MAX_32 : size));
+		header.putShort((short) name.length);
+		header.putShort((short) (zip64 ? 20 : 0));
+		// Comment length, disk, internal and external attributes
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putInt(0);
+		// The local header is at the start of the file
+		header.putInt(0);
+		header.put(name);
+		if (zip64) {
+			header.putShort(ZIP64_EXTRA);
+			header.putShort((short) 16);
+			header.putLong(size);
+			header.putLong(compressedSize);
+		}
+		header.flip();
+		return header;
+	}
+
+	private static ByteBuffer endOfCentralDirectory(boolean zip64, long centralStart, long centralSize) {
+		ByteBuffer end = buffer(22 + (zip64 ? 76 : 0));
+		if (zip64) {
+			long zip64End = centralStart + centralSize;
+			end.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+			end.putLong(44);
+			end.putShort(VERSION_ZIP64);
+			end.putShort(VERSION_ZIP64);
+			end.putInt(0);
+			end.putInt(0);
+			end.putLong(1);
+			end.putLong(1);
+			end.putLong(centralSize);
+			end.putLong(centralStart);
+
+			end.putInt(ZIP64_LOCATOR);
+			end.putInt(0);
+			end.putLong(zip64End);
+			end.putInt(1);
+		}
+		end.putInt(END_OF_CENTRAL_DIRECTORY);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) 1);
+		end.putShort((short) 1);
+		end.putInt((int) centralSize);
+		end.putInt((int) (zip64 ? MAX_32 : centralStart));
+		end.putShort((short) 0);
+		end.flip();
+		return end;
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int dosTime(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+		int year = Math.max(calendar.get(Calendar.YEAR), 1980);
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private static void readFully(FileChannel in, long position, byte[] block) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(block);
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+}
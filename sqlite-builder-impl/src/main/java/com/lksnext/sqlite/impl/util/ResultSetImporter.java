@@ -1,197 +1,224 @@
 package com.lksnext.sqlite.impl.util;
 
 import static org.jooq.impl.DSL.constraint;
-import static org.jooq.impl.DSL.field;
-import static org.jooq.impl.DSL.name;
-import static org.jooq.impl.DSL.table;
 
-import java.lang.reflect.Field;
+import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Types;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.jooq.ConnectionProvider;
 import org.jooq.CreateTableColumnStep;
 import org.jooq.DDLQuery;
 import org.jooq.DSLContext;
 import org.jooq.DataType;
-import org.jooq.InsertSetMoreStep;
-import org.jooq.InsertSetStep;
-import org.jooq.Record;
 import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
 import org.jooq.impl.SQLDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 public class ResultSetImporter {
 	
-    private static final String SQLITE_PK_COLUMN = "id";
-    private static final String COLUMN_NAME_REGEX = "^(\\w+)(?:\\#(\\w+)\\#)?$";
+    private static final String SQLITE_PK_COLUMN = ColumnPlan.SQLITE_PK_COLUMN;
     private static final String WITHOUT_ROWID_SQL = "WITHOUT ROWID";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResultSetImporter.class);
+
+    private static final ExecutorService FETCH_EXECUTOR = Executors
+            .newCachedThreadPool(daemonThreadFactory("sqlite-fetch-"));
     
-    @SuppressWarnings("resource")
     public static GenericTable convertResultSetSQLite(DSLContext create, ResultSet resultSet, String tableName)
             throws DataAccessException, SQLException {
-        boolean first = true;
-        boolean pkDefined = false;
+        return convertResultSetSQLite(create, resultSet, tableName, ImportOptions.defaults());
+    }
 
-        DDLQuery createTableQuery = (DDLQuery) create.createTable(tableName);
+    /**
+     * Creates the table <code>tableName</code> from the columns of the result
+     * set and inserts all its rows. The rows are inserted through a single
+     * prepared statement, in batches of {@link ImportOptions#getBatchSize()}.
+     * In bulk-load mode they go through a staging table, see {@link TableLoad}.
+     * The returned table carries the fingerprint of the imported rows.
+     */
+    public static GenericTable convertResultSetSQLite(DSLContext create, ResultSet resultSet, String tableName,
+            ImportOptions options) throws DataAccessException, SQLException {
+        return convertResultSetSQLite(create, resultSet, tableName, options, System.nanoTime());
+    }
 
-        GenericTable tableDefinition = new GenericTable(DSL.name(tableName));
+    /**
+     * Same as {@link #convertResultSetSQLite(DSLContext, ResultSet, String, ImportOptions)},
+     * measuring the time to the first row from <code>queryStart</code>, the
+     * {@link System#nanoTime()} the source query was executed at.
+     */
+    public static GenericTable convertResultSetSQLite(DSLContext create, ResultSet resultSet, String tableName,
+            ImportOptions options, long queryStart) throws DataAccessException, SQLException {
+        ConnectionProvider connectionProvider = create.configuration().connectionProvider();
+        Connection connection = connectionProvider.acquire();
+        try {
+            return convertResultSetSQLite(create, connection, resultSet, tableName, options, queryStart);
+        } finally {
+            connectionProvider.release(connection);
+        }
+    }
 
-        while (resultSet.next()) {
-
-            InsertSetStep<Record> insertOperation = create.insertInto(table(name(tableName)));
-            InsertSetMoreStep<Record> lastStep = null;
-
-            ResultSetMetaData rsmd = resultSet.getMetaData();
-            int total_columns = resultSet.getMetaData().getColumnCount();
-            String allColumns[] = new String[total_columns];
-            for (int i = 0; i < total_columns; i++) {
-                Object value = null;
-                
-                String rawColumnName = rsmd.getColumnLabel(i + 1).toLowerCase();
-                String columnName = rawColumnName;
-                String forcedTypeName = null;
-                Integer forcedType = null;
-
-                if (columnName.equals("_id") || columnName.equals(SQLITE_PK_COLUMN)) {
-                    columnName = SQLITE_PK_COLUMN;
-                    pkDefined = true;
-                    if (first) {
-                        createTableQuery =
-                                ((CreateTableColumnStep) createTableQuery).column(SQLITE_PK_COLUMN, SQLDataType.CLOB);
-                    }
-                } else {
-                    Pattern pattern = Pattern.compile(COLUMN_NAME_REGEX);
-                    Matcher matcher = pattern.matcher(rawColumnName);
-                    if (matcher.matches()) {
-                    	columnName = matcher.group(1);
-                        forcedTypeName = matcher.group(2);
-                        if (forcedTypeName != null) {
-                            forcedType = translateForcedType(forcedTypeName);
-                        }
-                    }
+    private static GenericTable convertResultSetSQLite(DSLContext create, Connection connection,
+            ResultSet resultSet, String tableName, ImportOptions options, long queryStart)
+            throws DataAccessException, SQLException {
+        GenericTable tableDefinition = new GenericTable(DSL.name(tableName));
+        if (!resultSet.next()) {
+            return tableDefinition;
+        }
+        tableDefinition.setFirstRowTime(System.nanoTime() - queryStart);
+
+        ColumnPlan plan = ColumnPlan.compile(resultSet.getMetaData());
+        Object[] row = new Object[plan.size()];
+        plan.read(resultSet, row);
+        TableLoad load = TableLoad.create(create, tableName, plan, row, tableDefinition, options.isBulkLoad());
+
+        if (options.isPipelined()) {
+            importPipelined(connection, resultSet, load.getLoadTable(), plan, row, options, tableDefinition);
+        } else {
+            try (BatchInserter inserter = new BatchInserter(connection, load.getLoadTable(), plan.getColumnNames(),
+                    options.getBatchSize())) {
+                inserter.addRow(row);
+                while (resultSet.next()) {
+                    plan.read(resultSet, row);
+                    inserter.addRow(row);
                 }
+                inserter.flush();
+                tableDefinition.setFingerprint(inserter.getFingerprint());
+                tableDefinition.setBytes(inserter.getBytes());
+            }
+        }
+        load.complete(create);
 
-                @SuppressWarnings("rawtypes")
-                DataType columDataType;
-                int scale = 0;
-
-
-                // SQLite TEXT type
-                columDataType = SQLDataType.CLOB;
+        return tableDefinition;
+    }
 
-                int sqlType = resultSet.getMetaData().getColumnType(i + 1);
-                if (forcedType != null) {
-                    sqlType = forcedType.intValue();
+    /**
+     * Imports the remaining rows with two threads: a fetch thread reads the
+     * source rows into a bounded {@link RowBatchQueue} while the calling thread
+     * writes the queued batches into SQLite.
+     */
+    private static void importPipelined(Connection connection, ResultSet resultSet, String tableName,
+            ColumnPlan plan, Object[] firstRow, ImportOptions options, GenericTable tableDefinition)
+            throws SQLException {
+        RowBatchQueue queue = new RowBatchQueue(options.getPipelineCapacity());
+        Future<Long> fetch = FETCH_EXECUTOR
+                .submit(new RowFetcher(resultSet, plan, tableName, options.getBatchSize(), queue));
+        try (BatchInserter inserter = new BatchInserter(connection, tableName, plan.getColumnNames(),
+                options.getBatchSize())) {
+            inserter.addRow(firstRow);
+            RowBatch batch = queue.take();
+            while (!batch.isLast()) {
+                for (Object[] row : batch.getRows()) {
+                    inserter.addRow(row);
                 }
-                switch (sqlType) {
-                    case (Types.BIT):
-                        columDataType = SQLDataType.BOOLEAN;
-                        value = resultSet.getBoolean(i + 1);
-                    case (Types.CHAR):
-                    case (Types.VARCHAR):
-                    case (Types.NVARCHAR):
-                        columDataType = SQLDataType.CLOB;
-                        value = resultSet.getString(i + 1);
-
-                        break;
-                    case (Types.DECIMAL):
-                    case (Types.NUMERIC):
-                    case (Types.FLOAT):
-                        scale = resultSet.getMetaData().getScale(i + 1);
-                        if (scale == 0) {
-                            columDataType = SQLDataType.INTEGER;
-                            value = resultSet.getLong(i + 1);
-                        } else {
-                            columDataType = SQLDataType.REAL;
-                            value = resultSet.getBigDecimal(i + 1);
-
-                        }
-                        break;
-                    case (Types.DOUBLE):
-                        scale = resultSet.getMetaData().getScale(i + 1);
-                        columDataType = SQLDataType.REAL;
-                        value = resultSet.getDouble(i + 1);
-                        break;
-                    case (Types.INTEGER):
-                        columDataType = SQLDataType.INTEGER;
-                        value = resultSet.getLong(i + 1);
-                        break;
-                    case (Types.TIMESTAMP):
-                    case (Types.DATE):
-                        value = resultSet.getDate(i + 1);
-                        if (value != null) {
-                        	if(forcedType != null && forcedType.intValue() == sqlType) {
-								columDataType = forcedType.equals(Types.TIMESTAMP) ? SQLDataType.TIMESTAMP
-										: SQLDataType.DATE;
-                        	} else  if (new SimpleDateFormat("HH:mm:ss").format((Date) value).equals("00:00:00")) {
-                                columDataType = SQLDataType.DATE;
-                            } else {
-                                columDataType = SQLDataType.TIMESTAMP;
-                            }
-                        } else {
-                            columDataType = SQLDataType.TIMESTAMP;
-                        }
-                        
-                        if (SQLDataType.TIMESTAMP.equals(columDataType)) {
-                        	value = resultSet.getTimestamp(i + 1);
-                        }
-
-                        break;
+                batch = queue.take();
+            }
+            rethrow(batch.getError());
+            inserter.flush();
+            tableDefinition.setFingerprint(inserter.getFingerprint());
+            tableDefinition.setBytes(inserter.getBytes());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while importing table " + tableName, e);
+        } finally {
+            queue.close();
+            awaitFetch(fetch, tableName);
+        }
+    }
 
-                }
+    /**
+     * The result set is closed by the caller once the import returns, so the
+     * fetch thread must be done with it.
+     */
+    private static void awaitFetch(Future<Long> fetch, String tableName) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                fetch.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                LOG.debug("Fetch of table {} failed", tableName, e.getCause());
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                if (first) {
-                    if (!SQLITE_PK_COLUMN.equals(columnName)) {
-                        createTableQuery = ((CreateTableColumnStep) createTableQuery).column(columnName, columDataType);
-                        tableDefinition.addField(columnName, columDataType);
-                    }
-                    allColumns[i] = columnName;
-                }
+    public static void rethrow(Throwable error) throws SQLException {
+        if (error == null) {
+            return;
+        }
+        if (error instanceof SQLException) {
+            throw (SQLException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        throw new SQLException(error);
+    }
 
-                if (lastStep == null) {
-                    lastStep = insertOperation.set(field(columnName), value);
-                } else {
-                    lastStep = lastStep.set(field(columnName), value);
-                }
+    /**
+     * Creates the SQLite table for the plan. The table has the <code>id</code>
+     * column as primary key or, when there is no such column, all of them.
+     */
+    public static void createTable(DSLContext create, String tableName, ColumnPlan plan, Object[] firstRow,
+            GenericTable tableDefinition) {
+        create.execute(createTableSQL(create, tableName, plan, firstRow, tableDefinition, true));
+    }
 
-            }
+    /**
+     * Renders the <code>CREATE TABLE</code> statement for the plan. Unkeyed
+     * tables have the same columns but no primary key and keep their rowid.
+     */
+    static String createTableSQL(DSLContext create, String tableName, ColumnPlan plan, Object[] firstRow,
+            GenericTable tableDefinition, boolean keyed) {
+        DDLQuery createTableQuery = (DDLQuery) create.createTable(tableName);
 
-            if (first) {
-                if (pkDefined) {
-                    createTableQuery = ((CreateTableColumnStep) createTableQuery)
-                            .constraints(constraint("PK_" + tableName).primaryKey(SQLITE_PK_COLUMN));
-                    String createTableSQL = createTableQuery.getSQL() + " " + WITHOUT_ROWID_SQL;
-                    //createTableQuery.execute();
-                    create.execute(createTableSQL);
-                } else {
-                    ((CreateTableColumnStep) createTableQuery).constraints(constraint("PK_" + tableName).primaryKey(allColumns));
-                    String createTableSQL = createTableQuery.getSQL() + " " + WITHOUT_ROWID_SQL;
-                    create.execute(createTableSQL);
+        for (int i = 0; i < plan.size(); i++) {
+            String columnName = plan.getColumnName(i);
+            if (plan.isPkColumn(i)) {
+                if (plan.isPkDefined()) {
+                    createTableQuery = ((CreateTableColumnStep) createTableQuery).column(SQLITE_PK_COLUMN,
+                            SQLDataType.CLOB);
                 }
-
+            } else {
+                DataType<?> columDataType = plan.getDataType(i, firstRow[i]);
+                createTableQuery = ((CreateTableColumnStep) createTableQuery).column(columnName, columDataType);
+                tableDefinition.addField(columnName, columDataType);
             }
-
-            lastStep.execute();
-            first = false;
         }
 
-        return tableDefinition;
-    }
-
-    private static Integer translateForcedType(String typeName) {
-        Class<Types> typesClass = Types.class;
-        try {
-            Field field = typesClass.getField(typeName.toUpperCase());
-            return field.getInt(null);
-        } catch (Exception e) {
-            return null;
+        if (!keyed) {
+            return createTableQuery.getSQL();
         }
+        if (plan.isPkDefined()) {
+            createTableQuery = ((CreateTableColumnStep) createTableQuery)
+                    .constraints(constraint("PK_" + tableName).primaryKey(SQLITE_PK_COLUMN));
+        } else {
+            createTableQuery = ((CreateTableColumnStep) createTableQuery)
+                    .constraints(constraint("PK_" + tableName).primaryKey(plan.getColumnNames()));
+        }
+        return createTableQuery.getSQL() + " " + WITHOUT_ROWID_SQL;
+    }
 
+    public static ThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
     }
 }
@@ -0,0 +1,77 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A message of a {@link RowBatchQueue}: a batch of rows read for a table, the
+ * end of the rows of the table, or the error that stopped reading them.
+ */
+public final class RowBatch {
+
+	private final String table;
+
+	private final ColumnPlan plan;
+
+	private final List<Object[]> rows;
+
+	private final boolean last;
+
+	private final Throwable error;
+
+	private RowBatch(String table, ColumnPlan plan, List<Object[]> rows, boolean last, Throwable error) {
+		this.table = table;
+		this.plan = plan;
+		this.rows = rows;
+		this.last = last;
+		this.error = error;
+	}
+
+	/**
+	 * Creates the first batch of a table, which carries the column plan the
+	 * table is created from.
+	 */
+	public static RowBatch first(String table, ColumnPlan plan, List<Object[]> rows) {
+		return new RowBatch(table, plan, rows, false, null);
+	}
+
+	public static RowBatch rows(String table, List<Object[]> rows) {
+		return new RowBatch(table, null, rows, false, null);
+	}
+
+	public static RowBatch end(String table) {
+		return new RowBatch(table, null, Collections.<Object[]>emptyList(), true, null);
+	}
+
+	public static RowBatch error(String table, Throwable error) {
+		return new RowBatch(table, null, Collections.<Object[]>emptyList(), true, error);
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * @return the column plan of the table in its first batch, otherwise
+	 *         <code>null</code>
+	 */
+	public ColumnPlan getPlan() {
+		return plan;
+	}
+
+	public List<Object[]> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return whether this is the last message for the table
+	 */
+	public boolean isLast() {
+		return last;
+	}
+
+	public Throwable getError() {
+		return error;
+	}
+
+}
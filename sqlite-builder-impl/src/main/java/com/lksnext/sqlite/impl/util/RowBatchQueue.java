@@ -0,0 +1,59 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded buffer between the threads that fetch rows from the source database
+ * and the thread that writes them into SQLite. Fetchers block while the queue
+ * is full, so the rows held in memory are capped at <code>capacity</code>
+ * batches.
+ */
+public class RowBatchQueue {
+
+	private static final long OFFER_TIMEOUT_MS = 100;
+
+	private final BlockingQueue<RowBatch> queue;
+
+	private volatile boolean closed;
+
+	public RowBatchQueue(int capacity) {
+		this.queue = new ArrayBlockingQueue<RowBatch>(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Waits for room in the queue and adds the batch to it.
+	 *
+	 * @return <code>false</code> if the writer closed the queue and the batch
+	 *         was discarded
+	 */
+	public boolean put(RowBatch batch) throws InterruptedException {
+		while (!closed) {
+			if (queue.offer(batch, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Waits for the next batch.
+	 */
+	public RowBatch take() throws InterruptedException {
+		return queue.take();
+	}
+
+	/**
+	 * Stops accepting batches and discards the pending ones, releasing the
+	 * fetchers blocked on a full queue.
+	 */
+	public void close() {
+		closed = true;
+		queue.clear();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+}
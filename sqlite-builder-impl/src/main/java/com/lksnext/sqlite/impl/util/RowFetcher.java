@@ -0,0 +1,72 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the remaining rows of a result set with a {@link ColumnPlan} and puts
+ * them into a {@link RowBatchQueue} in batches. The end of the rows, or the
+ * error that stopped reading them, is always put into the queue as the last
+ * message for the table.
+ */
+public class RowFetcher implements Callable<Long> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RowFetcher.class);
+
+	private final ResultSet resultSet;
+
+	private final ColumnPlan plan;
+
+	private final String table;
+
+	private final int batchSize;
+
+	private final RowBatchQueue queue;
+
+	public RowFetcher(ResultSet resultSet, ColumnPlan plan, String table, int batchSize, RowBatchQueue queue) {
+		this.resultSet = resultSet;
+		this.plan = plan;
+		this.table = table;
+		this.batchSize = batchSize;
+		this.queue = queue;
+	}
+
+	/**
+	 * @return number of rows fetched
+	 */
+	@Override
+	public Long call() throws InterruptedException {
+		long rows = 0;
+		try {
+			List<Object[]> batch = new ArrayList<Object[]>(batchSize);
+			while (resultSet.next()) {
+				Object[] row = new Object[plan.size()];
+				plan.read(resultSet, row);
+				batch.add(row);
+				rows++;
+				if (batch.size() >= batchSize) {
+					if (!queue.put(RowBatch.rows(table, batch))) {
+						LOG.debug("Fetch of table {} stopped by the writer after {} rows", table, rows);
+						return rows;
+					}
+					batch = new ArrayList<Object[]>(batchSize);
+				}
+			}
+			if (!batch.isEmpty() && !queue.put(RowBatch.rows(table, batch))) {
+				return rows;
+			}
+			queue.put(RowBatch.end(table));
+		} catch (InterruptedException e) {
+			queue.put(RowBatch.error(table, e));
+			throw e;
+		} catch (Exception | Error e) {
+			queue.put(RowBatch.error(table, e));
+		}
+		return rows;
+	}
+}
@@ -3,14 +3,17 @@ package com.lksnext.sqlite.impl.util;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.lksnext.sqlite.impl.lock.DatabaseLockManager;
+import com.lksnext.sqlite.impl.lock.DatabaseLockManager.DatabaseLock;
+
 public class SQLitePathUtils {
     private static final Logger LOG = LoggerFactory.getLogger(SQLitePathUtils.class);
 
@@ -18,11 +21,19 @@ public class SQLitePathUtils {
     private static String DB_EXTENSION = ".db";
     private static String LOCK_EXTENSION = ".lck";
     private static String PATCH_EXTENSION = ".patch";
+    private static String COMPRESSED_PATCH_EXTENSION = ".patch.gz";
     private static String METADATA_FILE_NAME = "metadata.json";
     private static String HYPHEN = "-";
     public static String LATEST_DB_NAME = "latest.db";
     private static String LATEST_ZIPPED_DB_NAME = "latest.zip";
 
+    /**
+     * Backs the deprecated lock methods. It excludes the locks of the
+     * {@link DatabaseLockManager} bean through the OS lock on the same files.
+     */
+    private static final DatabaseLockManager LOCK_MANAGER = new DatabaseLockManager();
+    private static final Map<File, DatabaseLock> LOCKS = new ConcurrentHashMap<File, DatabaseLock>();
+
     public static final URI getTemporalDBPath(URI tempDir, String fileName) {
         return getPath(tempDir, fileName, DB_EXTENSION);
     }
@@ -75,52 +86,97 @@ public class SQLitePathUtils {
         return getPath(getMasterdataDBFolderPath(baseUri, database), LATEST_DB_NAME);
     }
 
+    /**
+     * Patches are named after both versions, so a patch to a replaced version
+     * is never taken for one to the current version.
+     */
+    public static final URI getMasterdataPatchPath(URI baseUri, String database, String currentMd5, String md5) {
+        return getPath(getMasterdataDBFolderPath(baseUri, database), currentMd5 + HYPHEN + md5, PATCH_EXTENSION);
+    }
+
+    /**
+     * @deprecated patches are named after both versions, use
+     *             {@link #getMasterdataPatchPath(URI, String, String, String)}.
+     *             This is the name of the patches written before, after the
+     *             previous version only.
+     */
+    @Deprecated
     public static final URI getMasterdataPatchPath(URI baseUri, String database, String md5) {
         return getPath(getMasterdataDBFolderPath(baseUri, database), md5, PATCH_EXTENSION);
     }
 
+    public static final URI getMasterdataCompressedPatchPath(URI baseUri, String database, String currentMd5,
+            String md5) {
+        return getPath(getMasterdataDBFolderPath(baseUri, database), currentMd5 + HYPHEN + md5,
+                COMPRESSED_PATCH_EXTENSION);
+    }
+
+    public static final URI getMasterdataLockPath(URI baseUri, String database) {
+        return getPath(baseUri, database.toLowerCase(), LOCK_EXTENSION);
+    }
+
+    /**
+     * @deprecated the lock file exists whether the database is locked or not,
+     *             use {@link DatabaseLockManager}.
+     */
+    @Deprecated
     public static boolean isMasterdataLocked(URI tempDir, String database) {
-        return Files.exists(Paths.get(getPath(tempDir, database.toLowerCase(), LOCK_EXTENSION)));
+        if (LOCKS.containsKey(new File(getMasterdataLockPath(tempDir, database)))) {
+            return true;
+        }
+        try (DatabaseLock lock = LOCK_MANAGER.tryLock(tempDir, database, 0)) {
+            return lock == null;
+        } catch (IOException e) {
+            LOG.error("Error checking the lock of database {}", database, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
     }
 
+    /**
+     * @deprecated use {@link DatabaseLockManager#tryLock(URI, String, long)}.
+     * @return the lock file, or <code>null</code> if the database is locked
+     */
+    @Deprecated
     public static File createMasterdataLock(URI tempDir, String database) {
-    	File centerLock = new File(getPath(tempDir, database.toLowerCase(), LOCK_EXTENSION));
+        File centerLock = new File(getMasterdataLockPath(tempDir, database));
+        if (LOCKS.containsKey(centerLock)) {
+            return null;
+        }
         try {
-            FileUtils.touch(centerLock);
+            DatabaseLock lock = LOCK_MANAGER.tryLock(tempDir, database, 0);
+            if (lock == null) {
+                return null;
+            }
+            LOCKS.put(centerLock, lock);
             return centerLock;
         } catch (IOException e) {
-        	LOG.info("Error creating lock for database {} using touch ", database);
-        	LOG.info("centerLock exists: {} ", centerLock.exists());
-        	if(!centerLock.exists()) {
-        		try {
-					if(centerLock.createNewFile()) {
-						LOG.info("centerLock created");
-						return centerLock;
-					}
-				} catch (IOException e1) {
-					LOG.error("Error creating lock for database {}", database, e);
-				}
-        	} else {
-        		return centerLock;
-        	}
+            LOG.error("Error creating lock for database {}", database, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
         }
     }
 
+    /**
+     * @deprecated close the lock of {@link DatabaseLockManager} instead.
+     */
+    @Deprecated
     public static void releaseMasterdataLock(URI tempDir, String database) {
-        try {
-            File centerLock = new File(getPath(tempDir, database.toLowerCase(), LOCK_EXTENSION));
-            centerLock.delete();
-        } catch (Exception e) {
-            LOG.error("Error releasing lock for database {}", database, e);
-        }
+        releaseMasterdataLock(new File(getMasterdataLockPath(tempDir, database)));
     }
 
+    /**
+     * @deprecated close the lock of {@link DatabaseLockManager} instead.
+     */
+    @Deprecated
     public static void releaseMasterdataLock(File lock) {
-        try {
-            lock.delete();
-        } catch (Exception e) {
-            LOG.error("Error releasing lock for database", e);
+        DatabaseLock held = LOCKS.remove(lock);
+        if (held != null) {
+            held.close();
         }
     }
 }
@@ -1,27 +1,32 @@
 package com.lksnext.sqlite.impl.util;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
@@ -34,10 +39,50 @@ public class SQLiteUtils {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SQLiteUtils.class);
 
+	private static final String MEMORY_DB_URL = "jdbc:sqlite::memory:";
+
+	/**
+	 * Bytes handed to the kernel by every {@link FileChannel#transferTo} call
+	 * when a database file is cloned.
+	 */
+	private static final long TRANSFER_WINDOW = 64L * 1024 * 1024;
+
+	private static final String PARENT_SCHEMA = "parent";
+
+	private static final String PARENT_SCHEMA_SQL = "SELECT type, name, lower(tbl_name), sql FROM " + PARENT_SCHEMA
+			+ ".sqlite_master WHERE type IN ('table', 'index') AND sql IS NOT NULL AND name NOT LIKE 'sqlite_%'"
+			+ " ORDER BY CASE type WHEN 'table' THEN 0 ELSE 1 END, rowid";
+
+	private static volatile boolean driverInitialized;
+
+	/**
+	 * Loads the SQLite driver and opens a first connection from a single
+	 * thread. The native library of the driver is not safe to initialize from
+	 * several threads at the same time, which happens when databases are
+	 * generated concurrently.
+	 */
+	private static void initDriver() throws ClassNotFoundException, SQLException {
+		if (!driverInitialized) {
+			synchronized (SQLiteUtils.class) {
+				if (!driverInitialized) {
+					Class.forName("org.sqlite.JDBC");
+					DriverManager.getConnection(MEMORY_DB_URL).close();
+					driverInitialized = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a database as a clone of the file of another one.
+	 *
+	 * @throws IOException if the file cannot be copied. No partial copy is left
+	 *             behind.
+	 */
 	public static final Connection createNewDatabaseFrom(URI tempDir, String fromDBName, String toDBName)
-			throws ClassNotFoundException, URISyntaxException, SQLException {
+			throws ClassNotFoundException, URISyntaxException, SQLException, IOException {
 		LOG.info("Creating new sqlite db {} from {}", toDBName, fromDBName);
-		Class.forName("org.sqlite.JDBC");
+		initDriver();
 
 		String url = SQLitePathUtils.getDBURL(tempDir, toDBName);
 		URI destinationDbUri = SQLitePathUtils.getTemporalDBPath(tempDir, toDBName);
@@ -52,14 +97,10 @@ public class SQLiteUtils {
 			LOG.debug("Existing sqlite db deleted {}", toDBName);
 		}
 		// Copy origin db into destination
-		try {
-			try (FileInputStream input = new FileInputStream(soruceDbFile);
-					FileOutputStream output = new FileOutputStream(destinationDbFile);) {
-				IOUtils.copy(input, output);
-			}
-		} catch (Exception e) {
-			LOG.error("Error manipulating DB file {}", toDBName, e);
-		}
+		long copyTime = System.currentTimeMillis();
+		cloneFile(soruceDbFile.toPath(), destinationDbFile.toPath());
+		LOG.debug("DB file {} copied in {} ms", toDBName, System.currentTimeMillis() - copyTime);
+
 		Connection conn = DriverManager.getConnection(url);
 		LOG.debug("New database created {}", toDBName);
 		try (Statement stmt = conn.createStatement()) {
@@ -72,11 +113,127 @@ public class SQLiteUtils {
 		return conn;
 	}
 
+	/**
+	 * Creates an empty database, attaches the other one read-only and copies
+	 * the given tables from it, with their indexes.
+	 *
+	 * @param tables names of the tables to copy, <code>null</code> to copy all
+	 *            of them
+	 * @throws SQLException if a table cannot be copied or is not found. The new
+	 *             database is deleted.
+	 */
+	public static final Connection createNewDatabaseFrom(URI tempDir, String fromDBName, String toDBName,
+			Collection<String> tables) throws ClassNotFoundException, URISyntaxException, SQLException, IOException {
+		URI sourceDbUri = SQLitePathUtils.getTemporalDBPath(tempDir, fromDBName);
+		Path sourceDbFile = Paths.get(sourceDbUri);
+		Assert.isTrue(Files.exists(sourceDbFile), "The source file for " + fromDBName + " does not exists");
+
+		Connection conn = createNewDatabase(tempDir, toDBName);
+		try {
+			LOG.info("Copying tables of {} into {}", fromDBName, toDBName);
+			copyTables(conn, sourceDbFile, tables);
+		} catch (SQLException | RuntimeException e) {
+			conn.close();
+			Files.deleteIfExists(Paths.get(SQLitePathUtils.getTemporalDBPath(tempDir, toDBName)));
+			throw e;
+		}
+		return conn;
+	}
+
+	/**
+	 * Copies a file with {@link FileChannel#transferTo} in large windows, so
+	 * the bytes do not go through the heap and the kernel can offload the copy
+	 * where the file system supports it. The target is deleted if the copy
+	 * fails.
+	 */
+	static void cloneFile(Path source, Path target) throws IOException {
+		try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			long size = input.size();
+			long position = 0;
+			while (position < size) {
+				long transferred = input.transferTo(position, Math.min(TRANSFER_WINDOW, size - position), output);
+				if (transferred <= 0) {
+					throw new IOException("Copy of " + source + " stopped at " + position + " of " + size + " bytes");
+				}
+				position += transferred;
+			}
+			if (output.size() != size) {
+				throw new IOException("Copy of " + source + " has " + output.size() + " bytes instead of " + size);
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(target);
+			throw e;
+		}
+	}
+
+	/**
+	 * Copies tables and their indexes from a database attached read-only. The
+	 * pending work of the connection is committed first, since SQLite only
+	 * attaches databases outside of a transaction.
+	 */
+	private static void copyTables(Connection sqliteCon, Path source, Collection<String> tables)
+			throws SQLException {
+		Set<String> pending = null;
+		if (tables != null) {
+			pending = new HashSet<String>();
+			for (String table : tables) {
+				pending.add(table.toLowerCase(Locale.ROOT));
+			}
+		}
+
+		sqliteCon.commit();
+		sqliteCon.setAutoCommit(true);
+		try (Statement stmt = sqliteCon.createStatement()) {
+			String sourceUri = source.toUri().toString() + "?mode=ro";
+			stmt.execute("ATTACH DATABASE '" + sourceUri.replace("'", "''") + "' AS " + PARENT_SCHEMA);
+			try {
+				List<String[]> schema = new ArrayList<String[]>();
+				try (ResultSet rs = stmt.executeQuery(PARENT_SCHEMA_SQL)) {
+					while (rs.next()) {
+						if (pending == null || pending.contains(rs.getString(3))) {
+							schema.add(new String[] { rs.getString(1), rs.getString(2), rs.getString(3),
+									rs.getString(4) });
+						}
+					}
+				}
+
+				sqliteCon.setAutoCommit(false);
+				try {
+					for (String[] element : schema) {
+						stmt.execute(element[3]);
+						if ("table".equals(element[0])) {
+							int rows = stmt.executeUpdate("INSERT INTO main." + BatchInserter.quote(element[1])
+									+ " SELECT * FROM " + PARENT_SCHEMA + "." + BatchInserter.quote(element[1]));
+							LOG.debug("Copied {} rows of {}", rows, element[1]);
+							if (pending != null) {
+								pending.remove(element[2]);
+							}
+						}
+					}
+					if (pending != null && !pending.isEmpty()) {
+						throw new SQLException("Inherited tables not found: " + pending);
+					}
+					sqliteCon.commit();
+				} catch (SQLException | RuntimeException e) {
+					sqliteCon.rollback();
+					throw e;
+				}
+			} finally {
+				sqliteCon.setAutoCommit(true);
+				stmt.execute("DETACH DATABASE " + PARENT_SCHEMA);
+			}
+		} finally {
+			sqliteCon.setAutoCommit(false);
+		}
+	}
+
 	public static final Connection createNewDatabase(URI tempDir, String fileName)
 			throws URISyntaxException, SQLException, ClassNotFoundException, IOException {
 		LOG.info("Creating new sqlite db {}", fileName);
 
-		Class.forName("org.sqlite.JDBC");
+		initDriver();
 
 		Path dir = Paths.get(tempDir);
 		if (!Files.exists(dir)) {
@@ -110,9 +267,14 @@ public class SQLiteUtils {
 	
 	public static final GenericTable importData(DataSource ds, Connection sqliteConnection, String query, String table)
 			throws SQLException {
+		return importData(ds, sqliteConnection, query, table, ImportOptions.defaults());
+	}
+
+	public static final GenericTable importData(DataSource ds, Connection sqliteConnection, String query, String table,
+			ImportOptions options) throws SQLException {
 		LOG.info("Importing {}...", table);
 		DSLContext create = DSL.using(sqliteConnection, SQLDialect.SQLITE);
-		GenericTable tableDefinition = DatabaseUtil.executeQuery(create, ds, query, table);
+		GenericTable tableDefinition = DatabaseUtil.executeQuery(create, ds, query, table, options);
 		sqliteConnection.commit();
 		return tableDefinition;
 	}
@@ -135,6 +297,15 @@ public class SQLiteUtils {
 		return tableDefinition;
 	}
 
+	public static final GenericTable importData(DataSource ds, Connection sqliteConnection, NamedQuery query,
+			String table, Map<String, String> params, ImportOptions options) throws SQLException {
+		LOG.info("Importing {}...", table);
+		DSLContext create = DSL.using(sqliteConnection, SQLDialect.SQLITE);
+		GenericTable tableDefinition = DatabaseUtil.executeQuery(create, ds, query, table, params, options);
+		sqliteConnection.commit();
+		return tableDefinition;
+	}
+
 	public static final GenericTable importUserData(DataSource ds, Connection sqliteConnection, String query,
 			String table, String user) throws SQLException {
 		LOG.info("Importing {}...", table);
@@ -171,6 +342,11 @@ public class SQLiteUtils {
 
 	public static final void cleanupAction(Connection sqliteCon, String sql, Map<String, String> params)
 			throws SQLException {
+		cleanupAction(sqliteCon, NamedQuery.parse(sql), params);
+	}
+
+	public static final void cleanupAction(Connection sqliteCon, NamedQuery sql, Map<String, String> params)
+			throws SQLException {
 
 		try (NamedParameterStatement stm = new NamedParameterStatement(sqliteCon, sql)) {
 
@@ -205,4 +381,46 @@ public class SQLiteUtils {
 		DSLContext create = DSL.using(sqliteConnection, SQLDialect.SQLITE);
 		create.createIndex(indexPrefix + tableName).on(tableName, columns).execute();
 	}
+
+	public static void createIndex(Connection sqliteConnection, String indexName, String tableName,
+			List<String> columns, boolean unique) {
+		DSLContext create = DSL.using(sqliteConnection, SQLDialect.SQLITE);
+		if (unique) {
+			create.createUniqueIndexIfNotExists(indexName).on(tableName, columns.toArray(new String[0])).execute();
+		} else {
+			create.createIndexIfNotExists(indexName).on(tableName, columns.toArray(new String[0])).execute();
+		}
+	}
+
+	/**
+	 * @return lowercase names of the tables of the database, without the
+	 *         internal ones of SQLite
+	 */
+	public static final List<String> getTableNames(Connection sqliteCon) throws SQLException {
+		List<String> tables = new ArrayList<String>();
+		try (Statement stm = sqliteCon.createStatement();
+				ResultSet rs = stm.executeQuery(
+						"SELECT lower(name) FROM sqlite_master WHERE type = 'table' AND name NOT LIKE 'sqlite_%'")) {
+			while (rs.next()) {
+				tables.add(rs.getString(1));
+			}
+		}
+		return tables;
+	}
+
+	public static final boolean existsTable(Connection sqliteCon, String table) throws SQLException {
+		try (PreparedStatement stm = sqliteCon
+				.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ? COLLATE NOCASE")) {
+			stm.setString(1, table);
+			try (ResultSet rs = stm.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	public static final void analyze(Connection sqliteCon) throws SQLException {
+		try (Statement stm = sqliteCon.createStatement()) {
+			stm.execute("ANALYZE");
+		}
+	}
 }
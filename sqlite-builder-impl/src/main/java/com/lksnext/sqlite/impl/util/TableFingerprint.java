@@ -0,0 +1,131 @@
+package com.lksnext.sqlite.impl.util;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Order-independent hash of the rows of a table.
+ * <p>
+ * Every row is hashed into 128 bits, and the row hashes are added up, so the
+ * result depends on the multiset of rows but not on the order they arrive in.
+ * Fingerprints of rows imported into the same table by several elements can be
+ * merged the same way. It detects content changes between generations; it is
+ * not meant to resist crafted collisions.
+ */
+public final class TableFingerprint {
+
+	private static final long SEED_1 = 0x9E3779B97F4A7C15L;
+	private static final long SEED_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME_1 = 0x100000001B3L;
+	private static final long PRIME_2 = 0xFF51AFD7ED558CCDL;
+
+	private static final long NULL_HASH = 0x5BD1E9955BD1E995L;
+
+	private long rows;
+	private long sum1;
+	private long sum2;
+
+	/**
+	 * Hashes the rows of a SQLite table as they are stored. Used for tables
+	 * changed after their import, by cleanup statements.
+	 */
+	public static TableFingerprint ofTable(Connection sqliteCon, String tableName) throws SQLException {
+		TableFingerprint fingerprint = new TableFingerprint();
+		try (Statement stmt = sqliteCon.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT * FROM " + BatchInserter.quote(tableName))) {
+			int columns = rs.getMetaData().getColumnCount();
+			Object[] row = new Object[columns];
+			while (rs.next()) {
+				for (int i = 0; i < columns; i++) {
+					Object value = rs.getObject(i + 1);
+					row[i] = value instanceof Integer ? Long.valueOf(((Integer) value).longValue()) : value;
+				}
+				fingerprint.add(row);
+			}
+		}
+		return fingerprint;
+	}
+
+	public void add(Object[] row) {
+		long h1 = SEED_1;
+		long h2 = SEED_2;
+		for (int i = 0; i < row.length; i++) {
+			long value = hash(row[i]);
+			h1 = (h1 ^ mix(value)) * PRIME_1 + i;
+			h2 = (h2 + mix(value ^ SEED_2)) * PRIME_2 ^ i;
+		}
+		rows++;
+		sum1 += mix(h1);
+		sum2 += mix(h2);
+	}
+
+	public void merge(TableFingerprint other) {
+		rows += other.rows;
+		sum1 += other.sum1;
+		sum2 += other.sum2;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * Values are hashed by type, the same way they are bound on insert: dates
+	 * and timestamps by their text representation.
+	 */
+	private static long hash(Object value) {
+		if (value == null) {
+			return NULL_HASH;
+		}
+		if (value instanceof String) {
+			return hash((String) value, 1);
+		}
+		if (value instanceof Long) {
+			return mix(((Long) value).longValue() ^ 2);
+		}
+		if (value instanceof Double) {
+			return mix(Double.doubleToLongBits(((Double) value).doubleValue()) ^ 3);
+		}
+		if (value instanceof BigDecimal) {
+			return hash(((BigDecimal) value).toString(), 4);
+		}
+		if (value instanceof byte[]) {
+			return hash((byte[]) value, 5);
+		}
+		return hash(value.toString(), 6);
+	}
+
+	private static long hash(String value, long type) {
+		long h = type * PRIME_2;
+		for (int i = 0; i < value.length(); i++) {
+			h = (h ^ value.charAt(i)) * PRIME_1;
+		}
+		return mix(h ^ value.length());
+	}
+
+	private static long hash(byte[] value, long type) {
+		long h = type * PRIME_2;
+		for (int i = 0; i < value.length; i++) {
+			h = (h ^ (value[i] & 0xFF)) * PRIME_1;
+		}
+		return mix(h ^ value.length);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d:%016x%016x", rows, sum1, sum2);
+	}
+
+}
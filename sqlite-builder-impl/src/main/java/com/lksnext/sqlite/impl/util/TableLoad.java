@@ -0,0 +1,102 @@
+package com.lksnext.sqlite.impl.util;
+
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Target of the rows imported into a SQLite table.
+ * <p>
+ * By default the rows are inserted straight into the final
+ * <code>WITHOUT ROWID</code> table. In bulk-load mode they are inserted into a
+ * plain rowid staging table instead, and {@link #complete(DSLContext)} builds
+ * the final table with a single <code>INSERT ... SELECT ... ORDER BY</code> on
+ * its primary key, so the keyed B-tree is filled in order instead of through
+ * random inserts.
+ */
+public final class TableLoad {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TableLoad.class);
+
+	private static final String STAGING_SUFFIX = "__load";
+
+	private final String tableName;
+
+	private final String loadTable;
+
+	private final String createTableSQL;
+
+	private final String[] columnNames;
+
+	private final String[] keyColumns;
+
+	private TableLoad(String tableName, String loadTable, String createTableSQL, String[] columnNames,
+			String[] keyColumns) {
+		this.tableName = tableName;
+		this.loadTable = loadTable;
+		this.createTableSQL = createTableSQL;
+		this.columnNames = columnNames;
+		this.keyColumns = keyColumns;
+	}
+
+	/**
+	 * Creates the table the rows are inserted into.
+	 */
+	public static TableLoad create(DSLContext create, String tableName, ColumnPlan plan, Object[] firstRow,
+			GenericTable tableDefinition, boolean bulkLoad) {
+		if (!bulkLoad) {
+			ResultSetImporter.createTable(create, tableName, plan, firstRow, tableDefinition);
+			return new TableLoad(tableName, tableName, null, null, null);
+		}
+
+		String createTableSQL = ResultSetImporter.createTableSQL(create, tableName, plan, firstRow,
+				tableDefinition, true);
+		String loadTable = tableName + STAGING_SUFFIX;
+		create.execute(ResultSetImporter.createTableSQL(create, loadTable, plan, firstRow,
+				new GenericTable(DSL.name(loadTable)), false));
+
+		String[] keyColumns = plan.isPkDefined() ? new String[] { ColumnPlan.SQLITE_PK_COLUMN }
+				: plan.getColumnNames();
+		return new TableLoad(tableName, loadTable, createTableSQL, plan.getColumnNames(), keyColumns);
+	}
+
+	/**
+	 * @return table the imported rows must be inserted into
+	 */
+	public String getLoadTable() {
+		return loadTable;
+	}
+
+	/**
+	 * In bulk-load mode, moves the staged rows into the final table sorted by
+	 * its primary key and drops the staging table. Does nothing otherwise.
+	 */
+	public void complete(DSLContext create) {
+		if (createTableSQL == null) {
+			return;
+		}
+		create.execute(createTableSQL);
+
+		String columns = quotedList(columnNames);
+		int rows = create.execute("INSERT INTO " + quote(tableName) + " (" + columns + ") SELECT " + columns
+				+ " FROM " + quote(loadTable) + " ORDER BY " + quotedList(keyColumns));
+		create.execute("DROP TABLE " + quote(loadTable));
+		LOG.debug("Moved {} staged rows into {}", rows, tableName);
+	}
+
+	private static String quotedList(String[] names) {
+		StringBuilder list = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0) {
+				list.append(", ");
+			}
+			list.append(quote(names[i]));
+		}
+		return list.toString();
+	}
+
+	private static String quote(String name) {
+		return '"' + name.replace("\"", "\"\"") + '"';
+	}
+}